@@ -31,16 +31,25 @@
 package net.imagej.ops.fopd;
 
 import net.imagej.ops.OpService;
+import net.imagej.ops.fopd.helper.FlatArrays;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.RealType;
 
 /**
  * DualVariables holds as many dual variables as needed.
  * 
+ * If img is an ArrayImg of DoubleType or FloatType, the dual variables are
+ * flat arrays as well (see {@link FlatArrays}). A dual variable is only
+ * allocated when it is accessed for the first time.
+ * 
  * @author Tim-Oliver Buchholz, University of Konstanz
  */
 public class DualVariables<T extends RealType<T>> {
 
+	private final OpService ops;
+
+	private final RandomAccessibleInterval<T> img;
+
 	private final RandomAccessibleInterval<T>[] dualVariables;
 
 	private final int numVariables;
@@ -51,17 +60,20 @@ public class DualVariables<T extends RealType<T>> {
 	public DualVariables(final OpService ops,
 		final RandomAccessibleInterval<T> img, final int numDualVariables)
 	{
+		this.ops = ops;
+		this.img = img;
 		dualVariables = new RandomAccessibleInterval[numDualVariables];
-		for (int i = 0; i < numDualVariables; i++) {
-			this.dualVariables[i] = (RandomAccessibleInterval<T>) ops.create()
-				.img(img);
-		}
 		this.numVariables = dualVariables.length;
-		this.type = dualVariables[0].randomAccess().get().createVariable();
+		this.type = img.randomAccess().get().createVariable();
 	}
 
-	public RandomAccessibleInterval<T> getDualVariable(final int i) {
-		if (i <= numVariables) {
+	public synchronized RandomAccessibleInterval<T> getDualVariable(
+		final int i)
+	{
+		if (i < numVariables) {
+			if (dualVariables[i] == null) {
+				dualVariables[i] = FlatArrays.create(ops, img);
+			}
 			return dualVariables[i];
 		}
 		throw new ArrayIndexOutOfBoundsException("Only " + numVariables +
@@ -77,7 +89,35 @@ public class DualVariables<T extends RealType<T>> {
 		return this.numVariables;
 	}
 
+	/**
+	 * @return all dual variables, allocates the ones which were not accessed
+	 *         yet
+	 */
 	public RandomAccessibleInterval<T>[] getAllDualVariables() {
+		for (int i = 0; i < numVariables; i++) {
+			getDualVariable(i);
+		}
 		return this.dualVariables;
 	}
+
+	/**
+	 * @param i index of the dual variable
+	 * @return true if dual variable i was accessed and therefore allocated
+	 */
+	public synchronized boolean isAllocated(final int i) {
+		return dualVariables[i] != null;
+	}
+
+	/**
+	 * @return the number of allocated dual variables
+	 */
+	public synchronized int getNumAllocated() {
+		int numAllocated = 0;
+		for (final RandomAccessibleInterval<T> dv : dualVariables) {
+			if (dv != null) {
+				numAllocated++;
+			}
+		}
+		return numAllocated;
+	}
 }
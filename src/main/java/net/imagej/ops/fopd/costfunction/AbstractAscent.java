@@ -32,25 +32,34 @@ package net.imagej.ops.fopd.costfunction;
 
 import net.imagej.ops.OpService;
 import net.imagej.ops.fopd.Ascent;
+import net.imagej.ops.fopd.BufferDeclaration;
+import net.imagej.ops.fopd.ScalableStepSize;
+import net.imagej.ops.fopd.helper.ViewExecutor;
+import net.imagej.ops.fopd.helper.ViewTask;
 import net.imagej.ops.fopd.operator.LinearOperator;
+import net.imagej.ops.fopd.solver.MemoryEstimator;
 import net.imagej.ops.fopd.solver.SolverState;
 import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converter;
+import net.imglib2.converter.Converters;
 import net.imglib2.type.numeric.RealType;
 
 import org.scijava.plugin.Parameter;
+import org.scijava.thread.ThreadService;
 
 /**
  * Implements the multi-view functionality. Every {@link CostFunction} has to
  * implement {@link AbstractAscent#doAscent(SolverState, int)} which then will
- * be called for each view.
+ * be called for each view. The views are processed concurrently, as far as
+ * the memory allows (see {@link ViewExecutor}).
  * 
  * @author Tim-Oliver Buchholz, Universtiy of Konstanz
  * @param <T>
  */
 public abstract class AbstractAscent<T extends RealType<T>> extends
 	AbstractUnaryFunctionOp<SolverState<T>, SolverState<T>> implements
-	Ascent<T>
+	Ascent<T>, ScalableStepSize, BufferDeclaration
 {
 
 	@Parameter
@@ -62,12 +71,131 @@ public abstract class AbstractAscent<T extends RealType<T>> extends
 	@Parameter
 	protected LinearOperator<T>[] operator;
 
-	public SolverState<T> calculate(SolverState<T> input) {
-		for (int i = 0; i < input.getNumViews(); i++) {
-			doAscent(input, i);
+	@Parameter
+	private ThreadService ts;
+
+	/**
+	 * The ascent step-size.
+	 */
+	protected double stepSize = 1.0;
+
+	/**
+	 * Maximum number of concurrent views.
+	 */
+	private int maxParallelViews = ViewExecutor.AUTOMATIC;
+
+	/**
+	 * Converter which multiplies by stepSize.
+	 */
+	private final Converter<T, T> stepSizeConverter = new Converter<T, T>() {
+
+		public void convert(T in, T out) {
+			out.setReal(in.getRealDouble() * stepSize);
+		}
+	};
+
+	public SolverState<T> calculate(final SolverState<T> input) {
+		final int maxViews = ViewExecutor.maxViews(input.getResultImage(0), input
+			.getNumViews(), maxParallelViews);
+		if (maxViews == 1) {
+			for (int i = 0; i < input.getNumViews(); i++) {
+				doAscent(input, i);
+			}
+			return input;
 		}
+
+		prepareAscent(input);
+		ViewExecutor.run(ts, input.getNumViews(), maxViews, new ViewTask<Void>() {
+
+			public Void run(final int i) {
+				doAscent(input, i);
+				return null;
+			}
+		});
 		return input;
 	}
 
 	public abstract void doAscent(final SolverState<T> input, final int i);
+
+	/**
+	 * Set up everything which is shared by the views, e.g. lazily created ops
+	 * or values which depend on the step-size. Is called before the views are
+	 * processed concurrently, so that {@link #doAscent(SolverState, int)} only
+	 * writes the dual variable of its view.
+	 * 
+	 * @param input the current state
+	 */
+	protected void prepareAscent(final SolverState<T> input) {
+		// NB: Nothing is shared by default.
+	}
+
+	/**
+	 * The buffers of the operators.
+	 */
+	public long getBufferBytes() {
+		long bytes = 0;
+		for (final LinearOperator<T> op : operator) {
+			bytes += MemoryEstimator.getBufferBytes(op);
+		}
+		return bytes;
+	}
+
+	public int getNumScratchImages() {
+		return 0;
+	}
+
+	/**
+	 * @param maxParallelViews maximum number of views which are processed at
+	 *          the same time, {@link ViewExecutor#AUTOMATIC} to decide by the
+	 *          cores and the free memory
+	 */
+	public void setMaxParallelViews(final int maxParallelViews) {
+		this.maxParallelViews = maxParallelViews;
+	}
+
+	/**
+	 * @return the ascent step-size
+	 */
+	public double getStepSize() {
+		return stepSize;
+	}
+
+	public void scaleStepSize(final double factor) {
+		stepSize *= factor;
+	}
+
+	/**
+	 * @param img the image
+	 * @param type of the result
+	 * @return stepSize * img as view
+	 */
+	protected RandomAccessibleInterval<T> scaleByStepSize(
+		final RandomAccessibleInterval<T> img, final T type)
+	{
+		return Converters.convert(img, stepSizeConverter, type);
+	}
+
+	/**
+	 * @param i the view
+	 * @return the observed image of view i
+	 */
+	public RandomAccessibleInterval<T> getF(final int i) {
+		return f[i];
+	}
+
+	/**
+	 * Has to be called after the values of the observed images were
+	 * overwritten, so that values derived from them are recomputed.
+	 */
+	public void observedImagesChanged() {
+		// NB: Nothing is derived from f by default.
+	}
+
+	/**
+	 * @param i the view
+	 * @return the {@link LinearOperator} of view i
+	 */
+	public LinearOperator<T> getOperator(final int i) {
+		return operator[i];
+	}
 }
@@ -32,10 +32,17 @@ package net.imagej.ops.fopd.costfunction;
 
 import net.imagej.ops.fopd.Ascent;
 import net.imagej.ops.fopd.Descent;
+import net.imagej.ops.fopd.solver.SolverState;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
 
 /**
- * Abstract implementation of {@link CostFunction}.
+ * Abstract implementation of {@link CostFunction}. The energies are summed
+ * over all pixels and views of the point-wise
+ * {@link AbstractCostFunction#primal(double, double)} and
+ * {@link AbstractCostFunction#conjugate(double, double)}.
  * 
  * @author Tim-Oliver Buchholz, University of Konstanz
  * @param <T>
@@ -55,4 +62,65 @@ public abstract class AbstractCostFunction<T extends RealType<T>> implements
 	public Descent<T> getDescent() {
 		return this.descent;
 	}
+
+	public double getPrimalEnergy(final SolverState<T> state) {
+		final AbstractAscent<T> a = (AbstractAscent<T>) ascent;
+		double energy = 0;
+		for (int i = 0; i < state.getNumViews(); i++) {
+			energy += sum(a.getOperator(i).calculate(state.getIntermediateResult(
+				0)), a.getF(i), true);
+		}
+		return energy;
+	}
+
+	public double getConjugateEnergy(final SolverState<T> state) {
+		final AbstractAscent<T> a = (AbstractAscent<T>) ascent;
+		double energy = 0;
+		for (int i = 0; i < state.getNumViews(); i++) {
+			energy += sum(state.getCostFunctionDV().getDualVariable(i), a.getF(i),
+				false);
+		}
+		return energy;
+	}
+
+	public RandomAccessibleInterval<T> getAdjoint(final SolverState<T> state,
+		final int i)
+	{
+		return ((AbstractDescent<T>) descent).getOperator(i).calculate(state
+			.getCostFunctionDV().getDualVariable(i));
+	}
+
+	public void setMaxParallelViews(final int maxParallelViews) {
+		((AbstractAscent<T>) ascent).setMaxParallelViews(maxParallelViews);
+		((AbstractDescent<T>) descent).setMaxParallelViews(maxParallelViews);
+	}
+
+	private double sum(final RandomAccessibleInterval<T> values,
+		final RandomAccessibleInterval<T> f, final boolean primal)
+	{
+		final Cursor<T> cv = Views.flatIterable(values).cursor();
+		final Cursor<T> cf = Views.flatIterable(f).cursor();
+		double energy = 0;
+		while (cv.hasNext()) {
+			final double value = cv.next().getRealDouble();
+			final double observed = cf.next().getRealDouble();
+			energy += primal ? primal(value, observed) : conjugate(value,
+				observed);
+		}
+		return energy;
+	}
+
+	/**
+	 * @param value K u at one pixel
+	 * @param f the observed value at this pixel
+	 * @return F(value)
+	 */
+	protected abstract double primal(final double value, final double f);
+
+	/**
+	 * @param q the dual variable at one pixel
+	 * @param f the observed value at this pixel
+	 * @return F*(q)
+	 */
+	protected abstract double conjugate(final double q, final double f);
 }
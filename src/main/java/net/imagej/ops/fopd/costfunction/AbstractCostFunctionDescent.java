@@ -58,17 +58,16 @@ public class AbstractCostFunctionDescent<T extends RealType<T>> extends
 
 	@SuppressWarnings("unchecked")
 	@Override
-	public void doDescent(SolverState<T> input, int i) {
-		final DualVariables<T> dualVariables = input.getCostFunctionDV();
-
+	protected void reduce(final SolverState<T> input,
+		final RandomAccessibleInterval<T> adjoint)
+	{
 		if (mapperSubtract == null) {
-			init(dualVariables);
+			init(input.getCostFunctionDV());
 		}
 
 		mapperSubtract.compute(input.getIntermediateResult(0), Converters
-			.convert(operator[i].calculate(dualVariables.getDualVariable(i)),
-				converter, input.getType()), (IterableInterval<T>) input
-					.getIntermediateResult(0));
+			.convert(adjoint, converter, input.getType()),
+			(IterableInterval<T>) input.getIntermediateResult(0));
 	}
 
 	@SuppressWarnings("unchecked")
@@ -30,26 +30,39 @@
 
 package net.imagej.ops.fopd.costfunction;
 
+import java.util.List;
+
 import net.imagej.ops.OpService;
+import net.imagej.ops.fopd.BufferDeclaration;
 import net.imagej.ops.fopd.Descent;
+import net.imagej.ops.fopd.ScalableStepSize;
+import net.imagej.ops.fopd.helper.ViewExecutor;
+import net.imagej.ops.fopd.helper.ViewTask;
 import net.imagej.ops.fopd.operator.LinearOperator;
+import net.imagej.ops.fopd.operator.SpectralAdjointSum;
+import net.imagej.ops.fopd.solver.MemoryEstimator;
 import net.imagej.ops.fopd.solver.SolverState;
 import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.RealType;
 
 import org.scijava.plugin.Parameter;
+import org.scijava.thread.ThreadService;
 
 /**
  * Implements the multi-view functionality. Every {@link CostFunction} has to
  * implement {@link AbstractDescent#doDescent(SolverState, int)} which then
- * will be called for each view.
+ * will be called for each view. The operators of the views are applied
+ * concurrently, as far as the memory allows (see {@link ViewExecutor}), and
+ * their results are reduced in view order. With a {@link SpectralAdjointSum}
+ * the results of all views are summed in the frequency domain instead.
  * 
  * @author Tim-Oliver Buchholz, Universtiy of Konstanz
  * @param <T>
  */
 public abstract class AbstractDescent<T extends RealType<T>> extends
 	AbstractUnaryFunctionOp<SolverState<T>, SolverState<T>> implements
-	Descent<T>
+	Descent<T>, ScalableStepSize, BufferDeclaration
 {
 
 	@Parameter
@@ -58,19 +71,178 @@ public abstract class AbstractDescent<T extends RealType<T>> extends
 	protected double stepSize;
 	@Parameter
 	protected OpService ops;
+	@Parameter
+	private ThreadService ts;
+
+	/**
+	 * Maximum number of concurrent views.
+	 */
+	private int maxParallelViews = ViewExecutor.AUTOMATIC;
+
+	/**
+	 * Optional sum of the operators of all views.
+	 */
+	private SpectralAdjointSum<T> adjointSum;
 
 	public AbstractDescent() {
 		super();
 	}
 
-	public SolverState<T> calculate(SolverState<T> input) {
+	public SolverState<T> calculate(final SolverState<T> input) {
+		final int maxViews = ViewExecutor.maxViews(input.getResultImage(0), input
+			.getNumViews(), maxParallelViews);
+		if (adjointSum == null && maxViews == 1) {
+			for (int i = 0; i < input.getNumViews(); i++) {
+				doDescent(input, i);
+			}
+			return input;
+		}
 
-		for (int i = 0; i < input.getNumViews(); i++) {
-			doDescent(input, i);
+		for (final RandomAccessibleInterval<T> adjoint : applyOperators(input,
+			maxViews))
+		{
+			reduce(input, adjoint);
 		}
 		return input;
 	}
 
-	public abstract void doDescent(final SolverState<T> input, final int i);
+	/**
+	 * Apply the operators of all views without reducing them, e.g. for a fused
+	 * primal update (see
+	 * {@link net.imagej.ops.fopd.solver.DefaultPrimalUpdate}). The views are
+	 * processed concurrently like in {@link #calculate(SolverState)}.
+	 * 
+	 * @param input the current state
+	 * @return the results of {@link #applyOperator(SolverState, int)} in view
+	 *         order, or only their sum, if a {@link SpectralAdjointSum} is set
+	 */
+	public RandomAccessibleInterval<T>[] applyOperators(
+		final SolverState<T> input)
+	{
+		return applyOperators(input, ViewExecutor.maxViews(input.getResultImage(
+			0), input.getNumViews(), maxParallelViews));
+	}
+
+	public void doDescent(final SolverState<T> input, final int i) {
+		reduce(input, applyOperator(input, i));
+	}
+
+	@SuppressWarnings("unchecked")
+	private RandomAccessibleInterval<T>[] applyOperators(
+		final SolverState<T> input, final int maxViews)
+	{
+		final RandomAccessibleInterval<T>[] adjoints =
+			new RandomAccessibleInterval[input.getNumViews()];
+		if (adjointSum != null) {
+			for (int i = 0; i < adjoints.length; i++) {
+				adjoints[i] = input.getCostFunctionDV().getDualVariable(i);
+			}
+			return new RandomAccessibleInterval[] { adjointSum.calculate(adjoints,
+				maxViews) };
+		}
+		if (maxViews == 1) {
+			for (int i = 0; i < adjoints.length; i++) {
+				adjoints[i] = applyOperator(input, i);
+			}
+			return adjoints;
+		}
+
+		final List<RandomAccessibleInterval<T>> results = ViewExecutor.run(ts,
+			adjoints.length, maxViews,
+			new ViewTask<RandomAccessibleInterval<T>>()
+			{
+
+				public RandomAccessibleInterval<T> run(final int i) {
+					return applyOperator(input, i);
+				}
+			});
+		return results.toArray(adjoints);
+	}
+
+	/**
+	 * Is called concurrently for all views. The result must not be
+	 * overwritten by the other views, e.g. the output buffer of the operator
+	 * of view i.
+	 * 
+	 * @param input the current state
+	 * @param i the view
+	 * @return the operator of view i applied to its dual variable
+	 */
+	protected RandomAccessibleInterval<T> applyOperator(
+		final SolverState<T> input, final int i)
+	{
+		return operator[i].calculate(input.getCostFunctionDV().getDualVariable(
+			i));
+	}
+
+	/**
+	 * Update the primal variables with the operator result of a view, or the
+	 * sum of the results of all views. Is called in view order, so that the
+	 * result does not depend on the number of concurrent views.
+	 * 
+	 * @param input the current state
+	 * @param adjoint the result of {@link #applyOperator(SolverState, int)}
+	 */
+	protected abstract void reduce(final SolverState<T> input,
+		final RandomAccessibleInterval<T> adjoint);
+
+	/**
+	 * The buffers of the operators and of the {@link SpectralAdjointSum}.
+	 */
+	public long getBufferBytes() {
+		long bytes = adjointSum == null ? 0 : adjointSum.getBufferBytes();
+		for (final LinearOperator<T> op : operator) {
+			bytes += MemoryEstimator.getBufferBytes(op);
+		}
+		return bytes;
+	}
+
+	public int getNumScratchImages() {
+		return 0;
+	}
+
+	/**
+	 * @param maxParallelViews maximum number of views which are processed at
+	 *          the same time, {@link ViewExecutor#AUTOMATIC} to decide by the
+	 *          cores and the free memory
+	 */
+	public void setMaxParallelViews(final int maxParallelViews) {
+		this.maxParallelViews = maxParallelViews;
+	}
+
+	/**
+	 * @param adjointSum computes the sum of the operators of all views at once,
+	 *          must match the operators of this descent. Null applies the
+	 *          operators one by one.
+	 */
+	public void setAdjointSum(final SpectralAdjointSum<T> adjointSum) {
+		this.adjointSum = adjointSum;
+	}
+
+	/**
+	 * @return the sum of the operators of all views, or null
+	 */
+	public SpectralAdjointSum<T> getAdjointSum() {
+		return adjointSum;
+	}
+
+	/**
+	 * @return the descent step-size
+	 */
+	public double getStepSize() {
+		return stepSize;
+	}
+
+	public void scaleStepSize(final double factor) {
+		stepSize *= factor;
+	}
+
+	/**
+	 * @param i the view
+	 * @return the {@link LinearOperator} of view i
+	 */
+	public LinearOperator<T> getOperator(final int i) {
+		return operator[i];
+	}
 
 }
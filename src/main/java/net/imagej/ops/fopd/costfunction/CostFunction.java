@@ -32,6 +32,8 @@ package net.imagej.ops.fopd.costfunction;
 
 import net.imagej.ops.fopd.Ascent;
 import net.imagej.ops.fopd.Descent;
+import net.imagej.ops.fopd.solver.SolverState;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.RealType;
 
 /**
@@ -46,4 +48,32 @@ public interface CostFunction<T extends RealType<T>> {
 	public Ascent<T> getAscent();
 
 	public Descent<T> getDescent();
+
+	/**
+	 * @param state the current state
+	 * @return sum over all views of F(K_i u) of the current primal iterate u,
+	 *         which is the intermediate result
+	 */
+	public double getPrimalEnergy(SolverState<T> state);
+
+	/**
+	 * @param state the current state
+	 * @return sum over all views of F*(q_i) of the current cost function dual
+	 *         variables q_i
+	 */
+	public double getConjugateEnergy(SolverState<T> state);
+
+	/**
+	 * @param state the current state
+	 * @param i the view
+	 * @return K_i^T q_i
+	 */
+	public RandomAccessibleInterval<T> getAdjoint(SolverState<T> state, int i);
+
+	/**
+	 * @param maxParallelViews maximum number of views which the ascent and the
+	 *          descent process at the same time, 0 to decide by the cores and
+	 *          the free memory
+	 */
+	public void setMaxParallelViews(int maxParallelViews);
 }
@@ -61,4 +61,32 @@ public class KLDivergence<T extends RealType<T>> extends
 		this.descent = ops.op(KLDivergenceDescent.class, SolverState.class,
 			operatorDescent, descentStepSize);
 	}
+
+	/**
+	 * Ku - f + f * log(f / Ku)
+	 */
+	@Override
+	protected double primal(final double value, final double f) {
+		if (value <= 0) {
+			return f > 0 ? Double.POSITIVE_INFINITY : 0;
+		}
+		if (f <= 0) {
+			return value;
+		}
+		return value - f + f * Math.log(f / value);
+	}
+
+	/**
+	 * -f * log(1 - q) for q < 1
+	 */
+	@Override
+	protected double conjugate(final double q, final double f) {
+		if (q > 1 || (q == 1 && f > 0)) {
+			return Double.POSITIVE_INFINITY;
+		}
+		if (f <= 0) {
+			return 0;
+		}
+		return -f * Math.log(1 - q);
+	}
 }
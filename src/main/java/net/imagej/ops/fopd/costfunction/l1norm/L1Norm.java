@@ -59,4 +59,20 @@ public class L1Norm<T extends RealType<T>> extends AbstractCostFunction<T> {
 		this.descent = ops.op(L1NormDescent.class, SolverState.class,
 			operatorDescent, descentStepSize);
 	}
+
+	/**
+	 * |Ku - f|
+	 */
+	@Override
+	protected double primal(final double value, final double f) {
+		return Math.abs(value - f);
+	}
+
+	/**
+	 * q * f, since |q| <= 1 holds after the ascent.
+	 */
+	@Override
+	protected double conjugate(final double q, final double f) {
+		return q * f;
+	}
 }
@@ -61,4 +61,20 @@ public class SquaredL2Norm<T extends RealType<T>> extends
 		this.descent = ops.op(SquaredL2NormDescent.class, SolverState.class,
 			descentConvolver, descentStepSize);
 	}
+
+	/**
+	 * 1/2 * (Ku - f)^2
+	 */
+	@Override
+	protected double primal(final double value, final double f) {
+		return 0.5 * (value - f) * (value - f);
+	}
+
+	/**
+	 * q * f + 1/2 * q^2
+	 */
+	@Override
+	protected double conjugate(final double q, final double f) {
+		return q * f + 0.5 * q * q;
+	}
 }
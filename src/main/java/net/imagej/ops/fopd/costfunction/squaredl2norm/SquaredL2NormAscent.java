@@ -30,18 +30,11 @@
 
 package net.imagej.ops.fopd.costfunction.squaredl2norm;
 
-import net.imagej.ops.Ops;
-import net.imagej.ops.Ops.Map;
 import net.imagej.ops.fopd.Ascent;
-import net.imagej.ops.fopd.DualVariables;
 import net.imagej.ops.fopd.costfunction.AbstractAscent;
+import net.imagej.ops.fopd.helper.DataTermDualUpdate;
+import net.imagej.ops.fopd.helper.DefaultSquaredL2DualUpdate;
 import net.imagej.ops.fopd.solver.SolverState;
-import net.imagej.ops.map.MapBinaryComputers.RAIAndRAIToIIParallel;
-import net.imagej.ops.map.MapUnaryComputers.IIToIIParallel;
-import net.imagej.ops.special.computer.BinaryComputerOp;
-import net.imagej.ops.special.computer.Computers;
-import net.imagej.ops.special.computer.UnaryComputerOp;
-import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.RealType;
 
@@ -50,6 +43,9 @@ import org.scijava.plugin.Plugin;
 /**
  * L2-Norm as costfunction of one 2D image: {@link Ascent} Step.
  * 
+ * The dual variable of each view is updated in one pass, see
+ * {@link DefaultSquaredL2DualUpdate}.
+ * 
  * @author Tim-Oliver Buchholz, University of Konstanz
  * @param <T>
  */
@@ -58,63 +54,30 @@ public class SquaredL2NormAscent<T extends RealType<T>> extends
 	AbstractAscent<T>
 {
 
-	private RAIAndRAIToIIParallel<T, T, T> mapperSubtract;
-
-	private RandomAccessibleInterval<T> diff;
-
-	private RAIAndRAIToIIParallel<T, T, T> mapperAdd;
-
-	private IIToIIParallel<T, T> inplaceMapper;
+	/**
+	 * One dual update per view, each holds the observed image of its view.
+	 */
+	private DataTermDualUpdate<T>[] dualUpdate;
 
 	@Override
-	@SuppressWarnings("unchecked")
 	public void doAscent(final SolverState<T> input, final int i) {
-		final DualVariables<T> dualVariables = input.getCostFunctionDV();
-
-		if (mapperSubtract == null || mapperAdd == null || diff == null ||
-			inplaceMapper == null)
-		{
-			init(dualVariables);
-		}
+		prepareAscent(input);
 
-		mapperSubtract.compute(operator[i].calculate(input.getResultImage(0)),
-			f[i], (IterableInterval<T>) diff);
-
-		mapperAdd.compute(dualVariables.getDualVariable(i), diff,
-			(IterableInterval<T>) dualVariables.getDualVariable(i));
-
-		inplaceMapper.compute((IterableInterval<T>) dualVariables
-			.getDualVariable(i), (IterableInterval<T>) dualVariables
-				.getDualVariable(i));
+		dualUpdate[i].setStepSize(stepSize);
+		dualUpdate[i].mutate1(input.getCostFunctionDV().getDualVariable(i),
+			operator[i].calculate(input.getResultImage(0)));
 	}
 
+	@Override
 	@SuppressWarnings("unchecked")
-	private void init(final DualVariables<T> input) {
-
-		final BinaryComputerOp<T, T, T> subtractComputer = Computers.binary(ops,
-			Ops.Math.Subtract.class, input.getType(), input.getType(), input
-				.getType());
-		mapperSubtract = (RAIAndRAIToIIParallel<T, T, T>) ops.op(Map.class,
-			IterableInterval.class, RandomAccessibleInterval.class,
-			RandomAccessibleInterval.class, BinaryComputerOp.class);
-		mapperSubtract.setOp(subtractComputer);
-
-		final BinaryComputerOp<T, T, T> addComputer = Computers.binary(ops,
-			Ops.Math.Add.class, input.getType(), input.getType(), input
-				.getType());
-		mapperAdd = (RAIAndRAIToIIParallel<T, T, T>) ops.op(Map.class,
-			IterableInterval.class, RandomAccessibleInterval.class,
-			RandomAccessibleInterval.class, BinaryComputerOp.class);
-		mapperAdd.setOp(addComputer);
-		diff = (RandomAccessibleInterval<T>) ops.create().img(input
-			.getDualVariable(0));
-
-		T divider = input.getType();
-		divider.setReal(2.0);
-		inplaceMapper = (IIToIIParallel<T, T>) ops.op(Map.class,
-			IterableInterval.class, IterableInterval.class,
-			UnaryComputerOp.class);
-		inplaceMapper.setOp(Computers.unary(ops, Ops.Math.Divide.class, input
-			.getType(), divider));
+	protected void prepareAscent(final SolverState<T> input) {
+		if (dualUpdate == null) {
+			dualUpdate = new DataTermDualUpdate[f.length];
+			for (int i = 0; i < f.length; i++) {
+				dualUpdate[i] = ops.op(DefaultSquaredL2DualUpdate.class,
+					RandomAccessibleInterval.class, RandomAccessibleInterval.class,
+					f[i], stepSize);
+			}
+		}
 	}
 }
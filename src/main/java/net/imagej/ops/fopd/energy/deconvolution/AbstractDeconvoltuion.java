@@ -31,19 +31,35 @@
 package net.imagej.ops.fopd.energy.deconvolution;
 
 import net.imagej.ops.OpService;
+import net.imagej.ops.fopd.costfunction.AbstractDescent;
 import net.imagej.ops.fopd.costfunction.CostFunction;
+import net.imagej.ops.fopd.helper.FlatArrays;
+import net.imagej.ops.fopd.helper.MappedStorage;
+import net.imagej.ops.fopd.operator.Boundary;
 import net.imagej.ops.fopd.operator.FastConvolver;
 import net.imagej.ops.fopd.operator.LinearOperator;
+import net.imagej.ops.fopd.operator.SpatialConvolver;
+import net.imagej.ops.fopd.operator.SpectralAdjointSum;
+import net.imagej.ops.fopd.operator.SpectralConvolver;
 import net.imagej.ops.fopd.regularizer.Regularizer;
+import net.imagej.ops.fopd.solver.Convolution;
 import net.imagej.ops.fopd.solver.DefaultSolver;
+import net.imagej.ops.fopd.solver.MemoryEstimator;
+import net.imagej.ops.fopd.solver.Precision;
+import net.imagej.ops.fopd.solver.PreparedSolver;
 import net.imagej.ops.fopd.solver.Solver;
+import net.imagej.ops.fopd.solver.SolverPreparer;
+import net.imagej.ops.fopd.solver.SolverSettings;
 import net.imagej.ops.fopd.solver.SolverState;
+import net.imagej.ops.fopd.solver.StoppingCriterion;
 import net.imagej.ops.special.function.AbstractBinaryFunctionOp;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.view.Views;
 
 import org.scijava.plugin.Parameter;
+import org.scijava.thread.ThreadService;
 
 /**
  * Initialize the {@link LinearOperator} for the deconvolution problem. Actual
@@ -58,19 +74,37 @@ import org.scijava.plugin.Parameter;
  */
 public abstract class AbstractDeconvoltuion<T extends RealType<T>> extends
 	AbstractBinaryFunctionOp<RandomAccessibleInterval<T>[], RandomAccessibleInterval<T>[], RandomAccessibleInterval<T>>
+	implements SolverPreparer<T>
 {
 
+	/**
+	 * Maximum number of iterations.
+	 */
 	@Parameter
 	private int numIt;
 
+	/**
+	 * Optional {@link SolverSettings}.
+	 */
+	@Parameter(required = false)
+	protected SolverSettings settings;
+
+	/**
+	 * Used if no settings are given. Kept per op, so that repeated calls reuse
+	 * the scratch images of its pool.
+	 */
+	private final SolverSettings defaultSettings = new SolverSettings();
+
 	@Parameter
 	protected OpService ops;
 
+	@Parameter
+	private ThreadService ts;
+
 	public AbstractDeconvoltuion() {
 		super();
 	}
 
-	@SuppressWarnings({ "unchecked" })
 	public RandomAccessibleInterval<T> calculate(
 		RandomAccessibleInterval<T>[] input,
 		RandomAccessibleInterval<T>[] kernel)
@@ -81,34 +115,201 @@ public abstract class AbstractDeconvoltuion<T extends RealType<T>> extends
 				"Number of input images differs from number of kernels.");
 		}
 
+		if (getSettings().getPrecision() == Precision.FLOAT && !FlatArrays
+			.isFloats(input))
+		{
+			return solveInFloat(input, kernel);
+		}
+		return solve(input, kernel);
+	}
+
+	/**
+	 * Solve on float copies of the input and kernels and convert the result
+	 * back to T.
+	 * 
+	 * @param input the input images
+	 * @param kernel the kernels
+	 * @return the result in the type of the input
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private RandomAccessibleInterval<T> solveInFloat(
+		final RandomAccessibleInterval<T>[] input,
+		final RandomAccessibleInterval<T>[] kernel)
+	{
+		final RandomAccessibleInterval[] floatInput =
+			new RandomAccessibleInterval[input.length];
+		final RandomAccessibleInterval[] floatKernel =
+			new RandomAccessibleInterval[kernel.length];
+		for (int i = 0; i < input.length; i++) {
+			floatInput[i] = FlatArrays.toFloats(input[i]);
+			floatKernel[i] = FlatArrays.toFloats(kernel[i]);
+		}
+
+		final RandomAccessibleInterval<T> result =
+			(RandomAccessibleInterval<T>) ops.create().img(input[0]);
+		FlatArrays.copy(
+			(RandomAccessibleInterval<FloatType>) (RandomAccessibleInterval) solve(
+				floatInput, floatKernel), result);
+		return result;
+	}
+
+	private RandomAccessibleInterval<T> solve(
+		final RandomAccessibleInterval<T>[] input,
+		final RandomAccessibleInterval<T>[] kernel)
+	{
+		final RandomAccessibleInterval<T> result = build(input, kernel).run();
+		if (!MappedStorage.isMapped(result)) {
+			return result;
+		}
+		// NB: The mapped state is dropped, only the result is kept on the heap.
+		@SuppressWarnings("unchecked")
+		final RandomAccessibleInterval<T> copy =
+			(RandomAccessibleInterval<T>) ops.create().img(input[0]);
+		FlatArrays.copy(result, copy);
+		return copy;
+	}
+
+	/**
+	 * Set up the solver for images like template and the kernels of this op.
+	 * The {@link Precision} of the settings is not applied, the images are
+	 * solved in their own type.
+	 */
+	@SuppressWarnings("unchecked")
+	public PreparedSolver<T> prepare(
+		final RandomAccessibleInterval<T>[] template)
+	{
+		if (template.length != in2().length) {
+			throw new IllegalArgumentException(
+				"Number of input images differs from number of kernels.");
+		}
+		final RandomAccessibleInterval<T>[] observed =
+			new RandomAccessibleInterval[template.length];
+		for (int i = 0; i < template.length; i++) {
+			observed[i] = FlatArrays.create(ops, template[i]);
+		}
+		return build(observed, in2());
+	}
+
+	/**
+	 * The solver is built on views of the templates and kernels in the
+	 * precision of the settings, which allocates none of its images.
+	 */
+	public long estimatePeakBytes(
+		final RandomAccessibleInterval<T>[] template)
+	{
+		if (template.length != in2().length) {
+			throw new IllegalArgumentException(
+				"Number of input images differs from number of kernels.");
+		}
+		final SolverSettings solverSettings = getSettings();
+		final RandomAccessibleInterval<T>[] solved = MemoryEstimator
+			.getSolvedTemplates(template, solverSettings);
+		final RandomAccessibleInterval<T>[] kernel = solved == template ? in2()
+			: MemoryEstimator.getSolvedTemplates(in2(), solverSettings);
+		return MemoryEstimator.peakBytes(build(solved, kernel), template,
+			solverSettings);
+	}
+
+	/**
+	 * @param input the observed images, which are held by the cost function
+	 * @param kernel the kernels
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private PreparedSolver<T> build(final RandomAccessibleInterval<T>[] input,
+		final RandomAccessibleInterval<T>[] kernel)
+	{
+		final SolverSettings solverSettings = getSettings();
 		final Regularizer<T> tgv = getRegularizer(input.length);
 
 		final LinearOperator<T>[] ascentConvolver =
 			new LinearOperator[kernel.length];
 		final LinearOperator<T>[] descentConvolver =
 			new LinearOperator[kernel.length];
+		final SpectralConvolver<T>[] spectralConvolver =
+			new SpectralConvolver[kernel.length];
+		int numSpectral = 0;
 
+		final Boundary boundary = solverSettings.getBoundary();
 		for (int i = 0; i < kernel.length; i++) {
-			ascentConvolver[i] = ops.op(FastConvolver.class, input[i],
-				kernel[i]);
-			if (kernel[i].numDimensions() == 2) {
-				descentConvolver[i] = ops.op(FastConvolver.class, input[i], Views
-					.invertAxis(Views.invertAxis(ops.copy().rai(kernel[i]), 0), 1));
-			} else if (kernel[i].numDimensions() == 3) {
-				descentConvolver[i] = ops.op(FastConvolver.class, input[i],
-						Views.invertAxis(Views.invertAxis(Views.invertAxis(ops.copy().rai(kernel[i]), 0), 1), 2));
+			Convolution convolution = solverSettings.getConvolution();
+			if (convolution == Convolution.AUTOMATIC) {
+				convolution = SpatialConvolver.isCheaper(input[i], kernel[i],
+					boundary) ? Convolution.SPATIAL : Convolution.SPECTRAL;
+			}
+
+			if (convolution == Convolution.SPATIAL) {
+				final SpatialConvolver<T> convolver = ops.op(SpatialConvolver.class,
+					input[i], kernel[i], boundary);
+				ascentConvolver[i] = convolver;
+				descentConvolver[i] = convolver.getAdjoint();
+			} else if (convolution == Convolution.SPECTRAL) {
+				final SpectralConvolver<T> convolver = ops.op(
+					SpectralConvolver.class, input[i], kernel[i], boundary);
+				ascentConvolver[i] = convolver;
+				descentConvolver[i] = convolver.getAdjoint();
+				spectralConvolver[i] = convolver;
+				numSpectral++;
+			} else {
+				ascentConvolver[i] = ops.op(FastConvolver.class, input[i],
+					kernel[i], boundary);
+				descentConvolver[i] = createFlippedConvolver(input[i], kernel[i],
+					boundary);
 			}
 		}
 
 		final CostFunction<T> cf = getCostFunction(input, ascentConvolver,
 			descentConvolver);
-		final SolverState<T> state = getSolverState(input);
+		cf.setMaxParallelViews(solverSettings.getParallelViews());
+		if (numSpectral > 1 && numSpectral == kernel.length && SpectralAdjointSum
+			.canCombine(input, kernel))
+		{
+			// one inverse FFT for the adjoints of all views
+			((AbstractDescent<T>) cf.getDescent()).setAdjointSum(
+				new SpectralAdjointSum<T>(ops, ts, spectralConvolver));
+		}
+		final SolverState<T> state = getSolverState(solverSettings
+			.getStateTemplates(input));
+		state.setScratchPool(solverSettings.getScratchPool());
+
+		final StoppingCriterion<T> stoppingCriterion = solverSettings
+			.createStoppingCriterion(tgv, cf);
+		final Class<? extends DefaultSolver> solverClass = solverSettings
+			.getSolverClass(tgv, cf, input.length);
+		final DefaultSolver<T> solver = stoppingCriterion == null ? ops.op(
+			solverClass, state, tgv, cf, numIt) : ops.op(solverClass, state, tgv,
+				cf, numIt, stoppingCriterion);
+		solverSettings.configure(solver);
 
-		final DefaultSolver<T> solver = ops.op(DefaultSolver.class, state, tgv,
-			cf, numIt);
-		solver.calculate(state);
+		return new PreparedSolver<T>(ops, input, state, tgv, cf, solver);
+	}
+
+	/**
+	 * @param input the image
+	 * @param kernel the kernel
+	 * @param boundary the boundary condition
+	 * @return a {@link FastConvolver} with the kernel flipped in all axes
+	 */
+	@SuppressWarnings("unchecked")
+	private LinearOperator<T> createFlippedConvolver(
+		final RandomAccessibleInterval<T> input,
+		final RandomAccessibleInterval<T> kernel, final Boundary boundary)
+	{
+		if (kernel.numDimensions() == 2) {
+			return ops.op(FastConvolver.class, input, Views.invertAxis(Views
+				.invertAxis(ops.copy().rai(kernel), 0), 1), boundary);
+		} else if (kernel.numDimensions() == 3) {
+			return ops.op(FastConvolver.class, input, Views.invertAxis(Views
+				.invertAxis(Views.invertAxis(ops.copy().rai(kernel), 0), 1), 2),
+				boundary);
+		}
+		return null;
+	}
 
-		return state.getResultImage(0);
+	/**
+	 * @return the settings or the defaults, if none are given
+	 */
+	protected SolverSettings getSettings() {
+		return settings != null ? settings : defaultSettings;
 	}
 
 	abstract SolverState<T> getSolverState(
@@ -30,17 +30,34 @@
 
 package net.imagej.ops.fopd.energy.denoising;
 
+import java.util.Arrays;
+
 import net.imagej.ops.OpService;
 import net.imagej.ops.fopd.costfunction.CostFunction;
+import net.imagej.ops.fopd.helper.FlatArrays;
+import net.imagej.ops.fopd.helper.MappedStorage;
+import net.imagej.ops.fopd.helper.TiledExecutor;
 import net.imagej.ops.fopd.operator.Identity;
 import net.imagej.ops.fopd.operator.LinearOperator;
 import net.imagej.ops.fopd.regularizer.Regularizer;
 import net.imagej.ops.fopd.solver.DefaultSolver;
+import net.imagej.ops.fopd.solver.MemoryEstimator;
+import net.imagej.ops.fopd.solver.Precision;
+import net.imagej.ops.fopd.solver.PreparedSolver;
 import net.imagej.ops.fopd.solver.Solver;
+import net.imagej.ops.fopd.solver.SolverPreparer;
+import net.imagej.ops.fopd.solver.SolverSettings;
 import net.imagej.ops.fopd.solver.SolverState;
+import net.imagej.ops.fopd.solver.StoppingCriterion;
 import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.ImgFactory;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
 
 import org.scijava.plugin.Parameter;
 
@@ -57,11 +74,27 @@ import org.scijava.plugin.Parameter;
  */
 public abstract class AbstractDenoising<T extends RealType<T>> extends
 	AbstractUnaryFunctionOp<RandomAccessibleInterval<T>[], RandomAccessibleInterval<T>>
+	implements SolverPreparer<T>
 {
 
+	/**
+	 * Maximum number of iterations.
+	 */
 	@Parameter
 	protected int numIt;
 
+	/**
+	 * Optional {@link SolverSettings}.
+	 */
+	@Parameter(required = false)
+	protected SolverSettings settings;
+
+	/**
+	 * Used if no settings are given. Kept per op, so that repeated calls reuse
+	 * the scratch images of its pool.
+	 */
+	private final SolverSettings defaultSettings = new SolverSettings();
+
 	@Parameter
 	protected OpService ops;
 
@@ -69,11 +102,192 @@ public abstract class AbstractDenoising<T extends RealType<T>> extends
 		super();
 	}
 
-	@SuppressWarnings({ "unchecked" })
 	public RandomAccessibleInterval<T> calculate(
 		RandomAccessibleInterval<T>[] input)
 	{
+		if (getSettings().getChunkSize() > 0) {
+			return solveChunked(input);
+		}
+		return solveInMemory(input, true);
+	}
 
+	/**
+	 * @param input the input images
+	 * @param stopEarly whether the stopping rule of the settings is applied
+	 * @return the result
+	 */
+	private RandomAccessibleInterval<T> solveInMemory(
+		final RandomAccessibleInterval<T>[] input, final boolean stopEarly)
+	{
+		if (getSettings().getPrecision() == Precision.FLOAT && !FlatArrays
+			.isFloats(input))
+		{
+			return solveInFloat(input, stopEarly);
+		}
+		return solve(input, stopEarly);
+	}
+
+	/**
+	 * Solve the problem chunk by chunk. Every chunk is extended by the overlap,
+	 * copied and solved on its own. Only the inside of the chunk is written to
+	 * the result. Hence only the solver state of one extended chunk is held in
+	 * memory. Since one iteration only depends on the direct neighbors, an
+	 * overlap of at least numIt pixels, e.g. the
+	 * {@link SolverSettings#EXACT_OVERLAP}, gives the same result as
+	 * {@link #solveInMemory(RandomAccessibleInterval[], boolean)}. A smaller
+	 * overlap, e.g. the {@link SolverSettings#DEFAULT_OVERLAP} for many
+	 * iterations, only approximates it near the borders of the chunks (see
+	 * {@link SolverSettings#setChunking(long, long)}). Every chunk runs all
+	 * iterations, the tolerance is not applied.
+	 * 
+	 * @param input the input images
+	 * @return the result, created by the storage of the settings or mapped
+	 *         into the scratch directory
+	 */
+	@SuppressWarnings("unchecked")
+	private RandomAccessibleInterval<T> solveChunked(
+		final RandomAccessibleInterval<T>[] input)
+	{
+		final SolverSettings solverSettings = getSettings();
+		final int n = input[0].numDimensions();
+		final long[] dims = Intervals.dimensionsAsLongArray(input[0]);
+		final ImgFactory<T> storage = (ImgFactory<T>) solverSettings
+			.getStorage();
+		final RandomAccessibleInterval<T> result;
+		if (storage != null) {
+			result = storage.create(dims, input[0].randomAccess().get()
+				.createVariable());
+		}
+		else if (solverSettings.getScratchDirectory() != null) {
+			result = new MappedStorage(solverSettings.getScratchDirectory()).create(
+				ops, input[0]);
+		}
+		else {
+			result = (RandomAccessibleInterval<T>) ops.create().img(input[0]);
+		}
+
+		final long[] chunkSize = new long[n];
+		Arrays.fill(chunkSize, solverSettings.getChunkSize());
+		final long overlap = solverSettings.getChunkOverlap(numIt);
+		final long[] min = new long[n];
+		final long[] max = new long[n];
+		for (final Interval chunk : TiledExecutor.grid(new FinalInterval(dims),
+			chunkSize))
+		{
+			for (int d = 0; d < n; d++) {
+				min[d] = Math.max(chunk.min(d) - overlap, 0);
+				max[d] = Math.min(chunk.max(d) + overlap, dims[d] - 1);
+			}
+			final FinalInterval extended = new FinalInterval(min, max);
+
+			final RandomAccessibleInterval<T>[] chunkInput =
+				new RandomAccessibleInterval[input.length];
+			for (int i = 0; i < input.length; i++) {
+				final RandomAccessibleInterval<T> view = Views.zeroMin(Views.interval(
+					Views.zeroMin(input[i]), extended));
+				chunkInput[i] = (RandomAccessibleInterval<T>) ops.create().img(view);
+				FlatArrays.copy(view, chunkInput[i]);
+			}
+
+			// NB: Chunks which stop early would not agree at their borders.
+			final RandomAccessibleInterval<T> chunkResult = solveInMemory(
+				chunkInput, false);
+			FlatArrays.copy(Views.interval(Views.translate(chunkResult, min), chunk),
+				Views.interval(result, chunk));
+		}
+		return result;
+	}
+
+	/**
+	 * Solve on float copies of the input and convert the result back to T.
+	 * 
+	 * @param input the input images
+	 * @param stopEarly whether the stopping rule of the settings is applied
+	 * @return the result in the type of the input
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private RandomAccessibleInterval<T> solveInFloat(
+		final RandomAccessibleInterval<T>[] input, final boolean stopEarly)
+	{
+		final RandomAccessibleInterval[] floatInput =
+			new RandomAccessibleInterval[input.length];
+		for (int i = 0; i < input.length; i++) {
+			floatInput[i] = FlatArrays.toFloats(input[i]);
+		}
+
+		final RandomAccessibleInterval<T> result =
+			(RandomAccessibleInterval<T>) ops.create().img(input[0]);
+		FlatArrays.copy(
+			(RandomAccessibleInterval<FloatType>) (RandomAccessibleInterval) solve(
+				floatInput, stopEarly), result);
+		return result;
+	}
+
+	private RandomAccessibleInterval<T> solve(
+		final RandomAccessibleInterval<T>[] input, final boolean stopEarly)
+	{
+		final RandomAccessibleInterval<T> result = build(input, stopEarly).run();
+		if (!MappedStorage.isMapped(result)) {
+			return result;
+		}
+		// NB: The mapped state is dropped, only the result is kept on the heap.
+		@SuppressWarnings("unchecked")
+		final RandomAccessibleInterval<T> copy =
+			(RandomAccessibleInterval<T>) ops.create().img(input[0]);
+		FlatArrays.copy(result, copy);
+		return copy;
+	}
+
+	/**
+	 * Set up the solver for images like template. Chunking and the
+	 * {@link Precision} of the settings are not applied, the images are solved
+	 * in memory and in their own type.
+	 */
+	@SuppressWarnings("unchecked")
+	public PreparedSolver<T> prepare(
+		final RandomAccessibleInterval<T>[] template)
+	{
+		final RandomAccessibleInterval<T>[] observed =
+			new RandomAccessibleInterval[template.length];
+		for (int i = 0; i < template.length; i++) {
+			observed[i] = FlatArrays.create(ops, template[i]);
+		}
+		return build(observed);
+	}
+
+	/**
+	 * The solver is built on views of the templates in the precision and the
+	 * chunk size of the settings, which allocates none of its images.
+	 */
+	public long estimatePeakBytes(
+		final RandomAccessibleInterval<T>[] template)
+	{
+		final SolverSettings solverSettings = getSettings();
+		final RandomAccessibleInterval<T>[] solved = MemoryEstimator
+			.getChunkTemplates(MemoryEstimator.getSolvedTemplates(template,
+				solverSettings), solverSettings, solverSettings.getChunkOverlap(
+					numIt));
+		final boolean chunked = solverSettings.getChunkSize() > 0;
+		return MemoryEstimator.peakBytes(build(solved, !chunked), template,
+			solverSettings, chunked);
+	}
+
+	/**
+	 * @param input the observed images, which are held by the cost function
+	 */
+	private PreparedSolver<T> build(final RandomAccessibleInterval<T>[] input) {
+		return build(input, true);
+	}
+
+	/**
+	 * @param input the observed images, which are held by the cost function
+	 * @param stopEarly whether the stopping rule of the settings is applied
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private PreparedSolver<T> build(final RandomAccessibleInterval<T>[] input,
+		final boolean stopEarly)
+	{
+		final SolverSettings solverSettings = getSettings();
 		final Regularizer<T> tgv = getRegularizer(input.length);
 
 		final LinearOperator<T>[] ascentOperator =
@@ -88,13 +302,28 @@ public abstract class AbstractDenoising<T extends RealType<T>> extends
 
 		final CostFunction<T> cf = getCostFunction(input, ascentOperator,
 			descentOperator);
-		final SolverState<T> state = getSolverState(input);
+		cf.setMaxParallelViews(solverSettings.getParallelViews());
+		final SolverState<T> state = getSolverState(solverSettings
+			.getStateTemplates(input));
+		state.setScratchPool(solverSettings.getScratchPool());
 
-		final DefaultSolver<T> solver = ops.op(DefaultSolver.class, state, tgv,
-			cf, numIt);
-		solver.calculate(state);
+		final StoppingCriterion<T> stoppingCriterion = stopEarly ? solverSettings
+			.createStoppingCriterion(tgv, cf) : null;
+		final Class<? extends DefaultSolver> solverClass = solverSettings
+			.getSolverClass(tgv, cf, input.length);
+		final DefaultSolver<T> solver = stoppingCriterion == null ? ops.op(
+			solverClass, state, tgv, cf, numIt) : ops.op(solverClass, state, tgv,
+				cf, numIt, stoppingCriterion);
+		solverSettings.configure(solver);
+
+		return new PreparedSolver<T>(ops, input, state, tgv, cf, solver);
+	}
 
-		return state.getResultImage(0);
+	/**
+	 * @return the settings or the defaults, if none are given
+	 */
+	protected SolverSettings getSettings() {
+		return settings != null ? settings : defaultSettings;
 	}
 
 	abstract SolverState<T> getSolverState(
@@ -0,0 +1,192 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.helper;
+
+import net.imagej.ops.special.inplace.AbstractBinaryInplace1Op;
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import org.scijava.plugin.Parameter;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Sweep of a {@link DataTermDualUpdate} over the image. Implementations only
+ * define the update of one pixel.
+ * 
+ * The image is processed in parallel in cache-sized tiles, see
+ * {@link TiledExecutor}. If all images are {@link FlatArrays}, the backing
+ * arrays are accessed directly and the residual Ku - f is rounded to the
+ * image type, like the former step by step computation.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ * @param <T>
+ */
+public abstract class AbstractDataTermDualUpdate<T extends RealType<T>>
+	extends
+	AbstractBinaryInplace1Op<RandomAccessibleInterval<T>, RandomAccessibleInterval<T>>
+	implements DataTermDualUpdate<T>
+{
+
+	/**
+	 * The observed image.
+	 */
+	@Parameter
+	private RandomAccessibleInterval<T> f;
+
+	/**
+	 * The ascent step-size.
+	 */
+	@Parameter
+	protected double stepSize;
+
+	@Parameter
+	private ThreadService ts;
+
+	public void setStepSize(final double stepSize) {
+		this.stepSize = stepSize;
+	}
+
+	public double getStepSize() {
+		return stepSize;
+	}
+
+	public void mutate1(final RandomAccessibleInterval<T> q,
+		final RandomAccessibleInterval<T> ku)
+	{
+		final boolean doubles = FlatArrays.isDoubles(q, ku, f);
+		final boolean floats = !doubles && FlatArrays.isFloats(q, ku, f);
+		final int[] strides = FlatArrays.strides(q);
+
+		TiledExecutor.run(ts, q, 3, new TileTask<Void>() {
+
+			public Void run(final Interval tile) {
+				if (doubles) {
+					update(FlatArrays.doubles(q), FlatArrays.doubles(ku), FlatArrays
+						.doubles(f), strides, tile);
+				}
+				else if (floats) {
+					update(FlatArrays.floats(q), FlatArrays.floats(ku), FlatArrays
+						.floats(f), strides, tile);
+				}
+				else {
+					update(q, ku, tile);
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * @param q the dual variable of one pixel
+	 * @param residual Ku - f of the pixel
+	 * @return the updated dual variable
+	 */
+	protected abstract double update(double q, double residual);
+
+	/**
+	 * @param q the dual variable of one pixel
+	 * @param residual Ku - f of the pixel
+	 * @return the updated dual variable, every intermediate result is rounded
+	 *         to float
+	 */
+	protected abstract float update(float q, float residual);
+
+	/**
+	 * Update the dual variable q inside of tile on flat double arrays.
+	 * 
+	 * @param q the dual variable
+	 * @param ku the operator applied to the primal variable
+	 * @param f the observed image
+	 * @param strides the strides of the images
+	 * @param tile the part of the image which is processed
+	 */
+	private void update(final double[] q, final double[] ku, final double[] f,
+		final int[] strides, final Interval tile)
+	{
+		final long[] position = Intervals.minAsLongArray(tile);
+		final int length = (int) tile.dimension(0);
+		do {
+			final int start = FlatArrays.index(position, strides);
+			for (int i = start; i < start + length; i++) {
+				q[i] = update(q[i], ku[i] - f[i]);
+			}
+		} while (FlatArrays.nextRow(position, tile));
+	}
+
+	/**
+	 * Update the dual variable q inside of tile on flat float arrays.
+	 * 
+	 * @param q the dual variable
+	 * @param ku the operator applied to the primal variable
+	 * @param f the observed image
+	 * @param strides the strides of the images
+	 * @param tile the part of the image which is processed
+	 */
+	private void update(final float[] q, final float[] ku, final float[] f,
+		final int[] strides, final Interval tile)
+	{
+		final long[] position = Intervals.minAsLongArray(tile);
+		final int length = (int) tile.dimension(0);
+		do {
+			final int start = FlatArrays.index(position, strides);
+			for (int i = start; i < start + length; i++) {
+				q[i] = update(q[i], ku[i] - f[i]);
+			}
+		} while (FlatArrays.nextRow(position, tile));
+	}
+
+	/**
+	 * Update the dual variable q inside of tile.
+	 * 
+	 * @param q the dual variable
+	 * @param ku the operator applied to the primal variable
+	 * @param tile the part of the image which is processed
+	 */
+	private void update(final RandomAccessibleInterval<T> q,
+		final RandomAccessibleInterval<T> ku, final Interval tile)
+	{
+		final Cursor<T> dual = Views.flatIterable(Views.interval(q, tile))
+			.cursor();
+		final Cursor<T> operator = Views.flatIterable(Views.interval(ku, tile))
+			.cursor();
+		final Cursor<T> observed = Views.flatIterable(Views.interval(f, tile))
+			.cursor();
+		while (dual.hasNext()) {
+			final T value = dual.next();
+			value.setReal(update(value.getRealDouble(), operator.next()
+				.getRealDouble() - observed.next().getRealDouble()));
+		}
+	}
+}
@@ -41,8 +41,11 @@ import org.scijava.plugin.Plugin;
  * Computes the average difference per pixel of two {@link RandomAccessibleInterval}.
  * 
  * @author Tim-Oliver Buchholz, University of Konstanz
- *
+ * @deprecated The solvers no longer use it, use
+ *             {@link net.imagej.ops.fopd.solver.IterationEvent#getChange()}
+ *             of an {@link net.imagej.ops.fopd.solver.IterationListener}.
  */
+@Deprecated
 @Plugin(type = Op.class)
 public class AveragePerPixelDifference<T extends RealType<T>>
 		extends AbstractBinaryFunctionOp<RandomAccessibleInterval<T>, RandomAccessibleInterval<T>, double[]> {
@@ -0,0 +1,63 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.helper;
+
+import net.imagej.ops.special.inplace.BinaryInplace1Op;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.Type;
+
+/**
+ * Fused dual update of a data term of one view.
+ * 
+ * For every pixel x the dual variable q is updated in a single pass: q(x) =
+ * prox(q(x) + stepSize * (Ku(x) - f(x))), where Ku is the operator applied to
+ * the current primal variable, f the observed image and prox the proximal map
+ * of the conjugate of the data term.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ * @param <T>
+ */
+public interface DataTermDualUpdate<T extends Type<T>> extends
+	BinaryInplace1Op<RandomAccessibleInterval<T>, RandomAccessibleInterval<T>, RandomAccessibleInterval<T>>
+{
+
+	/**
+	 * Change the step-size between two updates.
+	 * 
+	 * @param stepSize the new ascent step-size
+	 */
+	void setStepSize(double stepSize);
+
+	/**
+	 * @return the ascent step-size
+	 */
+	double getStepSize();
+}
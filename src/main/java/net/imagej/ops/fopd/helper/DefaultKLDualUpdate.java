@@ -0,0 +1,238 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.helper;
+
+import net.imagej.ops.OpService;
+import net.imagej.ops.special.inplace.AbstractBinaryInplace1Op;
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import org.scijava.Priority;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Implementation of {@link KLDualUpdate}.
+ * 
+ * The image is processed in parallel in cache-sized tiles, see
+ * {@link TiledExecutor}. If all images are {@link FlatArrays}, the backing
+ * arrays are accessed directly. The operations are done in the same order
+ * and with the same rounding to the image type as the former step by step
+ * computation with one image per intermediate result.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ * @param <T>
+ */
+@Plugin(type = KLDualUpdate.class, description = "Fused KL dual update.",
+	priority = Priority.HIGH_PRIORITY)
+public class DefaultKLDualUpdate<T extends RealType<T>> extends
+	AbstractBinaryInplace1Op<RandomAccessibleInterval<T>, RandomAccessibleInterval<T>>
+	implements KLDualUpdate<T>
+{
+
+	@Parameter
+	private OpService ops;
+
+	/**
+	 * The observed image.
+	 */
+	@Parameter
+	private RandomAccessibleInterval<T> f;
+
+	/**
+	 * The ascent step-size.
+	 */
+	@Parameter
+	private double stepSize;
+
+	@Parameter
+	private ThreadService ts;
+
+	/**
+	 * 4 * stepSize * f.
+	 */
+	private RandomAccessibleInterval<T> fTimesFour;
+
+	/**
+	 * The step-size for which fTimesFour holds 4 * stepSize * f.
+	 */
+	private double fTimesFourStepSize = Double.NaN;
+
+	public void setStepSize(final double stepSize) {
+		this.stepSize = stepSize;
+	}
+
+	public double getStepSize() {
+		return stepSize;
+	}
+
+	public void observedImageChanged() {
+		fTimesFourStepSize = Double.NaN;
+	}
+
+	public void mutate1(final RandomAccessibleInterval<T> q,
+		final RandomAccessibleInterval<T> ku)
+	{
+		if (fTimesFourStepSize != stepSize) {
+			setFTimesFour();
+		}
+
+		final boolean doubles = FlatArrays.isDoubles(q, ku, fTimesFour);
+		final boolean floats = !doubles && FlatArrays.isFloats(q, ku,
+			fTimesFour);
+		final int[] strides = FlatArrays.strides(q);
+
+		TiledExecutor.run(ts, q, 3, new TileTask<Void>() {
+
+			public Void run(final Interval tile) {
+				if (doubles) {
+					update(FlatArrays.doubles(q), FlatArrays.doubles(ku), FlatArrays
+						.doubles(fTimesFour), strides, tile);
+				}
+				else if (floats) {
+					update(FlatArrays.floats(q), FlatArrays.floats(ku), FlatArrays
+						.floats(fTimesFour), strides, tile);
+				}
+				else {
+					update(q, ku, tile);
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Compute 4 * stepSize * f.
+	 */
+	private void setFTimesFour() {
+		if (fTimesFour == null) {
+			fTimesFour = FlatArrays.create(ops, f);
+		}
+		final T four = fTimesFour.randomAccess().get().createVariable();
+		four.setReal(4.0 * stepSize);
+
+		TiledExecutor.run(ts, fTimesFour, 2, new TileTask<Void>() {
+
+			public Void run(final Interval tile) {
+				final Cursor<T> in = Views.flatIterable(Views.interval(f, tile))
+					.cursor();
+				final Cursor<T> out = Views.flatIterable(Views.interval(fTimesFour,
+					tile)).cursor();
+				while (out.hasNext()) {
+					final T value = out.next();
+					value.set(in.next());
+					value.mul(four);
+				}
+				return null;
+			}
+		});
+		fTimesFourStepSize = stepSize;
+	}
+
+	/**
+	 * Update the dual variable q inside of tile on flat double arrays.
+	 * 
+	 * @param q the dual variable
+	 * @param ku the operator applied to the primal variable
+	 * @param fTimesFour 4 * stepSize * f
+	 * @param strides the strides of the images
+	 * @param tile the part of the image which is processed
+	 */
+	private void update(final double[] q, final double[] ku,
+		final double[] fTimesFour, final int[] strides, final Interval tile)
+	{
+		final long[] position = Intervals.minAsLongArray(tile);
+		final int length = (int) tile.dimension(0);
+		do {
+			final int start = FlatArrays.index(position, strides);
+			for (int i = start; i < start + length; i++) {
+				final double s = q[i] + ku[i] * stepSize;
+				q[i] = 0.5 * (1.0 + s) - 0.5 * Math.sqrt(Math.pow(s - 1, 2) +
+					fTimesFour[i]);
+			}
+		} while (FlatArrays.nextRow(position, tile));
+	}
+
+	/**
+	 * Update the dual variable q inside of tile on flat float arrays. Every
+	 * intermediate result is rounded to float.
+	 * 
+	 * @param q the dual variable
+	 * @param ku the operator applied to the primal variable
+	 * @param fTimesFour 4 * stepSize * f
+	 * @param strides the strides of the images
+	 * @param tile the part of the image which is processed
+	 */
+	private void update(final float[] q, final float[] ku,
+		final float[] fTimesFour, final int[] strides, final Interval tile)
+	{
+		final long[] position = Intervals.minAsLongArray(tile);
+		final int length = (int) tile.dimension(0);
+		do {
+			final int start = FlatArrays.index(position, strides);
+			for (int i = start; i < start + length; i++) {
+				final float s = q[i] + (float) (ku[i] * stepSize);
+				final float sum = (float) Math.pow(s - 1, 2) + fTimesFour[i];
+				q[i] = (float) (0.5 * (1.0 + s)) - (float) (0.5 * Math.sqrt(sum));
+			}
+		} while (FlatArrays.nextRow(position, tile));
+	}
+
+	/**
+	 * Update the dual variable q inside of tile.
+	 * 
+	 * @param q the dual variable
+	 * @param ku the operator applied to the primal variable
+	 * @param tile the part of the image which is processed
+	 */
+	private void update(final RandomAccessibleInterval<T> q,
+		final RandomAccessibleInterval<T> ku, final Interval tile)
+	{
+		final Cursor<T> dual = Views.flatIterable(Views.interval(q, tile))
+			.cursor();
+		final Cursor<T> operator = Views.flatIterable(Views.interval(ku, tile))
+			.cursor();
+		final Cursor<T> f4 = Views.flatIterable(Views.interval(fTimesFour, tile))
+			.cursor();
+		while (dual.hasNext()) {
+			final T value = dual.next();
+			final double s = value.getRealDouble() + operator.next()
+				.getRealDouble() * stepSize;
+			value.setReal(0.5 * (1.0 + s) - 0.5 * Math.sqrt(Math.pow(s - 1, 2) + f4
+				.next().getRealDouble()));
+		}
+	}
+}
@@ -30,25 +30,14 @@
 
 package net.imagej.ops.fopd.helper;
 
-import java.util.ArrayList;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-
 import net.imagej.ops.OpService;
-import net.imagej.ops.Ops.Stats.Sum;
-import net.imagej.ops.special.computer.Computers;
 import net.imagej.ops.special.hybrid.AbstractUnaryHybridCF;
 import net.imagej.ops.special.hybrid.BinaryHybridCF;
-import net.imagej.ops.transform.project.DefaultProjectParallel;
-import net.imglib2.FinalInterval;
-import net.imglib2.IterableInterval;
+import net.imglib2.Interval;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.converter.Converter;
-import net.imglib2.converter.Converters;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
 
 import org.scijava.plugin.Parameter;
@@ -73,12 +62,6 @@ public class DefaultL2Norm<T extends RealType<T>> extends
 	@Parameter
 	private ThreadService ts;
 	
-	private DefaultProjectParallel<T, T> projector;
-
-	private Converter<T, T> squareConverter;
-
-	private Converter<T, T> sqrtConverter;
-
 	@SuppressWarnings("unchecked")
 	public RandomAccessibleInterval<T> createOutput(
 		final RandomAccessibleInterval<T>[] input)
@@ -91,151 +74,90 @@ public class DefaultL2Norm<T extends RealType<T>> extends
 	{
 		final int numDualVariables = input.length;
 
-		long dimensionMax = Long.MIN_VALUE;
-		int dimensionArgMax = -1;
-
-		int nDim = input[0].numDimensions();
-		for ( int d = 0; d < nDim; ++d )
-		{
-			final long size = input[0].dimension( d );
-			if ( size > dimensionMax )
-			{
-				dimensionMax = size;
-				dimensionArgMax = d;
-			}
-		}
-
-		final long stepSize = Math.max( dimensionMax / Runtime.getRuntime().availableProcessors(), 1 );
-		final int numChunks = (int) (dimensionMax / stepSize);
+		TiledExecutor.run(ts, output, numDualVariables + 1, new TileTask<Void>() {
 
-		final ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
-
-			for (int i = 0 ; i < numChunks - 1; i++)
-		{
-			final long currentMin = i * stepSize;
-			final long currentMax = currentMin + stepSize - 1;
-			final long[] mins = new long[ nDim ];
-			final long[] maxs = new long[ nDim ];
-			input[0].min( mins );
-			input[0].max( maxs );
-			mins[ dimensionArgMax ] = currentMin;
-			maxs[ dimensionArgMax ] = currentMax;
-			final IntervalView< T > currentInterval = Views.interval( output, new FinalInterval( mins, maxs ) );
-			
-			futures.add(ts.run(new Runnable() {
-				
-				public void run() {
-					if (numDualVariables == 1) {
-						norm1D(input[0], currentInterval);
-					} else if (numDualVariables == 2) {
-						norm2D(input[0], input[1], currentInterval);
-					} else if (numDualVariables == 3) {
-						norm3D(input[0], input[1], input[2], currentInterval);
-					} else if (numDualVariables == 4) {
-						norm4D(input[0], input[1], input[2], input[3], currentInterval);
-					} else if (numDualVariables == 9) {
-						norm9D(input[0], input[1], input[2], input[3], input[4], input[5], input[6], input[7], input[8],
-								currentInterval);
-					} else {
-						normND(input, currentInterval);
-					}
-				}
-			}));
-			
-		}
-			final long currentMin = (numChunks - 1) * stepSize;
-			final long currentMax = currentMin + stepSize - 1;
-			final long[] mins = new long[ nDim ];
-			final long[] maxs = new long[ nDim ];
-			input[0].min( mins );
-			input[0].max( maxs );
-			mins[ dimensionArgMax ] = currentMin;
-			maxs[ dimensionArgMax ] = currentMax;
-			final IntervalView< T > currentInterval = Views.interval( output, new FinalInterval( mins, maxs ) );
-		futures.add(ts.run(new Runnable() {
-			
-			public void run() {
+			public Void run(final Interval tile) {
+				final RandomAccessibleInterval<T> norm = Views.interval(output, tile);
 				if (numDualVariables == 1) {
-					norm1D(input[0], currentInterval);
+					norm1D(input[0], norm);
 				} else if (numDualVariables == 2) {
-					norm2D(input[0], input[1], currentInterval);
+					norm2D(input[0], input[1], norm);
 				} else if (numDualVariables == 3) {
-					norm3D(input[0], input[1], input[2], currentInterval);
+					norm3D(input[0], input[1], input[2], norm);
 				} else if (numDualVariables == 4) {
-					norm4D(input[0], input[1], input[2], input[3], currentInterval);
+					norm4D(input[0], input[1], input[2], input[3], norm);
 				} else if (numDualVariables == 9) {
-					norm9D(input[0], input[1], input[2], input[3], input[4], input[5], input[6], input[7], input[8],
-							currentInterval);
+					norm9D(input[0], input[1], input[2], input[3], input[4], input[5],
+						input[6], input[7], input[8], norm);
 				} else {
-					normND(input, currentInterval);
+					normND(input, norm);
 				}
+				return null;
 			}
-		}));
-		
-		
-		for (final Future<?> future : futures) {
-			try {
-				future.get();
-			}
-			catch (final InterruptedException exc) {
-				throw new RuntimeException(exc);
-			}
-			catch (final ExecutionException exc) {
-				throw new RuntimeException(exc);
-			}
-		}
+		});
 	}
 
-	@SuppressWarnings("unchecked")
-	private void normND(final RandomAccessibleInterval<T>[] input,
-		final RandomAccessibleInterval<T> output)
+	private void normND(final RandomAccessible<T>[] sources,
+		final RandomAccessibleInterval<T> norm)
 	{
-		final RandomAccessibleInterval<T> stack = Views.stack(input);
-
-		if (projector == null) {
-			init(stack, (IterableInterval<T>) output, input.length - 1);
-		}
-
-		final T type = input[0].randomAccess().get().createVariable();
-		projector.compute(Converters.convert(stack, squareConverter, type),
-			(IterableInterval<T>) output);
+		final int n = norm.numDimensions();
 
-		Converters.convert(output, sqrtConverter, type);
-	}
+		final long[] min = new long[n];
+		norm.min(min);
+		final long[] max = new long[n];
+		norm.max(max);
+		final long[] shiftback = new long[n];
+		for (int d = 0; d < n; ++d)
+			shiftback[d] = min[d] - max[d];
 
-	@SuppressWarnings("unchecked")
-	private void init(final RandomAccessibleInterval<T> stack,
-		final IterableInterval<T> output, final int d)
-	{
-		int[] tmpDims = new int[output.numDimensions()];
-		for (int i = 0; i < tmpDims.length; i++) {
-			tmpDims[i] += 1;
+		final RandomAccess<T> result = norm.randomAccess();
+		result.setPosition(min);
+		@SuppressWarnings("unchecked")
+		final RandomAccess<T>[] s = new RandomAccess[sources.length];
+		for (int i = 0; i < s.length; i++) {
+			s[i] = sources[i].randomAccess();
+			s[i].setPosition(min);
 		}
-		IterableInterval<T> tmpOut = (IterableInterval<T>) ops.create().img(
-			output);
-		RandomAccessibleInterval<T> tmpStack = (RandomAccessibleInterval<T>) ops
-			.create().img(stack);
-		projector = ops.op(DefaultProjectParallel.class, tmpOut, tmpStack,
-			Computers.unary(ops, Sum.class, output.firstElement()
-				.createVariable(), RandomAccessibleInterval.class), d);
-
-		squareConverter = new Converter<T, T>() {
-
-			public void convert(T in, T out) {
-				final double value = in.getRealDouble();
-				out.setReal(value * value);
-			}
-
-		};
-
-		sqrtConverter = new Converter<T, T>() {
 
-			public void convert(T in, T out) {
-				final double value = in.getRealDouble();
-				out.setReal(Math.sqrt(value));
+		final long max0 = max[0];
+		while (true) {
+			// process pixel
+			double sum = 0;
+			for (int i = 0; i < s.length; i++) {
+				final double v = s[i].get().getRealDouble();
+				sum += v * v;
 			}
+			result.get().setReal(Math.sqrt(sum));
 
-		};
+			// move to next pixel
+			// check dimension 0 separately to avoid the loop over d in most
+			// iterations
+			if (result.getLongPosition(0) == max0) {
+				if (n == 1) return;
+				result.move(shiftback[0], 0);
+				for (int i = 0; i < s.length; i++)
+					s[i].move(shiftback[0], 0);
+				// now check the remaining dimensions
+				for (int d = 1; d < n; ++d)
+					if (result.getLongPosition(d) == max[d]) {
+						result.move(shiftback[d], d);
+						for (int i = 0; i < s.length; i++)
+							s[i].move(shiftback[d], d);
+						if (d == n - 1) return;
+					}
+					else {
+						result.fwd(d);
+						for (int i = 0; i < s.length; i++)
+							s[i].fwd(d);
+						break;
+					}
+			}
+			else {
+				result.fwd(0);
+				for (int i = 0; i < s.length; i++)
+					s[i].fwd(0);
+			}
+		}
 	}
 
 	private void norm1D(final RandomAccessible<T> source0,
@@ -0,0 +1,339 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.helper;
+
+import net.imagej.ops.special.inplace.AbstractBinaryInplace1Op;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+
+import org.scijava.Priority;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Implementation of {@link TGVDualUpdate}.
+ * 
+ * Each component of v is read once per pixel and neighbor, all dual
+ * variables are updated, the Frobenius norm is computed and the dual
+ * variables are projected in one sweep over the image, without any
+ * intermediate images. The image is processed in parallel in cache-sized
+ * tiles, see {@link TiledExecutor}. If all images are {@link FlatArrays}, the
+ * backing arrays are accessed directly.
+ * 
+ * The operations are performed in the same order as by the separate forward
+ * differences, additions, {@link DefaultL2Norm} and
+ * {@link DefaultL1Projector}, so the result is the same for double images.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ * @param <T>
+ */
+@Plugin(type = TGVDualUpdate.class, description = "Fused TGV dual update.",
+	priority = Priority.HIGH_PRIORITY)
+public class DefaultTGVDualUpdate<T extends RealType<T>> extends
+	AbstractBinaryInplace1Op<RandomAccessibleInterval<T>[], RandomAccessibleInterval<T>[]>
+	implements TGVDualUpdate<T>
+{
+
+	/**
+	 * The ascent step-size.
+	 */
+	@Parameter
+	private double stepSize;
+
+	/**
+	 * Radius of the Frobenius-norm ball onto which the dual variables are
+	 * projected.
+	 */
+	@Parameter
+	private double beta;
+
+	@Parameter
+	private ThreadService ts;
+
+	public double getStepSize() {
+		return stepSize;
+	}
+
+	public double getBeta() {
+		return beta;
+	}
+
+	public void mutate1(final RandomAccessibleInterval<T>[] w,
+		final RandomAccessibleInterval<T>[] v)
+	{
+		final int n = v.length;
+		if (w.length != n * (n + 1) / 2) {
+			throw new IllegalArgumentException(n * (n + 1) / 2 +
+				" dual variables are required for " + n + " dimensions.");
+		}
+
+		final boolean doubles = FlatArrays.isDoubles(w) && FlatArrays.isDoubles(
+			v);
+		final boolean floats = !doubles && FlatArrays.isFloats(w) && FlatArrays
+			.isFloats(v);
+		final long[] dims = Intervals.dimensionsAsLongArray(v[0]);
+		final int[] strides = FlatArrays.strides(v[0]);
+		final int[][] index = symmetricIndex(n);
+
+		TiledExecutor.run(ts, v[0], w.length + n, new TileTask<Void>() {
+
+			public Void run(final Interval tile) {
+				if (doubles) {
+					update(FlatArrays.doubles(w), FlatArrays.doubles(v), dims, strides,
+						index, tile);
+				}
+				else if (floats) {
+					update(FlatArrays.floats(w), FlatArrays.floats(v), dims, strides,
+						index, tile);
+				}
+				else {
+					update(w, v, dims, index, tile);
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Update one pixel.
+	 * 
+	 * @param values the dual variables of the pixel, are updated
+	 * @param gradients gradients[a][b] is the forward difference of v_a along
+	 *          dimension b
+	 * @param index the dual variable of each matrix entry
+	 */
+	private void update(final double[] values, final double[][] gradients,
+		final int[][] index)
+	{
+		final int n = gradients.length;
+		final double halfStepSize = stepSize * 0.5;
+		for (int a = 0, k = 0; a < n; a++) {
+			values[k] = values[k] + gradients[a][a] * stepSize;
+			k++;
+			for (int b = a + 1; b < n; b++, k++) {
+				values[k] = values[k] + gradients[a][b] * halfStepSize;
+				values[k] = values[k] + gradients[b][a] * halfStepSize;
+			}
+		}
+
+		// all n * n entries of the symmetric matrix in row order
+		double sumOfSquares = 0;
+		for (int a = 0; a < n; a++) {
+			for (int b = 0; b < n; b++) {
+				final double value = values[index[a][b]];
+				sumOfSquares += value * value;
+			}
+		}
+
+		final double norm = Math.sqrt(sumOfSquares);
+		if (norm > beta) {
+			for (int k = 0; k < values.length; k++) {
+				values[k] = beta * values[k] / norm;
+			}
+		}
+	}
+
+	/**
+	 * Update the dual variables w inside of tile on flat double arrays.
+	 * 
+	 * @param w the dual variables
+	 * @param v the components of the vector field
+	 * @param dims the dimensions of the images
+	 * @param strides the strides of the images
+	 * @param index the dual variable of each matrix entry
+	 * @param tile the part of the image which is processed
+	 */
+	private void update(final double[][] w, final double[][] v,
+		final long[] dims, final int[] strides, final int[][] index,
+		final Interval tile)
+	{
+		final int n = dims.length;
+		final long[] position = Intervals.minAsLongArray(tile);
+		final long min0 = tile.min(0);
+		final long max0 = tile.max(0);
+
+		final double[] values = new double[w.length];
+		final double[][] gradients = new double[n][n];
+		do {
+			int i = FlatArrays.index(position, strides);
+			for (long x = min0; x <= max0; x++, i++) {
+				position[0] = x;
+				for (int a = 0; a < n; a++) {
+					final double center = v[a][i];
+					for (int b = 0; b < n; b++) {
+						gradients[a][b] = position[b] < dims[b] - 1 ? v[a][i +
+							strides[b]] - center : 0;
+					}
+				}
+				for (int k = 0; k < values.length; k++) {
+					values[k] = w[k][i];
+				}
+
+				update(values, gradients, index);
+
+				for (int k = 0; k < values.length; k++) {
+					w[k][i] = values[k];
+				}
+			}
+		} while (FlatArrays.nextRow(position, tile));
+	}
+
+	/**
+	 * Update the dual variables w inside of tile on flat float arrays.
+	 * 
+	 * @param w the dual variables
+	 * @param v the components of the vector field
+	 * @param dims the dimensions of the images
+	 * @param strides the strides of the images
+	 * @param index the dual variable of each matrix entry
+	 * @param tile the part of the image which is processed
+	 */
+	private void update(final float[][] w, final float[][] v,
+		final long[] dims, final int[] strides, final int[][] index,
+		final Interval tile)
+	{
+		final int n = dims.length;
+		final long[] position = Intervals.minAsLongArray(tile);
+		final long min0 = tile.min(0);
+		final long max0 = tile.max(0);
+
+		final double[] values = new double[w.length];
+		final double[][] gradients = new double[n][n];
+		do {
+			int i = FlatArrays.index(position, strides);
+			for (long x = min0; x <= max0; x++, i++) {
+				position[0] = x;
+				for (int a = 0; a < n; a++) {
+					final double center = v[a][i];
+					for (int b = 0; b < n; b++) {
+						gradients[a][b] = position[b] < dims[b] - 1 ? v[a][i +
+							strides[b]] - center : 0;
+					}
+				}
+				for (int k = 0; k < values.length; k++) {
+					values[k] = w[k][i];
+				}
+
+				update(values, gradients, index);
+
+				for (int k = 0; k < values.length; k++) {
+					w[k][i] = (float) values[k];
+				}
+			}
+		} while (FlatArrays.nextRow(position, tile));
+	}
+
+	/**
+	 * Update the dual variables w inside of tile by {@link RandomAccess}.
+	 * 
+	 * @param w the dual variables
+	 * @param v the components of the vector field
+	 * @param dims the dimensions of the images
+	 * @param index the dual variable of each matrix entry
+	 * @param tile the part of the image which is processed
+	 */
+	private void update(final RandomAccessibleInterval<T>[] w,
+		final RandomAccessibleInterval<T>[] v, final long[] dims,
+		final int[][] index, final Interval tile)
+	{
+		final int n = dims.length;
+		final long[] position = Intervals.minAsLongArray(tile);
+		final long min0 = tile.min(0);
+		final long max0 = tile.max(0);
+
+		@SuppressWarnings("unchecked")
+		final RandomAccess<T>[] vAccess = new RandomAccess[v.length];
+		for (int a = 0; a < n; a++) {
+			vAccess[a] = v[a].randomAccess();
+		}
+		@SuppressWarnings("unchecked")
+		final RandomAccess<T>[] wAccess = new RandomAccess[w.length];
+		for (int k = 0; k < w.length; k++) {
+			wAccess[k] = w[k].randomAccess();
+		}
+
+		final double[] values = new double[w.length];
+		final double[][] gradients = new double[n][n];
+		do {
+			for (final RandomAccess<T> access : vAccess) {
+				access.setPosition(position);
+			}
+			for (final RandomAccess<T> access : wAccess) {
+				access.setPosition(position);
+			}
+			for (long x = min0; x <= max0; x++) {
+				position[0] = x;
+				for (int a = 0; a < n; a++) {
+					final RandomAccess<T> access = vAccess[a];
+					final double center = access.get().getRealDouble();
+					for (int b = 0; b < n; b++) {
+						gradients[a][b] = 0;
+						if (position[b] < dims[b] - 1) {
+							access.fwd(b);
+							gradients[a][b] = access.get().getRealDouble() - center;
+							access.bck(b);
+						}
+					}
+					access.fwd(0);
+				}
+				for (int k = 0; k < values.length; k++) {
+					values[k] = wAccess[k].get().getRealDouble();
+				}
+
+				update(values, gradients, index);
+
+				for (int k = 0; k < values.length; k++) {
+					wAccess[k].get().setReal(values[k]);
+					wAccess[k].fwd(0);
+				}
+			}
+		} while (FlatArrays.nextRow(position, tile));
+	}
+
+	/**
+	 * @param n the number of dimensions
+	 * @return index[a][b] is the dual variable of the matrix entry (a, b)
+	 */
+	private static int[][] symmetricIndex(final int n) {
+		final int[][] index = new int[n][n];
+		for (int a = 0, k = 0; a < n; a++) {
+			for (int b = a; b < n; b++, k++) {
+				index[a][b] = k;
+				index[b][a] = k;
+			}
+		}
+		return index;
+	}
+}
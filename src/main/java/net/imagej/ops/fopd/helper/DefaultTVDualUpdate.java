@@ -0,0 +1,312 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.helper;
+
+import net.imagej.ops.special.inplace.AbstractBinaryInplace1Op;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+
+import org.scijava.Priority;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Implementation of {@link TVDualUpdate}.
+ * 
+ * The forward differences, the dual update, the point-wise norm and the
+ * projection are computed in one sweep over the image without any
+ * intermediate images. The image is processed in parallel in cache-sized
+ * tiles, see {@link TiledExecutor}. If all images are {@link FlatArrays},
+ * the backing arrays are accessed directly.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ * @param <T>
+ */
+@Plugin(type = TVDualUpdate.class, description = "Fused TV dual update.",
+	priority = Priority.HIGH_PRIORITY)
+public class DefaultTVDualUpdate<T extends RealType<T>> extends
+	AbstractBinaryInplace1Op<RandomAccessibleInterval<T>[], RandomAccessibleInterval<T>>
+	implements TVDualUpdate<T>
+{
+
+	/**
+	 * The ascent step-size.
+	 */
+	@Parameter
+	private double stepSize;
+
+	/**
+	 * Radius of the L2-ball onto which the dual variables are projected.
+	 */
+	@Parameter
+	private double lambda;
+
+	/**
+	 * 1 for TV, 1 + alpha * stepSize for TV-Huber.
+	 */
+	@Parameter
+	private double divisor;
+
+	@Parameter
+	private ThreadService ts;
+
+	public void setStepSize(final double stepSize, final double divisor) {
+		this.stepSize = stepSize;
+		this.divisor = divisor;
+	}
+
+	public double getStepSize() {
+		return stepSize;
+	}
+
+	public double getLambda() {
+		return lambda;
+	}
+
+	public double getDivisor() {
+		return divisor;
+	}
+
+	public void mutate1(final RandomAccessibleInterval<T>[] p,
+		final RandomAccessibleInterval<T> u)
+	{
+		final int n = u.numDimensions();
+		final long[] max = new long[n];
+		u.max(max);
+
+		final boolean doubles = FlatArrays.isDoubles(u) && FlatArrays.isDoubles(
+			p);
+		final boolean floats = !doubles && FlatArrays.isFloats(u) && FlatArrays
+			.isFloats(p);
+		final long[] dims = Intervals.dimensionsAsLongArray(u);
+		final int[] strides = FlatArrays.strides(u);
+
+		TiledExecutor.run(ts, u, n + 1, new TileTask<Void>() {
+
+			public Void run(final Interval tile) {
+				if (doubles) {
+					update(FlatArrays.doubles(p), FlatArrays.doubles(u), dims, strides,
+						tile);
+				}
+				else if (floats) {
+					update(FlatArrays.floats(p), FlatArrays.floats(u), dims, strides,
+						tile);
+				}
+				else {
+					update(p, u, tile, max);
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Update the dual variables p inside of tile. The loop is based on
+	 * {@link DefaultForwardDifference}.
+	 * 
+	 * @param p the dual variables, one per dimension
+	 * @param u the current primal variable
+	 * @param tile the part of the image which is processed
+	 * @param uMax the max of u, where the forward difference is 0
+	 */
+	private void update(final RandomAccessibleInterval<T>[] p,
+		final RandomAccessibleInterval<T> u, final Interval tile,
+		final long[] uMax)
+	{
+		final int n = tile.numDimensions();
+
+		final long[] min = new long[n];
+		tile.min(min);
+		final long[] max = new long[n];
+		tile.max(max);
+		final long[] shiftback = new long[n];
+		for (int d = 0; d < n; ++d)
+			shiftback[d] = min[d] - max[d];
+
+		final RandomAccess<T> current = u.randomAccess();
+		@SuppressWarnings("unchecked")
+		final RandomAccess<T>[] duals = new RandomAccess[n];
+		for (int d = 0; d < n; ++d) {
+			duals[d] = p[d].randomAccess();
+			duals[d].setPosition(min);
+		}
+		current.setPosition(min);
+
+		final double[] values = new double[n];
+		final long max0 = max[0];
+		while (true) {
+			// process pixel
+			final double center = current.get().getRealDouble();
+			double sumOfSquares = 0;
+			for (int d = 0; d < n; ++d) {
+				double gradient = 0;
+				if (current.getLongPosition(d) < uMax[d]) {
+					current.fwd(d);
+					gradient = current.get().getRealDouble() - center;
+					current.bck(d);
+				}
+				final double value = (duals[d].get().getRealDouble() + gradient *
+					stepSize) / divisor;
+				values[d] = value;
+				sumOfSquares += value * value;
+			}
+
+			final double norm = Math.sqrt(sumOfSquares);
+			for (int d = 0; d < n; ++d) {
+				if (norm > lambda) {
+					duals[d].get().setReal(lambda * values[d] / norm);
+				}
+				else {
+					duals[d].get().setReal(values[d]);
+				}
+			}
+
+			// move to next pixel
+			// check dimension 0 separately to avoid the loop over d in most
+			// iterations
+			if (current.getLongPosition(0) == max0) {
+				if (n == 1) return;
+				move(current, duals, shiftback[0], 0);
+				// now check the remaining dimensions
+				for (int d = 1; d < n; ++d)
+					if (current.getLongPosition(d) == max[d]) {
+						move(current, duals, shiftback[d], d);
+						if (d == n - 1) return;
+					}
+					else {
+						move(current, duals, 1, d);
+						break;
+					}
+			}
+			else {
+				move(current, duals, 1, 0);
+			}
+		}
+	}
+
+	/**
+	 * Update the dual variables p inside of tile on flat double arrays.
+	 * 
+	 * @param p the dual variables, one per dimension
+	 * @param u the current primal variable
+	 * @param dims the dimensions of u
+	 * @param strides the strides of u
+	 * @param tile the part of the image which is processed
+	 */
+	private void update(final double[][] p, final double[] u, final long[] dims,
+		final int[] strides, final Interval tile)
+	{
+		final int n = dims.length;
+		final long[] position = Intervals.minAsLongArray(tile);
+		final long min0 = tile.min(0);
+		final long max0 = tile.max(0);
+
+		final double[] values = new double[n];
+		do {
+			int i = FlatArrays.index(position, strides);
+			for (long x = min0; x <= max0; x++, i++) {
+				position[0] = x;
+				final double center = u[i];
+				double sumOfSquares = 0;
+				for (int d = 0; d < n; ++d) {
+					double gradient = 0;
+					if (position[d] < dims[d] - 1) {
+						gradient = u[i + strides[d]] - center;
+					}
+					final double value = (p[d][i] + gradient * stepSize) / divisor;
+					values[d] = value;
+					sumOfSquares += value * value;
+				}
+
+				final double norm = Math.sqrt(sumOfSquares);
+				for (int d = 0; d < n; ++d) {
+					p[d][i] = norm > lambda ? lambda * values[d] / norm : values[d];
+				}
+			}
+		} while (FlatArrays.nextRow(position, tile));
+	}
+
+	/**
+	 * Update the dual variables p inside of tile on flat float arrays.
+	 * 
+	 * @param p the dual variables, one per dimension
+	 * @param u the current primal variable
+	 * @param dims the dimensions of u
+	 * @param strides the strides of u
+	 * @param tile the part of the image which is processed
+	 */
+	private void update(final float[][] p, final float[] u, final long[] dims,
+		final int[] strides, final Interval tile)
+	{
+		final int n = dims.length;
+		final long[] position = Intervals.minAsLongArray(tile);
+		final long min0 = tile.min(0);
+		final long max0 = tile.max(0);
+
+		final double[] values = new double[n];
+		do {
+			int i = FlatArrays.index(position, strides);
+			for (long x = min0; x <= max0; x++, i++) {
+				position[0] = x;
+				final double center = u[i];
+				double sumOfSquares = 0;
+				for (int d = 0; d < n; ++d) {
+					double gradient = 0;
+					if (position[d] < dims[d] - 1) {
+						gradient = u[i + strides[d]] - center;
+					}
+					final double value = (p[d][i] + gradient * stepSize) / divisor;
+					values[d] = value;
+					sumOfSquares += value * value;
+				}
+
+				final double norm = Math.sqrt(sumOfSquares);
+				for (int d = 0; d < n; ++d) {
+					p[d][i] = (float) (norm > lambda ? lambda * values[d] / norm
+						: values[d]);
+				}
+			}
+		} while (FlatArrays.nextRow(position, tile));
+	}
+
+	private void move(final RandomAccess<T> current,
+		final RandomAccess<T>[] duals, final long distance, final int d)
+	{
+		current.move(distance, d);
+		for (int i = 0; i < duals.length; i++) {
+			duals[i].move(distance, d);
+		}
+	}
+}
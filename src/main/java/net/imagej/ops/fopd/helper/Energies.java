@@ -0,0 +1,291 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.helper;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Point-wise sums needed to evaluate primal and dual energies. All sums are
+ * accumulated in double.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public final class Energies {
+
+	private Energies() {
+		// NB: Utility class
+	}
+
+	/**
+	 * Huber function of a gradient norm, which is the conjugate of alpha / 2 *
+	 * |p|^2 restricted to |p| <= lambda. For alpha = 0 it is lambda * norm.
+	 * 
+	 * @param norm the gradient norm
+	 * @param lambda the radius of the dual ball
+	 * @param alpha the Huber parameter
+	 * @return the energy
+	 */
+	public static double huber(final double norm, final double lambda,
+		final double alpha)
+	{
+		if (alpha > 0 && norm <= lambda * alpha) {
+			return norm * norm / (2 * alpha);
+		}
+		return lambda * norm - lambda * lambda * alpha / 2;
+	}
+
+	/**
+	 * Sum over all pixels of huber(|fd(u) - v|, lambda, alpha), where fd is
+	 * the {@link ForwardDifference} with border extension.
+	 * 
+	 * @param u the image
+	 * @param v subtracted from the gradient, one image per dimension, or null
+	 * @param lambda the radius of the dual ball
+	 * @param alpha the Huber parameter, 0 for TV
+	 * @return the energy
+	 */
+	public static <T extends RealType<T>> double gradientEnergy(
+		final RandomAccessibleInterval<T> u, final RandomAccessibleInterval<T>[] v,
+		final double lambda, final double alpha)
+	{
+		final int n = u.numDimensions();
+		final long[] max = new long[n];
+		u.max(max);
+
+		final Cursor<T> c = Views.flatIterable(u).localizingCursor();
+		final RandomAccess<T> ra = u.randomAccess();
+		final RandomAccess<T>[] vRA = randomAccesses(v);
+
+		double energy = 0;
+		while (c.hasNext()) {
+			final double center = c.next().getRealDouble();
+			ra.setPosition(c);
+			double sumOfSquares = 0;
+			for (int d = 0; d < n; d++) {
+				double gradient = 0;
+				if (c.getLongPosition(d) < max[d]) {
+					ra.fwd(d);
+					gradient = ra.get().getRealDouble() - center;
+					ra.bck(d);
+				}
+				if (vRA != null) {
+					vRA[d].setPosition(c);
+					gradient -= vRA[d].get().getRealDouble();
+				}
+				sumOfSquares += gradient * gradient;
+			}
+			energy += huber(Math.sqrt(sumOfSquares), lambda, alpha);
+		}
+		return energy;
+	}
+
+	/**
+	 * Sum over all pixels of beta * |E(v)|, where E(v) = (fd(v) + fd(v)^T) / 2
+	 * is the symmetrized gradient of the vector field v with the
+	 * {@link ForwardDifference} and border extension and |.| is the Frobenius
+	 * norm, as in the {@link TGVDualUpdate}.
+	 * 
+	 * @param v the vector field, one image per dimension
+	 * @param beta the radius of the dual ball
+	 * @return the energy
+	 */
+	public static <T extends RealType<T>> double symmetrizedGradientEnergy(
+		final RandomAccessibleInterval<T>[] v, final double beta)
+	{
+		final int n = v.length;
+		final long[] max = new long[n];
+		v[0].max(max);
+
+		final Cursor<T> c = Views.flatIterable(v[0]).localizingCursor();
+		final RandomAccess<T>[] vRA = randomAccesses(v);
+		final double[][] gradients = new double[n][n];
+
+		double energy = 0;
+		while (c.hasNext()) {
+			c.fwd();
+			for (int a = 0; a < n; a++) {
+				vRA[a].setPosition(c);
+				final double center = vRA[a].get().getRealDouble();
+				for (int b = 0; b < n; b++) {
+					gradients[a][b] = 0;
+					if (c.getLongPosition(b) < max[b]) {
+						vRA[a].fwd(b);
+						gradients[a][b] = vRA[a].get().getRealDouble() - center;
+						vRA[a].bck(b);
+					}
+				}
+			}
+			double sumOfSquares = 0;
+			for (int a = 0; a < n; a++) {
+				for (int b = 0; b < n; b++) {
+					final double value = (gradients[a][b] + gradients[b][a]) / 2;
+					sumOfSquares += value * value;
+				}
+			}
+			energy += beta * Math.sqrt(sumOfSquares);
+		}
+		return energy;
+	}
+
+	/**
+	 * @param p the images
+	 * @return sum over all pixels and images of p^2
+	 */
+	public static <T extends RealType<T>> double squaredNorm(
+		final RandomAccessibleInterval<T>[] p)
+	{
+		double energy = 0;
+		for (final RandomAccessibleInterval<T> img : p) {
+			for (final T t : Views.flatIterable(img)) {
+				final double value = t.getRealDouble();
+				energy += value * value;
+			}
+		}
+		return energy;
+	}
+
+	/**
+	 * @param p the first images
+	 * @param v the second images
+	 * @return sum over all pixels and images of p * v
+	 */
+	public static <T extends RealType<T>> double innerProduct(
+		final RandomAccessibleInterval<T>[] p,
+		final RandomAccessibleInterval<T>[] v)
+	{
+		double energy = 0;
+		for (int i = 0; i < p.length; i++) {
+			final Cursor<T> cp = Views.flatIterable(p[i]).cursor();
+			final Cursor<T> cv = Views.flatIterable(v[i]).cursor();
+			while (cp.hasNext()) {
+				energy += cp.next().getRealDouble() * cv.next().getRealDouble();
+			}
+		}
+		return energy;
+	}
+
+	/**
+	 * Sum over all pixels of min(0, -div(p) + sum_i a_i). This is the minimum
+	 * of the linear part of the Lagrangian over u in [0, 1], where div is the
+	 * {@link Divergence} with zero boundary.
+	 * 
+	 * @param p the regularizer dual variables, one per dimension
+	 * @param adjoints the adjoint operators applied to the cost function dual
+	 *          variables, one per view
+	 * @return the energy
+	 */
+	public static <T extends RealType<T>> double boxTerm(
+		final RandomAccessibleInterval<T>[] p,
+		final RandomAccessibleInterval<T>[] adjoints)
+	{
+		final int n = p[0].numDimensions();
+		final long[] min = new long[n];
+		p[0].min(min);
+
+		final Cursor<T> c = Views.flatIterable(p[0]).localizingCursor();
+		final RandomAccess<T>[] pRA = randomAccesses(p);
+		final RandomAccess<T>[] aRA = randomAccesses(adjoints);
+
+		double energy = 0;
+		while (c.hasNext()) {
+			c.fwd();
+			double value = 0;
+			for (int d = 0; d < n; d++) {
+				pRA[d].setPosition(c);
+				value -= pRA[d].get().getRealDouble();
+				if (c.getLongPosition(d) > min[d]) {
+					pRA[d].bck(d);
+					value += pRA[d].get().getRealDouble();
+				}
+			}
+			for (int i = 0; i < aRA.length; i++) {
+				aRA[i].setPosition(c);
+				value += aRA[i].get().getRealDouble();
+			}
+			energy += Math.min(0, value);
+		}
+		return energy;
+	}
+
+	/**
+	 * @param old the previous image
+	 * @param current the current image
+	 * @return |current - old| / |current| with the L2-norm over all pixels
+	 */
+	public static <T extends RealType<T>> double relativeChange(
+		final RandomAccessibleInterval<T> old,
+		final RandomAccessibleInterval<T> current)
+	{
+		final Cursor<T> co = Views.flatIterable(old).cursor();
+		final Cursor<T> cc = Views.flatIterable(current).cursor();
+		double squaredChange = 0;
+		double squaredNorm = 0;
+		while (cc.hasNext()) {
+			final double value = cc.next().getRealDouble();
+			final double change = value - co.next().getRealDouble();
+			squaredChange += change * change;
+			squaredNorm += value * value;
+		}
+		return relativeChange(squaredChange, squaredNorm);
+	}
+
+	/**
+	 * @param squaredChange |current - old|^2
+	 * @param squaredNorm |current|^2
+	 * @return the relative change
+	 */
+	public static double relativeChange(final double squaredChange,
+		final double squaredNorm)
+	{
+		if (squaredNorm == 0) {
+			return Math.sqrt(squaredChange);
+		}
+		return Math.sqrt(squaredChange / squaredNorm);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends RealType<T>> RandomAccess<T>[] randomAccesses(
+		final RandomAccessibleInterval<T>[] imgs)
+	{
+		if (imgs == null) {
+			return null;
+		}
+		final RandomAccess<T>[] ras = new RandomAccess[imgs.length];
+		for (int i = 0; i < imgs.length; i++) {
+			ras[i] = imgs[i].randomAccess();
+		}
+		return ras;
+	}
+}
@@ -0,0 +1,253 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.helper;
+
+import java.util.Arrays;
+
+import net.imagej.ops.OpService;
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Access to the primitive arrays behind {@link ArrayImg}s of
+ * {@link DoubleType} and {@link FloatType}.
+ * 
+ * If all images of a solver are such flat arrays, the fused kernels skip the
+ * {@link net.imglib2.RandomAccess} and work directly on the double[] or
+ * float[] with linear indices (x varies fastest).
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public final class FlatArrays {
+
+	private FlatArrays() {
+		// NB: Utility class
+	}
+
+	/**
+	 * @param imgs the images
+	 * @return true if all images are {@link ArrayImg}s of {@link DoubleType}
+	 */
+	public static boolean isDoubles(final RandomAccessibleInterval<?>... imgs) {
+		for (final RandomAccessibleInterval<?> img : imgs) {
+			if (!(img instanceof ArrayImg) || !(((ArrayImg<?, ?>) img).update(
+				null) instanceof DoubleArray) || !(((ArrayImg<?, ?>) img)
+					.firstElement() instanceof DoubleType))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param imgs the images
+	 * @return true if all images are {@link ArrayImg}s of {@link FloatType}
+	 */
+	public static boolean isFloats(final RandomAccessibleInterval<?>... imgs) {
+		for (final RandomAccessibleInterval<?> img : imgs) {
+			if (!(img instanceof ArrayImg) || !(((ArrayImg<?, ?>) img).update(
+				null) instanceof FloatArray) || !(((ArrayImg<?, ?>) img)
+					.firstElement() instanceof FloatType))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param img an image for which {@link #isDoubles} holds
+	 * @return the backing array
+	 */
+	public static double[] doubles(final RandomAccessibleInterval<?> img) {
+		return ((DoubleArray) ((ArrayImg<?, ?>) img).update(null))
+			.getCurrentStorageArray();
+	}
+
+	public static double[][] doubles(final RandomAccessibleInterval<?>[] imgs) {
+		final double[][] arrays = new double[imgs.length][];
+		for (int i = 0; i < imgs.length; i++) {
+			arrays[i] = doubles(imgs[i]);
+		}
+		return arrays;
+	}
+
+	/**
+	 * @param img an image for which {@link #isFloats} holds
+	 * @return the backing array
+	 */
+	public static float[] floats(final RandomAccessibleInterval<?> img) {
+		return ((FloatArray) ((ArrayImg<?, ?>) img).update(null))
+			.getCurrentStorageArray();
+	}
+
+	public static float[][] floats(final RandomAccessibleInterval<?>[] imgs) {
+		final float[][] arrays = new float[imgs.length][];
+		for (int i = 0; i < imgs.length; i++) {
+			arrays[i] = floats(imgs[i]);
+		}
+		return arrays;
+	}
+
+	/**
+	 * @param interval the interval
+	 * @return the linear index offset of a step in each dimension
+	 */
+	public static int[] strides(final Interval interval) {
+		final int[] strides = new int[interval.numDimensions()];
+		strides[0] = 1;
+		for (int d = 1; d < strides.length; d++) {
+			strides[d] = strides[d - 1] * (int) interval.dimension(d - 1);
+		}
+		return strides;
+	}
+
+	/**
+	 * @param position the position
+	 * @param strides the strides of the image
+	 * @return the linear index of position
+	 */
+	public static int index(final long[] position, final int[] strides) {
+		int index = 0;
+		for (int d = 0; d < position.length; d++) {
+			index += (int) position[d] * strides[d];
+		}
+		return index;
+	}
+
+	/**
+	 * Move position to the first pixel of the next row of tile. A row is a
+	 * line along dimension 0.
+	 * 
+	 * @param position the current position, is updated
+	 * @param tile the tile which is iterated
+	 * @return false if position was in the last row of tile
+	 */
+	public static boolean nextRow(final long[] position, final Interval tile) {
+		position[0] = tile.min(0);
+		for (int d = 1; d < position.length; d++) {
+			if (++position[d] <= tile.max(d)) {
+				return true;
+			}
+			position[d] = tile.min(d);
+		}
+		return false;
+	}
+
+	/**
+	 * Create an image like template. If template is a flat array the new image
+	 * is one as well. If template is memory-mapped (see {@link MappedStorage})
+	 * the new image is mapped by the same storage.
+	 * 
+	 * @param ops the OpService
+	 * @param template the template
+	 * @return an empty image with the dimensions and type of template
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends RealType<T>> RandomAccessibleInterval<T> create(
+		final OpService ops, final RandomAccessibleInterval<T> template)
+	{
+		if (MappedStorage.isMapped(template)) {
+			return MappedStorage.getStorage(template).create(ops, template);
+		}
+		if (isDoubles(template)) {
+			return (RandomAccessibleInterval<T>) (RandomAccessibleInterval<?>) ArrayImgs
+				.doubles(Intervals.dimensionsAsLongArray(template));
+		}
+		if (isFloats(template)) {
+			return (RandomAccessibleInterval<T>) (RandomAccessibleInterval<?>) ArrayImgs
+				.floats(Intervals.dimensionsAsLongArray(template));
+		}
+		return (RandomAccessibleInterval<T>) ops.create().img(template);
+	}
+
+	/**
+	 * @param img the image
+	 * @return a flat float copy of img
+	 */
+	public static <S extends RealType<S>> RandomAccessibleInterval<FloatType>
+		toFloats(final RandomAccessibleInterval<S> img)
+	{
+		final RandomAccessibleInterval<FloatType> floats = ArrayImgs.floats(
+			Intervals.dimensionsAsLongArray(img));
+		copy(img, floats);
+		return floats;
+	}
+
+	/**
+	 * Copy the values of source into target in flat iteration order.
+	 * 
+	 * @param source the source
+	 * @param target the target, same size as source
+	 */
+	public static <S extends RealType<S>, T extends RealType<T>> void copy(
+		final RandomAccessibleInterval<S> source,
+		final RandomAccessibleInterval<T> target)
+	{
+		final Cursor<S> s = Views.flatIterable(source).cursor();
+		final Cursor<T> t = Views.flatIterable(target).cursor();
+		while (s.hasNext()) {
+			t.next().setReal(s.next().getRealDouble());
+		}
+	}
+
+	/**
+	 * Set all values of img to zero.
+	 * 
+	 * @param img the image
+	 */
+	public static <T extends RealType<T>> void setZero(
+		final RandomAccessibleInterval<T> img)
+	{
+		if (isDoubles(img)) {
+			Arrays.fill(doubles(img), 0);
+		}
+		else if (isFloats(img)) {
+			Arrays.fill(floats(img), 0);
+		}
+		else {
+			for (final T t : Views.iterable(img)) {
+				t.setZero();
+			}
+		}
+	}
+}
@@ -0,0 +1,496 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.helper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+import net.imagej.ops.OpService;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.basictypeaccess.DoubleAccess;
+import net.imglib2.img.basictypeaccess.FloatAccess;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Fraction;
+import net.imglib2.util.Intervals;
+
+/**
+ * Creates {@link PlanarImg}s of {@link DoubleType} and {@link FloatType}
+ * which are backed by memory-mapped files in a scratch directory instead of
+ * heap arrays.
+ * 
+ * Every image is one file, which is mapped in segments of at most 1GB. The
+ * planes of the image are views of these segments, so only a plane (the first
+ * two dimensions) is limited to 2^31 pixels, not the image. The file is
+ * created with its full length, but the operating system only allocates the
+ * pages which are written.
+ * 
+ * The pages of the files are held by the page cache of the operating system,
+ * so the images do not count against the heap. The files are mapped shared
+ * and writable, hence the kernel writes dirty pages back to disk under memory
+ * pressure and periodically as well (e.g. every few seconds on Linux). The
+ * write-back runs in the background, but a solver which updates all its
+ * images every iteration keeps the disk busy, so the scratch directory should
+ * be on a fast local disk or a RAM-backed file system.
+ * 
+ * {@link FlatArrays#create(OpService, RandomAccessibleInterval)} creates
+ * mapped images like a mapped template, so all images of a solver state
+ * follow the storage of the template they are created from. Mapped images are
+ * not flat arrays (see {@link FlatArrays#isDoubles}), so the fused kernels
+ * access them by {@link net.imglib2.RandomAccess}.
+ * 
+ * The files are deleted right away where the operating system allows it,
+ * else when the JVM exits. The mapping is released once the image is garbage
+ * collected.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public class MappedStorage {
+
+	/**
+	 * Number of pixels per mapped segment, a single mapping is limited to 2GB.
+	 */
+	private static final int SEGMENT_SHIFT = 27;
+
+	private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+
+	private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	private final File directory;
+
+	/**
+	 * @param directory the scratch directory of the mapped files
+	 */
+	public MappedStorage(final File directory) {
+		if (!directory.isDirectory()) {
+			throw new IllegalArgumentException(directory +
+				" is not a directory.");
+		}
+		this.directory = directory;
+	}
+
+	/**
+	 * @return the scratch directory
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @param ops the OpService
+	 * @param template dimensions and type of the image
+	 * @return a mapped image like template, or an image like template on the
+	 *         heap, if the type is neither {@link DoubleType} nor
+	 *         {@link FloatType}
+	 */
+	public <T extends RealType<T>> RandomAccessibleInterval<T> create(
+		final OpService ops, final RandomAccessibleInterval<T> template)
+	{
+		final long[] dims = Intervals.dimensionsAsLongArray(template);
+		final int planeSize = planeSize(dims);
+		final int numPlanes = (int) (Intervals.numElements(template) /
+			Math.max(planeSize, 1));
+
+		final Object type = template.randomAccess().get();
+		if (type instanceof DoubleType) {
+			final DoubleBuffer[] segments = mapDoubles(Intervals.numElements(
+				template));
+			final MappedDoubles[] planes = new MappedDoubles[numPlanes];
+			for (int p = 0; p < numPlanes; p++) {
+				planes[p] = new MappedDoubles(this, segments, (long) p * planeSize,
+					planeSize);
+			}
+			return doubles(planes, dims);
+		}
+		if (type instanceof FloatType) {
+			final FloatBuffer[] segments = mapFloats(Intervals.numElements(
+				template));
+			final MappedFloats[] planes = new MappedFloats[numPlanes];
+			for (int p = 0; p < numPlanes; p++) {
+				planes[p] = new MappedFloats(this, segments, (long) p * planeSize,
+					planeSize);
+			}
+			return floats(planes, dims);
+		}
+		return FlatArrays.create(ops, template);
+	}
+
+	/**
+	 * Templates for a solver state, from which all its images are created.
+	 * 
+	 * A template only holds this storage, the dimensions and the type, no file
+	 * is mapped for it. Images created from it by
+	 * {@link FlatArrays#create(OpService, RandomAccessibleInterval)} are mapped
+	 * by this storage. The pixels of the template itself must not be accessed.
+	 * 
+	 * @param images one image per view
+	 * @return one template like images[0] per view, or images if their type is
+	 *         neither {@link DoubleType} nor {@link FloatType}
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends RealType<T>> RandomAccessibleInterval<T>[]
+		createTemplates(final RandomAccessibleInterval<T>[] images)
+	{
+		final long[] dims = Intervals.dimensionsAsLongArray(images[0]);
+		final int numPlanes = (int) (Intervals.numElements(images[0]) / Math.max(
+			planeSize(dims), 1));
+		final Object type = images[0].randomAccess().get();
+		final RandomAccessibleInterval<T> template;
+		if (type instanceof DoubleType) {
+			final DoublesTemplate[] planes = new DoublesTemplate[numPlanes];
+			Arrays.fill(planes, new DoublesTemplate(this));
+			template = doubles(planes, dims);
+		}
+		else if (type instanceof FloatType) {
+			final FloatsTemplate[] planes = new FloatsTemplate[numPlanes];
+			Arrays.fill(planes, new FloatsTemplate(this));
+			template = floats(planes, dims);
+		}
+		else {
+			return images;
+		}
+		final RandomAccessibleInterval<T>[] templates =
+			new RandomAccessibleInterval[images.length];
+		Arrays.fill(templates, template);
+		return templates;
+	}
+
+	/**
+	 * @param img the image
+	 * @return true, if img is backed by a memory-mapped file
+	 */
+	public static boolean isMapped(final RandomAccessibleInterval<?> img) {
+		return img instanceof PlanarImg && ((PlanarImg<?, ?>) img)
+			.numSlices() > 0 && ((PlanarImg<?, ?>) img).getPlane(
+				0) instanceof Mapped;
+	}
+
+	/**
+	 * @param img a mapped image (see {@link #isMapped})
+	 * @return the storage which created img
+	 */
+	public static MappedStorage getStorage(
+		final RandomAccessibleInterval<?> img)
+	{
+		return ((Mapped) ((PlanarImg<?, ?>) img).getPlane(0)).storage;
+	}
+
+	/**
+	 * @param dims the dimensions of an image
+	 * @return the number of pixels of a plane of the image
+	 */
+	private static int planeSize(final long[] dims) {
+		final long planeSize = dims.length == 1 ? dims[0] : dims[0] * dims[1];
+		if (planeSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(
+				"Planes of mapped images are limited to 2^31 pixels.");
+		}
+		return (int) planeSize;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends RealType<T>, A extends ArrayDataAccess<A> & DoubleAccess>
+		RandomAccessibleInterval<T> doubles(final A[] planes, final long[] dims)
+	{
+		final PlanarImg<DoubleType, A> img = new PlanarImg<DoubleType, A>(dims,
+			new Fraction());
+		for (int p = 0; p < planes.length; p++) {
+			img.setPlane(p, planes[p]);
+		}
+		img.setLinkedType(new DoubleType(img));
+		return (RandomAccessibleInterval<T>) (RandomAccessibleInterval<?>) img;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends RealType<T>, A extends ArrayDataAccess<A> & FloatAccess>
+		RandomAccessibleInterval<T> floats(final A[] planes, final long[] dims)
+	{
+		final PlanarImg<FloatType, A> img = new PlanarImg<FloatType, A>(dims,
+			new Fraction());
+		for (int p = 0; p < planes.length; p++) {
+			img.setPlane(p, planes[p]);
+		}
+		img.setLinkedType(new FloatType(img));
+		return (RandomAccessibleInterval<T>) (RandomAccessibleInterval<?>) img;
+	}
+
+	private DoubleBuffer[] mapDoubles(final long numElements) {
+		final MappedByteBuffer[] bytes = map(numElements, 8);
+		final DoubleBuffer[] segments = new DoubleBuffer[bytes.length];
+		for (int s = 0; s < segments.length; s++) {
+			segments[s] = bytes[s].asDoubleBuffer();
+		}
+		return segments;
+	}
+
+	private FloatBuffer[] mapFloats(final long numElements) {
+		final MappedByteBuffer[] bytes = map(numElements, 4);
+		final FloatBuffer[] segments = new FloatBuffer[bytes.length];
+		for (int s = 0; s < segments.length; s++) {
+			segments[s] = bytes[s].asFloatBuffer();
+		}
+		return segments;
+	}
+
+	/**
+	 * Map a new zero-filled file of numElements elements in segments of
+	 * SEGMENT_SIZE elements.
+	 */
+	private MappedByteBuffer[] map(final long numElements,
+		final int bytesPerElement)
+	{
+		final long segmentBytes = (long) SEGMENT_SIZE * bytesPerElement;
+		final long numBytes = numElements * bytesPerElement;
+		final MappedByteBuffer[] segments =
+			new MappedByteBuffer[(int) ((numBytes + segmentBytes - 1) /
+				segmentBytes)];
+		try {
+			final File file = File.createTempFile("fopd-", ".raw", directory);
+			final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.setLength(numBytes);
+				final FileChannel channel = raf.getChannel();
+				for (int s = 0; s < segments.length; s++) {
+					final long offset = s * segmentBytes;
+					segments[s] = channel.map(MapMode.READ_WRITE, offset, Math.min(
+						segmentBytes, numBytes - offset));
+					segments[s].order(ByteOrder.nativeOrder());
+				}
+			}
+			finally {
+				// NB: The mappings stay valid after the file is closed.
+				raf.close();
+			}
+			if (!file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+		catch (final IOException exc) {
+			throw new RuntimeException(exc);
+		}
+		return segments;
+	}
+
+	/**
+	 * Access of a plane of an image of a storage.
+	 */
+	private abstract static class Mapped {
+
+		private final MappedStorage storage;
+
+		private Mapped(final MappedStorage storage) {
+			this.storage = storage;
+		}
+	}
+
+	/**
+	 * A plane, which starts at offset of the mapped segments of its image.
+	 */
+	private static final class MappedDoubles extends Mapped implements
+		DoubleAccess, ArrayDataAccess<MappedDoubles>
+	{
+
+		private final DoubleBuffer[] segments;
+
+		private final long offset;
+
+		private final int numPixels;
+
+		private MappedDoubles(final MappedStorage storage,
+			final DoubleBuffer[] segments, final long offset, final int numPixels)
+		{
+			super(storage);
+			this.segments = segments;
+			this.offset = offset;
+			this.numPixels = numPixels;
+		}
+
+		public double getValue(final int index) {
+			final long i = offset + index;
+			return segments[(int) (i >>> SEGMENT_SHIFT)].get((int) (i &
+				SEGMENT_MASK));
+		}
+
+		public void setValue(final int index, final double value) {
+			final long i = offset + index;
+			segments[(int) (i >>> SEGMENT_SHIFT)].put((int) (i & SEGMENT_MASK),
+				value);
+		}
+
+		/**
+		 * A plane in a new file of the same storage.
+		 */
+		public MappedDoubles createArray(final int numEntities) {
+			return new MappedDoubles(storage, storage.mapDoubles(numEntities), 0,
+				numEntities);
+		}
+
+		/**
+		 * The mapped segments of the whole image.
+		 */
+		public Object getCurrentStorageArray() {
+			return segments;
+		}
+
+		public int getArrayLength() {
+			return numPixels;
+		}
+	}
+
+	/**
+	 * A plane, which starts at offset of the mapped segments of its image.
+	 */
+	private static final class MappedFloats extends Mapped implements
+		FloatAccess, ArrayDataAccess<MappedFloats>
+	{
+
+		private final FloatBuffer[] segments;
+
+		private final long offset;
+
+		private final int numPixels;
+
+		private MappedFloats(final MappedStorage storage,
+			final FloatBuffer[] segments, final long offset, final int numPixels)
+		{
+			super(storage);
+			this.segments = segments;
+			this.offset = offset;
+			this.numPixels = numPixels;
+		}
+
+		public float getValue(final int index) {
+			final long i = offset + index;
+			return segments[(int) (i >>> SEGMENT_SHIFT)].get((int) (i &
+				SEGMENT_MASK));
+		}
+
+		public void setValue(final int index, final float value) {
+			final long i = offset + index;
+			segments[(int) (i >>> SEGMENT_SHIFT)].put((int) (i & SEGMENT_MASK),
+				value);
+		}
+
+		/**
+		 * A plane in a new file of the same storage.
+		 */
+		public MappedFloats createArray(final int numEntities) {
+			return new MappedFloats(storage, storage.mapFloats(numEntities), 0,
+				numEntities);
+		}
+
+		/**
+		 * The mapped segments of the whole image.
+		 */
+		public Object getCurrentStorageArray() {
+			return segments;
+		}
+
+		public int getArrayLength() {
+			return numPixels;
+		}
+	}
+
+	/**
+	 * Access of the planes of a template, which have no pixels.
+	 */
+	private static final class DoublesTemplate extends Mapped implements
+		DoubleAccess, ArrayDataAccess<DoublesTemplate>
+	{
+
+		private DoublesTemplate(final MappedStorage storage) {
+			super(storage);
+		}
+
+		public double getValue(final int index) {
+			throw new UnsupportedOperationException("Templates have no pixels.");
+		}
+
+		public void setValue(final int index, final double value) {
+			throw new UnsupportedOperationException("Templates have no pixels.");
+		}
+
+		public DoublesTemplate createArray(final int numEntities) {
+			return this;
+		}
+
+		public Object getCurrentStorageArray() {
+			return null;
+		}
+
+		public int getArrayLength() {
+			return 0;
+		}
+	}
+
+	/**
+	 * Access of the planes of a template, which have no pixels.
+	 */
+	private static final class FloatsTemplate extends Mapped implements
+		FloatAccess, ArrayDataAccess<FloatsTemplate>
+	{
+
+		private FloatsTemplate(final MappedStorage storage) {
+			super(storage);
+		}
+
+		public float getValue(final int index) {
+			throw new UnsupportedOperationException("Templates have no pixels.");
+		}
+
+		public void setValue(final int index, final float value) {
+			throw new UnsupportedOperationException("Templates have no pixels.");
+		}
+
+		public FloatsTemplate createArray(final int numEntities) {
+			return this;
+		}
+
+		public Object getCurrentStorageArray() {
+			return null;
+		}
+
+		public int getArrayLength() {
+			return 0;
+		}
+	}
+}
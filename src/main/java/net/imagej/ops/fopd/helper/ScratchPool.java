@@ -0,0 +1,145 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.helper;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.imagej.ops.OpService;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+
+/**
+ * Pool of scratch images, keyed by dimensions and type.
+ * 
+ * Ascent and descent steps borrow their temporary images at the beginning of
+ * a step and release them at its end. Consecutive steps, e.g. of the
+ * regularizer and the cost function, therefore share the same images. The
+ * pool is held by the {@link net.imagej.ops.fopd.solver.SolverSettings} and
+ * survives between solver runs on images of the same size.
+ * 
+ * The content of a borrowed image is undefined.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public class ScratchPool {
+
+	/**
+	 * Released images by dimensions and type.
+	 */
+	private final Map<Key, Deque<RandomAccessibleInterval<?>>> free =
+		new HashMap<Key, Deque<RandomAccessibleInterval<?>>>();
+
+	/**
+	 * Number of images created by this pool.
+	 */
+	private long created;
+
+	/**
+	 * @param ops the OpService
+	 * @param template dimensions and type of the scratch image
+	 * @return a released image like template or a new one
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T extends RealType<T>> RandomAccessibleInterval<T>
+		borrow(final OpService ops, final RandomAccessibleInterval<T> template)
+	{
+		final Deque<RandomAccessibleInterval<?>> images = free.get(new Key(
+			template));
+		if (images != null && !images.isEmpty()) {
+			return (RandomAccessibleInterval<T>) images.pop();
+		}
+		created++;
+		return FlatArrays.create(ops, template);
+	}
+
+	/**
+	 * Return a borrowed image to the pool.
+	 * 
+	 * @param image the image, must not be used afterwards
+	 */
+	public synchronized void release(final RandomAccessibleInterval<?> image) {
+		final Key key = new Key(image);
+		Deque<RandomAccessibleInterval<?>> images = free.get(key);
+		if (images == null) {
+			images = new ArrayDeque<RandomAccessibleInterval<?>>();
+			free.put(key, images);
+		}
+		images.push(image);
+	}
+
+	/**
+	 * Drop all released images.
+	 */
+	public synchronized void clear() {
+		free.clear();
+	}
+
+	/**
+	 * @return number of images created by this pool
+	 */
+	public synchronized long getNumCreated() {
+		return created;
+	}
+
+	/**
+	 * Dimensions and type of a scratch image.
+	 */
+	private static final class Key {
+
+		private final long[] dims;
+
+		private final Class<?> type;
+
+		private Key(final RandomAccessibleInterval<?> image) {
+			dims = Intervals.dimensionsAsLongArray(image);
+			type = image.randomAccess().get().getClass();
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return type == other.type && Arrays.equals(dims, other.dims);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * Arrays.hashCode(dims) + type.hashCode();
+		}
+	}
+}
@@ -0,0 +1,280 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.helper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+
+import org.scijava.thread.ThreadService;
+
+/**
+ * Parallel execution of a {@link TileTask} over an image, which is shared by
+ * all stencil helpers.
+ * 
+ * The image is partitioned into tiles whose working set fits into the L2
+ * cache. Dimension 0 is split last, to keep the rows long. Small images are
+ * split further until every thread gets several tiles. Each worker takes the
+ * next unprocessed tile, until all tiles are done, so that workers which
+ * finish early keep busy. The halo of a stencil (e.g. the neighbor of a
+ * forward difference) is read from the full image, so tiles need no
+ * overlap. The boundary condition is decided by the task with respect to the
+ * full image.
+ * 
+ * A thread which is marked as sequential (see {@link #setSequential(boolean)})
+ * runs all tiles itself. This is used to solve many small images at the same
+ * time, one per thread, without forking for every step.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public final class TiledExecutor {
+
+	/**
+	 * Assumed L2 cache size per core in bytes.
+	 */
+	public static final long L2_CACHE_SIZE = 256 * 1024;
+
+	/**
+	 * Minimum number of tiles per thread.
+	 */
+	private static final int TILES_PER_THREAD = 4;
+
+	/**
+	 * Splitting dimension 0 is penalized by this factor.
+	 */
+	private static final int ROW_PREFERENCE = 16;
+
+	/**
+	 * Marks the threads which run all tiles themselves.
+	 */
+	private static final ThreadLocal<Boolean> SEQUENTIAL =
+		new ThreadLocal<Boolean>()
+		{
+
+			@Override
+			protected Boolean initialValue() {
+				return false;
+			}
+		};
+
+	private TiledExecutor() {
+		// NB: Utility class
+	}
+
+	/**
+	 * @param sequential true, if the current thread has to run all tiles itself
+	 * @return the previous value, to restore it afterwards
+	 */
+	public static boolean setSequential(final boolean sequential) {
+		final boolean previous = SEQUENTIAL.get();
+		SEQUENTIAL.set(sequential);
+		return previous;
+	}
+
+	/**
+	 * @return true, if the current thread runs all tiles itself
+	 */
+	public static boolean isSequential() {
+		return SEQUENTIAL.get();
+	}
+
+	/**
+	 * @return number of workers for the current thread
+	 */
+	public static int numThreads() {
+		return isSequential() ? 1 : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Run task on all tiles of interval in parallel.
+	 * 
+	 * @param ts the ThreadService
+	 * @param interval the image interval
+	 * @param numImages number of double images which are accessed per pixel
+	 * @param task the task
+	 * @return the results of the tiles in flat iteration order of the tiles
+	 */
+	public static <R> List<R> run(final ThreadService ts,
+		final Interval interval, final int numImages, final TileTask<R> task)
+	{
+		final int numThreads = numThreads();
+		return run(ts, tiles(interval, L2_CACHE_SIZE / (8 * Math.max(numImages,
+			1)), numThreads * TILES_PER_THREAD), numThreads, task);
+	}
+
+	/**
+	 * Run task on all tiles with numThreads workers.
+	 * 
+	 * @param ts the ThreadService
+	 * @param tiles the tiles
+	 * @param numThreads maximum number of workers, ignored by sequential
+	 *          threads
+	 * @param task the task
+	 * @return the results of the tiles in the order of tiles
+	 */
+	@SuppressWarnings("unchecked")
+	public static <R> List<R> run(final ThreadService ts,
+		final List<Interval> tiles, final int numThreads, final TileTask<R> task)
+	{
+		final Object[] results = new Object[tiles.size()];
+		if (tiles.size() == 1 || numThreads == 1 || isSequential()) {
+			for (int i = 0; i < results.length; i++) {
+				results[i] = task.run(tiles.get(i));
+			}
+			return (List<R>) Arrays.asList(results);
+		}
+
+		final AtomicInteger next = new AtomicInteger();
+		final ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int w = 0; w < Math.min(numThreads, tiles.size()); w++) {
+			futures.add(ts.run(new Runnable() {
+
+				public void run() {
+					for (int i = next.getAndIncrement(); i < results.length; i = next
+						.getAndIncrement())
+					{
+						results[i] = task.run(tiles.get(i));
+					}
+				}
+			}));
+		}
+
+		for (final Future<?> future : futures) {
+			try {
+				future.get();
+			}
+			catch (final InterruptedException exc) {
+				throw new RuntimeException(exc);
+			}
+			catch (final ExecutionException exc) {
+				throw new RuntimeException(exc);
+			}
+		}
+		return (List<R>) Arrays.asList(results);
+	}
+
+	/**
+	 * Partition interval into tiles with at most maxPixels pixels and at least
+	 * minTiles tiles, as far as possible. The largest dimension is halved until
+	 * both hold, where dimension 0 counts ROW_PREFERENCE times less.
+	 * 
+	 * @param interval the image interval
+	 * @param maxPixels maximum number of pixels per tile
+	 * @param minTiles minimum number of tiles
+	 * @return the tiles in flat iteration order
+	 */
+	public static List<Interval> tiles(final Interval interval,
+		final long maxPixels, final int minTiles)
+	{
+		final int n = interval.numDimensions();
+		final long[] size = new long[n];
+		interval.dimensions(size);
+
+		while (numPixels(size) > maxPixels || numTiles(interval, size) < minTiles) {
+			int split = -1;
+			long score = 1;
+			for (int d = 0; d < n; d++) {
+				final long s = d == 0 ? size[d] / ROW_PREFERENCE : size[d];
+				if (size[d] > 1 && (split < 0 || s > score)) {
+					split = d;
+					score = s;
+				}
+			}
+			if (split < 0) {
+				break;
+			}
+			size[split] = (size[split] + 1) / 2;
+		}
+
+		return grid(interval, size);
+	}
+
+	/**
+	 * Partition interval into tiles of size tileSize. The last tile in each
+	 * dimension may be smaller.
+	 * 
+	 * @param interval the image interval
+	 * @param tileSize the size of the tiles
+	 * @return the tiles in flat iteration order
+	 */
+	public static List<Interval> grid(final Interval interval,
+		final long[] tileSize)
+	{
+		final int n = interval.numDimensions();
+		final long[] grid = new long[n];
+		for (int d = 0; d < n; d++) {
+			grid[d] = (interval.dimension(d) + tileSize[d] - 1) / tileSize[d];
+		}
+
+		final List<Interval> tiles = new ArrayList<Interval>();
+		final long[] index = new long[n];
+		final long[] min = new long[n];
+		final long[] max = new long[n];
+		while (true) {
+			for (int d = 0; d < n; d++) {
+				min[d] = interval.min(d) + index[d] * tileSize[d];
+				max[d] = Math.min(min[d] + tileSize[d] - 1, interval.max(d));
+			}
+			tiles.add(new FinalInterval(min, max));
+
+			int d = 0;
+			while (d < n && ++index[d] == grid[d]) {
+				index[d] = 0;
+				d++;
+			}
+			if (d == n) {
+				return tiles;
+			}
+		}
+	}
+
+	private static long numPixels(final long[] size) {
+		long numPixels = 1;
+		for (final long s : size) {
+			numPixels *= s;
+		}
+		return numPixels;
+	}
+
+	private static long numTiles(final Interval interval, final long[] size) {
+		long numTiles = 1;
+		for (int d = 0; d < size.length; d++) {
+			numTiles *= (interval.dimension(d) + size[d] - 1) / size[d];
+		}
+		return numTiles;
+	}
+}
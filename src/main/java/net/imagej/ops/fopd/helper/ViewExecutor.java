@@ -0,0 +1,119 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.helper;
+
+import java.util.List;
+
+import net.imglib2.Dimensions;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+
+import org.scijava.thread.ThreadService;
+
+/**
+ * Concurrent execution of a {@link ViewTask} over the views of a multi-view
+ * problem.
+ * 
+ * Every view in flight needs its own FFT buffers, so the number of views
+ * which are processed at the same time is limited by the free memory, by the
+ * number of cores and by an optional user limit. The views are run on the
+ * calling thread, if only one view fits or the thread is sequential (see {@link TiledExecutor#setSequential(boolean)}).
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public final class ViewExecutor {
+
+	/**
+	 * Choose the number of concurrent views automatically.
+	 */
+	public static final int AUTOMATIC = 0;
+
+	/**
+	 * Estimated bytes per pixel which a view in flight needs in addition to
+	 * the persistent state: the complex float spectrum of the padded image.
+	 * The dual updates of the cost functions need no scratch images.
+	 */
+	private static final long BYTES_PER_PIXEL = 2 * 2 * 4;
+
+	private ViewExecutor() {
+		// NB: Utility class
+	}
+
+	/**
+	 * @param image dimensions of the images of one view
+	 * @param numViews the number of views
+	 * @param limit maximum number of concurrent views, or {@link #AUTOMATIC}
+	 * @return number of views which may be processed at the same time
+	 */
+	public static int maxViews(final Dimensions image, final int numViews,
+		final int limit)
+	{
+		long numPixels = 1;
+		for (int d = 0; d < image.numDimensions(); d++) {
+			numPixels *= image.dimension(d);
+		}
+
+		final Runtime runtime = Runtime.getRuntime();
+		final long free = runtime.maxMemory() - runtime.totalMemory() + runtime
+			.freeMemory();
+		final long fitting = free / Math.max(numPixels * BYTES_PER_PIXEL, 1);
+
+		long maxViews = Math.min(numViews, TiledExecutor.numThreads());
+		if (limit != AUTOMATIC) {
+			maxViews = Math.min(maxViews, limit);
+		}
+		return (int) Math.max(1, Math.min(maxViews, fitting));
+	}
+
+	/**
+	 * Run task on all views with at most maxViews views at the same time.
+	 * 
+	 * @param ts the ThreadService
+	 * @param numViews the number of views
+	 * @param maxViews maximum number of concurrent views, see
+	 *          {@link #maxViews(Dimensions, int, int)}
+	 * @param task the task
+	 * @return the results of the views in view order
+	 */
+	public static <R> List<R> run(final ThreadService ts, final int numViews,
+		final int maxViews, final ViewTask<R> task)
+	{
+		// NB: One tile per view, so that workers take the next free view.
+		final List<Interval> views = TiledExecutor.grid(new FinalInterval(
+			numViews), new long[] { 1 });
+		return TiledExecutor.run(ts, views, maxViews, new TileTask<R>() {
+
+			public R run(final Interval view) {
+				return task.run((int) view.min(0));
+			}
+		});
+	}
+}
@@ -0,0 +1,122 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.operator;
+
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.fft2.FFTMethods;
+import net.imglib2.outofbounds.OutOfBoundsBorderFactory;
+import net.imglib2.outofbounds.OutOfBoundsFactory;
+import net.imglib2.outofbounds.OutOfBoundsPeriodicFactory;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Boundary condition of the FFT convolvers, which decides how far the image
+ * is padded before it is transformed. The padded size is then rounded up to
+ * the next size the FFT handles fast.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public enum Boundary {
+
+	/**
+	 * The image is extended by its border values. It is padded by the kernel
+	 * size minus one, so that the periodic wrap of the FFT does not reach into
+	 * the image.
+	 */
+	BORDER,
+
+	/**
+	 * The image is treated as periodic and is not padded, unless the kernel is
+	 * larger than the image. If the image size is not a fast FFT size, the
+	 * image is extended periodically up to the next fast size. Then the
+	 * boundary is only periodic up to a seam of the width of the kernel radius
+	 * if the extension is narrower than the radius.
+	 */
+	CIRCULAR;
+
+	/**
+	 * @param image dimensions of the image
+	 * @param kernel dimensions of the kernel
+	 * @return size of the padded image, before rounding to a fast FFT size
+	 */
+	public long[] paddedSize(final Dimensions image, final Dimensions kernel) {
+		final long[] size = new long[image.numDimensions()];
+		for (int d = 0; d < size.length; d++) {
+			size[d] = this == BORDER ? image.dimension(d) + kernel.dimension(d) -
+				1 : Math.max(image.dimension(d), kernel.dimension(d));
+		}
+		return size;
+	}
+
+	/**
+	 * @param image dimensions of the image
+	 * @param kernel dimensions of the kernel
+	 * @return number of pixels of the padded image, rounded up to a fast FFT
+	 *         size, and number of complex values of its spectrum
+	 */
+	public long[] fftElements(final Dimensions image, final Dimensions kernel) {
+		final int n = image.numDimensions();
+		final long[] fastSize = new long[n];
+		final long[] fftSize = new long[n];
+		FFTMethods.dimensionsRealToComplexFast(new FinalDimensions(paddedSize(
+			image, kernel)), fastSize, fftSize);
+		return new long[] { Intervals.numElements(fastSize), Intervals
+			.numElements(fftSize) };
+	}
+
+	/**
+	 * @param image the image
+	 * @return the image extended according to this boundary
+	 */
+	public <T extends RealType<T>> RandomAccessible<T> extend(
+		final RandomAccessibleInterval<T> image)
+	{
+		return this == BORDER ? Views.extendBorder(image) : Views.extendPeriodic(
+			image);
+	}
+
+	/**
+	 * @return the out of bounds strategy of this boundary
+	 */
+	public <T extends RealType<T>>
+		OutOfBoundsFactory<T, RandomAccessibleInterval<T>> outOfBoundsFactory()
+	{
+		if (this == BORDER) {
+			return new OutOfBoundsBorderFactory<T, RandomAccessibleInterval<T>>();
+		}
+		return new OutOfBoundsPeriodicFactory<T, RandomAccessibleInterval<T>>();
+	}
+}
@@ -33,6 +33,8 @@ package net.imagej.ops.fopd.operator;
 import net.imagej.ops.OpService;
 import net.imagej.ops.filter.convolve.ConvolveFFTC;
 import net.imagej.ops.filter.pad.PadInputFFTMethods;
+import net.imagej.ops.fopd.BufferDeclaration;
+import net.imagej.ops.fopd.solver.MemoryEstimator;
 import net.imagej.ops.special.computer.Computers;
 import net.imagej.ops.special.computer.UnaryComputerOp;
 import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
@@ -41,7 +43,6 @@ import net.imagej.ops.special.function.Functions;
 import net.imglib2.Dimensions;
 import net.imglib2.FinalDimensions;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.outofbounds.OutOfBoundsBorderFactory;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.complex.ComplexFloatType;
 
@@ -57,7 +58,7 @@ import org.scijava.plugin.Plugin;
 @Plugin(type = LinearOperator.class)
 public class FastConvolver<T extends RealType<T>> extends
 	AbstractUnaryFunctionOp<RandomAccessibleInterval<T>, RandomAccessibleInterval<T>>
-	implements LinearOperator<T>
+	implements LinearOperator<T>, BufferDeclaration
 {
 
 	@Parameter
@@ -66,6 +67,12 @@ public class FastConvolver<T extends RealType<T>> extends
 	@Parameter
 	private OpService ops;
 
+	/**
+	 * Optional boundary condition, {@link Boundary#BORDER} by default.
+	 */
+	@Parameter(required = false)
+	private Boundary boundary;
+
 	@SuppressWarnings("rawtypes")
 	private UnaryComputerOp<RandomAccessibleInterval, RandomAccessibleInterval<T>> convolver;
 
@@ -88,21 +95,32 @@ public class FastConvolver<T extends RealType<T>> extends
 		return convolution;
 	}
 
+	/**
+	 * The padded kernel, the spectra of the kernel and the image and the
+	 * result.
+	 */
+	public long getBufferBytes() {
+		final long[] elements = (boundary == null ? Boundary.BORDER : boundary)
+			.fftElements(in(), kernel);
+		return elements[0] * MemoryEstimator.getBytesPerPixel(kernel
+			.randomAccess().get()) + elements[1] * 2 * 8 + MemoryEstimator
+				.getImageBytes(in());
+	}
+
+	public int getNumScratchImages() {
+		return 0;
+	}
+
 	@SuppressWarnings("unchecked")
 	private void init(RandomAccessibleInterval<T> input) {
-		final int ndim = input.numDimensions();
-		final long[] paddedSize = new long[ndim];
-		
-		for (int i = 0; i < ndim; i++) {
-			paddedSize[i] = (int) input.dimension(i) + (int) kernel.dimension(i) - 1;
+		if (boundary == null) {
+			boundary = Boundary.BORDER;
 		}
-
-		paddedDims = new FinalDimensions(paddedSize);
+		paddedDims = new FinalDimensions(boundary.paddedSize(input, kernel));
 
 		padOp = Functions.binary(ops, PadInputFFTMethods.class,
 			RandomAccessibleInterval.class, RandomAccessibleInterval.class,
-			Dimensions.class, true,
-			new OutOfBoundsBorderFactory<T, RandomAccessibleInterval<T>>());
+			Dimensions.class, true, boundary.<T> outOfBoundsFactory());
 
 		final RandomAccessibleInterval<T> padKernel = ops.filter()
 			.padShiftFFTKernel(kernel, paddedDims);
@@ -0,0 +1,431 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.operator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imagej.ops.OpService;
+import net.imagej.ops.fopd.BufferDeclaration;
+import net.imagej.ops.fopd.helper.FlatArrays;
+import net.imagej.ops.fopd.helper.TileTask;
+import net.imagej.ops.fopd.helper.TiledExecutor;
+import net.imagej.ops.fopd.solver.MemoryEstimator;
+import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
+import net.imglib2.Cursor;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Convolver which sums over the kernel in the spatial domain, which is
+ * cheaper than the FFT for small kernels (see {@link #isCheaper}).
+ * 
+ * If the kernel is separable, i.e. the outer product of one line per
+ * dimension (rank test, see {@link #separate}), the image is convolved with
+ * one line after the other. The kernel is centered like the kernel of the
+ * FFT convolvers and the image is extended according to the {@link Boundary}.
+ * The adjoint (see {@link #getAdjoint()}) is the correlation with the same
+ * kernel.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ * @param <T>
+ */
+@Plugin(type = LinearOperator.class)
+public class SpatialConvolver<T extends RealType<T>> extends
+	AbstractUnaryFunctionOp<RandomAccessibleInterval<T>, RandomAccessibleInterval<T>>
+	implements LinearOperator<T>, BufferDeclaration
+{
+
+	/**
+	 * Tolerated deviation from a separable kernel, relative to the largest
+	 * kernel value.
+	 */
+	private static final double SEPARABLE_TOLERANCE = 1e-6;
+
+	/**
+	 * Estimated operations per pixel and log2 of the padded size of a
+	 * convolution with a forward and an inverse FFT.
+	 */
+	private static final double FFT_COST = 10;
+
+	@Parameter
+	private RandomAccessibleInterval<T> kernel;
+
+	@Parameter
+	private OpService ops;
+
+	@Parameter
+	private ThreadService ts;
+
+	/**
+	 * Optional boundary condition, {@link Boundary#BORDER} by default.
+	 */
+	@Parameter(required = false)
+	private Boundary boundary;
+
+	/**
+	 * The stencils which are applied one after the other. One per dimension if
+	 * the kernel is separable, else one for the whole kernel.
+	 */
+	private List<Stencil> stencils;
+
+	private FinalInterval interval;
+
+	private int[] strides;
+
+	private double[] source;
+
+	private double[] target;
+
+	private RandomAccessibleInterval<T> convolution;
+
+	private Adjoint adjoint;
+
+	public RandomAccessibleInterval<T> calculate(
+		final RandomAccessibleInterval<T> input)
+	{
+		if (stencils == null) {
+			init(input);
+		}
+		if (convolution == null) {
+			convolution = FlatArrays.create(ops, input);
+		}
+		return convolve(input, convolution, 1);
+	}
+
+	/**
+	 * @return the adjoint operator, the correlation with the kernel
+	 */
+	public LinearOperator<T> getAdjoint() {
+		if (adjoint == null) {
+			adjoint = new Adjoint();
+		}
+		return adjoint;
+	}
+
+	/**
+	 * The lines of doubles and the results of the convolver and its adjoint.
+	 */
+	public long getBufferBytes() {
+		return Intervals.numElements(in()) * 2 * 8 + 2 * MemoryEstimator
+			.getImageBytes(in());
+	}
+
+	public int getNumScratchImages() {
+		return 0;
+	}
+
+	/**
+	 * @return true, if the kernel is convolved line by line
+	 */
+	public boolean isSeparable() {
+		return separate(kernel) != null;
+	}
+
+	/**
+	 * @param input the image
+	 * @param output the result
+	 * @param sign 1 for the convolution, -1 for the correlation
+	 * @return output
+	 */
+	private RandomAccessibleInterval<T> convolve(
+		final RandomAccessibleInterval<T> input,
+		final RandomAccessibleInterval<T> output, final int sign)
+	{
+		final Cursor<T> in = Views.flatIterable(input).cursor();
+		for (int i = 0; in.hasNext(); i++) {
+			source[i] = in.next().getRealDouble();
+		}
+
+		for (final Stencil stencil : stencils) {
+			final double[] s = source;
+			final double[] t = target;
+			TiledExecutor.run(ts, interval, 2, new TileTask<Void>() {
+
+				public Void run(final Interval tile) {
+					stencil.apply(s, t, tile, sign);
+					return null;
+				}
+			});
+			source = t;
+			target = s;
+		}
+
+		final Cursor<T> out = Views.flatIterable(output).cursor();
+		for (int i = 0; out.hasNext(); i++) {
+			out.next().setReal(source[i]);
+		}
+		return output;
+	}
+
+	private void init(final RandomAccessibleInterval<T> input) {
+		if (boundary == null) {
+			boundary = Boundary.BORDER;
+		}
+		final int n = input.numDimensions();
+		interval = new FinalInterval(Intervals.dimensionsAsLongArray(input));
+		strides = FlatArrays.strides(interval);
+		source = new double[(int) Intervals.numElements(input)];
+		target = new double[source.length];
+
+		final long[] center = new long[n];
+		for (int d = 0; d < n; d++) {
+			center[d] = kernel.dimension(d) / 2;
+		}
+
+		stencils = new ArrayList<Stencil>();
+		final double[][] lines = separate(kernel);
+		if (lines != null) {
+			for (int d = 0; d < n; d++) {
+				final long[][] offsets = new long[lines[d].length][n];
+				for (int j = 0; j < lines[d].length; j++) {
+					offsets[j][d] = j - center[d];
+				}
+				stencils.add(new Stencil(offsets, lines[d]));
+			}
+		}
+		else {
+			final long[][] offsets = new long[(int) Intervals.numElements(
+				kernel)][];
+			final double[] weights = new double[offsets.length];
+			final Cursor<T> c = Views.flatIterable(Views.zeroMin(kernel))
+				.localizingCursor();
+			for (int e = 0; c.hasNext(); e++) {
+				weights[e] = c.next().getRealDouble();
+				offsets[e] = new long[n];
+				for (int d = 0; d < n; d++) {
+					offsets[e][d] = c.getLongPosition(d) - center[d];
+				}
+			}
+			stencils.add(new Stencil(offsets, weights));
+		}
+	}
+
+	/**
+	 * Rank test of the kernel. The kernel is separable, if it equals the
+	 * product of the lines through its largest value, divided by the largest
+	 * value in all but one dimension.
+	 * 
+	 * @param kernel the kernel
+	 * @return one line per dimension, whose outer product is the kernel, or
+	 *         null if the kernel is not separable
+	 */
+	public static <T extends RealType<T>> double[][] separate(
+		final RandomAccessibleInterval<T> kernel)
+	{
+		final int n = kernel.numDimensions();
+		final RandomAccessibleInterval<T> k = Views.zeroMin(kernel);
+
+		final long[] peak = new long[n];
+		double max = 0;
+		final Cursor<T> c = Views.flatIterable(k).localizingCursor();
+		while (c.hasNext()) {
+			final double v = c.next().getRealDouble();
+			if (Math.abs(v) > Math.abs(max)) {
+				max = v;
+				c.localize(peak);
+			}
+		}
+		if (max == 0) {
+			return null;
+		}
+
+		final double[][] lines = new double[n][];
+		final RandomAccess<T> ra = k.randomAccess();
+		for (int d = 0; d < n; d++) {
+			lines[d] = new double[(int) k.dimension(d)];
+			ra.setPosition(peak);
+			for (int j = 0; j < lines[d].length; j++) {
+				ra.setPosition(j, d);
+				lines[d][j] = ra.get().getRealDouble() / (d == 0 ? 1 : max);
+			}
+		}
+
+		c.reset();
+		while (c.hasNext()) {
+			final double v = c.next().getRealDouble();
+			double product = 1;
+			for (int d = 0; d < n; d++) {
+				product *= lines[d][c.getIntPosition(d)];
+			}
+			if (Math.abs(v - product) > SEPARABLE_TOLERANCE * Math.abs(max)) {
+				return null;
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * @param image dimensions of the image
+	 * @param kernel the kernel
+	 * @param boundary the boundary condition of the FFT convolution
+	 * @return true, if the spatial convolution is estimated to be cheaper
+	 *         than the FFT convolution
+	 */
+	public static <T extends RealType<T>> boolean isCheaper(
+		final Dimensions image, final RandomAccessibleInterval<T> kernel,
+		final Boundary boundary)
+	{
+		double spatial = 1;
+		if (separate(kernel) != null) {
+			spatial = 0;
+			for (int d = 0; d < kernel.numDimensions(); d++) {
+				spatial += kernel.dimension(d);
+			}
+		}
+		else {
+			spatial = Intervals.numElements(kernel);
+		}
+
+		double padded = 1;
+		for (final long size : boundary.paddedSize(image, kernel)) {
+			padded *= size;
+		}
+		return spatial < FFT_COST * Math.log(padded) / Math.log(2);
+	}
+
+	/**
+	 * Weighted sum over neighbors, the offsets of a kernel.
+	 */
+	private class Stencil {
+
+		private final long[][] offsets;
+
+		private final double[] weights;
+
+		/**
+		 * Linear offsets, used inside of the image.
+		 */
+		private final int[] linear;
+
+		/**
+		 * Largest absolute offset per dimension.
+		 */
+		private final long[] reach;
+
+		private Stencil(final long[][] offsets, final double[] weights) {
+			this.offsets = offsets;
+			this.weights = weights;
+			final int n = strides.length;
+			linear = new int[offsets.length];
+			reach = new long[n];
+			for (int e = 0; e < offsets.length; e++) {
+				for (int d = 0; d < n; d++) {
+					linear[e] += (int) offsets[e][d] * strides[d];
+					reach[d] = Math.max(reach[d], Math.abs(offsets[e][d]));
+				}
+			}
+		}
+
+		/**
+		 * t(x) = sum of w_e * s(x - sign * o_e) over the elements e.
+		 */
+		private void apply(final double[] s, final double[] t, final Interval tile,
+			final int sign)
+		{
+			final int n = strides.length;
+			final long[] position = Intervals.minAsLongArray(tile);
+			do {
+				boolean inner = true;
+				for (int d = 1; d < n; d++) {
+					inner &= position[d] >= reach[d] && position[d] < interval
+						.dimension(d) - reach[d];
+				}
+				for (long x = tile.min(0); x <= tile.max(0); x++) {
+					position[0] = x;
+					final int i = FlatArrays.index(position, strides);
+					double sum = 0;
+					if (inner && x >= reach[0] && x < interval.dimension(0) - reach[0]) {
+						for (int e = 0; e < weights.length; e++) {
+							sum += weights[e] * s[i - sign * linear[e]];
+						}
+					}
+					else {
+						for (int e = 0; e < weights.length; e++) {
+							int j = 0;
+							for (int d = 0; d < n; d++) {
+								j += map(position[d] - sign * offsets[e][d], interval
+									.dimension(d)) * strides[d];
+							}
+							sum += weights[e] * s[j];
+						}
+					}
+					t[i] = sum;
+				}
+			}
+			while (FlatArrays.nextRow(position, tile));
+		}
+
+		/**
+		 * @return position moved into [0, size) by the boundary condition
+		 */
+		private int map(final long position, final long size) {
+			if (boundary == Boundary.CIRCULAR) {
+				return (int) (((position % size) + size) % size);
+			}
+			return (int) Math.min(Math.max(position, 0), size - 1);
+		}
+	}
+
+	/**
+	 * Adjoint of the enclosing convolver, which shares its buffers and
+	 * stencils.
+	 */
+	private class Adjoint extends
+		AbstractUnaryFunctionOp<RandomAccessibleInterval<T>, RandomAccessibleInterval<T>>
+		implements LinearOperator<T>
+	{
+
+		private RandomAccessibleInterval<T> correlation;
+
+		public RandomAccessibleInterval<T> calculate(
+			final RandomAccessibleInterval<T> input)
+		{
+			if (stencils == null) {
+				init(input);
+			}
+			if (correlation == null) {
+				correlation = FlatArrays.create(ops, input);
+			}
+			return convolve(input, correlation, -1);
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.operator;
+
+import java.util.Arrays;
+
+import net.imagej.ops.OpService;
+import net.imagej.ops.fopd.BufferDeclaration;
+import net.imagej.ops.fopd.helper.FlatArrays;
+import net.imagej.ops.fopd.helper.ViewExecutor;
+import net.imagej.ops.fopd.helper.ViewTask;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+
+import org.scijava.thread.ThreadService;
+
+/**
+ * Sum of the adjoints of several {@link SpectralConvolver}s, i.e. the sum
+ * over all views of K_i^T q_i of a multi-view deconvolution.
+ * 
+ * Since the adjoints are linear, the spectra of the q_i are multiplied by
+ * the conjugate kernel spectra and summed in the frequency domain. Hence one
+ * inverse FFT is needed for all views instead of one per view. The forward
+ * transforms of the views are computed concurrently, as far as the memory
+ * allows (see {@link ViewExecutor}).
+ * 
+ * All views need images and kernels of the same size, so that their spectra
+ * have the same size (see {@link #canCombine}).
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ * @param <T>
+ */
+public class SpectralAdjointSum<T extends RealType<T>> implements
+	BufferDeclaration
+{
+
+	private final OpService ops;
+
+	private final ThreadService ts;
+
+	private final SpectralConvolver<T>[] convolvers;
+
+	/**
+	 * Real and imaginary part of the summed spectrum.
+	 */
+	private double[] real;
+
+	private double[] imaginary;
+
+	private RandomAccessibleInterval<T> sum;
+
+	/**
+	 * @param ops the OpService
+	 * @param ts the ThreadService
+	 * @param convolvers the convolvers of all views
+	 */
+	public SpectralAdjointSum(final OpService ops, final ThreadService ts,
+		final SpectralConvolver<T>[] convolvers)
+	{
+		this.ops = ops;
+		this.ts = ts;
+		this.convolvers = convolvers;
+	}
+
+	/**
+	 * @param input the images of all views
+	 * @param kernel the kernels of all views
+	 * @return true, if the spectra of all views have the same size
+	 */
+	public static <T extends RealType<T>> boolean canCombine(
+		final RandomAccessibleInterval<T>[] input,
+		final RandomAccessibleInterval<T>[] kernel)
+	{
+		for (int i = 1; i < input.length; i++) {
+			if (!Arrays.equals(Intervals.dimensionsAsLongArray(input[0]), Intervals
+				.dimensionsAsLongArray(input[i])) || !Arrays.equals(Intervals
+					.dimensionsAsLongArray(kernel[0]), Intervals.dimensionsAsLongArray(
+						kernel[i])))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The summed spectrum as doubles and the sum. The buffers of the
+	 * convolvers are declared by the convolvers.
+	 */
+	public long getBufferBytes() {
+		return convolvers[0].getSpectrumElements() * 16 + convolvers[0]
+			.getImageBytes();
+	}
+
+	public int getNumScratchImages() {
+		return 0;
+	}
+
+	/**
+	 * @param input the dual variables q_i of all views
+	 * @param maxViews maximum number of concurrent forward transforms
+	 * @return the sum of K_i^T q_i, which is overwritten by the next call
+	 */
+	public RandomAccessibleInterval<T> calculate(
+		final RandomAccessibleInterval<T>[] input, final int maxViews)
+	{
+		ViewExecutor.run(ts, convolvers.length, maxViews, new ViewTask<Void>() {
+
+			public Void run(final int i) {
+				convolvers[i].transformAdjoint(input[i]);
+				return null;
+			}
+		});
+
+		if (sum == null) {
+			real = new double[convolvers[0].getSpectrumSize()];
+			imaginary = new double[real.length];
+			sum = FlatArrays.create(ops, input[0]);
+		}
+		Arrays.fill(real, 0);
+		Arrays.fill(imaginary, 0);
+
+		// NB: Summed in view order, so that the result does not depend on the
+		// number of concurrent views.
+		for (final SpectralConvolver<T> convolver : convolvers) {
+			convolver.addSpectrum(real, imaginary);
+		}
+		convolvers[0].inverse(real, imaginary, sum);
+		return sum;
+	}
+}
@@ -0,0 +1,338 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.operator;
+
+import net.imagej.ops.OpService;
+import net.imagej.ops.filter.fft.FFTMethodsOpC;
+import net.imagej.ops.filter.ifft.IFFTMethodsOpC;
+import net.imagej.ops.fopd.BufferDeclaration;
+import net.imagej.ops.fopd.helper.FlatArrays;
+import net.imagej.ops.fopd.solver.MemoryEstimator;
+import net.imagej.ops.special.computer.Computers;
+import net.imagej.ops.special.computer.UnaryComputerOp;
+import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
+import net.imglib2.Cursor;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.fft2.FFTMethods;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+/**
+ * Convolver which keeps the spectrum of the kernel.
+ * 
+ * The input is padded according to the {@link Boundary} (border values by
+ * default) and rounded up to a fast FFT size, transformed
+ * with a real-to-complex FFT into a preallocated spectrum, multiplied by the
+ * cached kernel spectrum and transformed back. The adjoint (see
+ * {@link #getAdjoint()}) multiplies by the complex conjugate of the same
+ * spectrum, which is the convolution with the flipped kernel. Hence the
+ * kernel is transformed once for both directions.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ * @param <T>
+ */
+@Plugin(type = LinearOperator.class)
+public class SpectralConvolver<T extends RealType<T>> extends
+	AbstractUnaryFunctionOp<RandomAccessibleInterval<T>, RandomAccessibleInterval<T>>
+	implements LinearOperator<T>, BufferDeclaration
+{
+
+	@Parameter
+	private RandomAccessibleInterval<T> kernel;
+
+	@Parameter
+	private OpService ops;
+
+	/**
+	 * Optional boundary condition, {@link Boundary#BORDER} by default.
+	 */
+	@Parameter(required = false)
+	private Boundary boundary;
+
+	@SuppressWarnings("rawtypes")
+	private UnaryComputerOp<RandomAccessibleInterval, RandomAccessibleInterval> fft;
+
+	@SuppressWarnings("rawtypes")
+	private UnaryComputerOp<RandomAccessibleInterval, RandomAccessibleInterval> ifft;
+
+	/**
+	 * Real and imaginary part of the kernel spectrum in flat iteration order.
+	 */
+	private float[] kernelReal;
+
+	private float[] kernelImaginary;
+
+	/**
+	 * Spectrum of the padded input.
+	 */
+	private RandomAccessibleInterval<ComplexFloatType> spectrum;
+
+	/**
+	 * Padded result of the inverse transform.
+	 */
+	private RandomAccessibleInterval<FloatType> padded;
+
+	/**
+	 * Position of the image in the padded image.
+	 */
+	private long[] min;
+
+	private long[] max;
+
+	/**
+	 * Position of the padded image relative to the image.
+	 */
+	private long[] paddedMin;
+
+	private long[] paddedMax;
+
+	private RandomAccessibleInterval<T> convolution;
+
+	private Adjoint adjoint;
+
+	public RandomAccessibleInterval<T> calculate(
+		final RandomAccessibleInterval<T> input)
+	{
+		if (fft == null || ifft == null) {
+			init(input);
+		}
+		if (convolution == null) {
+			convolution = FlatArrays.create(ops, input);
+		}
+		return convolve(input, convolution, false);
+	}
+
+	/**
+	 * @return the adjoint operator, the convolution with the flipped kernel
+	 */
+	public LinearOperator<T> getAdjoint() {
+		if (adjoint == null) {
+			adjoint = new Adjoint();
+		}
+		return adjoint;
+	}
+
+	/**
+	 * The padded image, the spectrum, the kernel spectrum and the results of
+	 * the convolver and its adjoint.
+	 */
+	public long getBufferBytes() {
+		final long[] elements = getFFTElements();
+		return elements[0] * 4 + elements[1] * 16 + 2 * getImageBytes();
+	}
+
+	public int getNumScratchImages() {
+		return 0;
+	}
+
+	private RandomAccessibleInterval<T> convolve(
+		final RandomAccessibleInterval<T> input,
+		final RandomAccessibleInterval<T> output, final boolean conjugate)
+	{
+		transform(input);
+		multiply(conjugate);
+		ifft.compute(spectrum, padded);
+		FlatArrays.copy(Views.interval(padded, min, max), output);
+		return output;
+	}
+
+	/**
+	 * Transform input and multiply it by the conjugate kernel spectrum, without
+	 * the inverse transform (see {@link SpectralAdjointSum}).
+	 * 
+	 * @param input the image
+	 */
+	void transformAdjoint(final RandomAccessibleInterval<T> input) {
+		if (fft == null || ifft == null) {
+			init(input);
+		}
+		transform(input);
+		multiply(true);
+	}
+
+	/**
+	 * Add the spectrum of the last {@link #transformAdjoint} to real and
+	 * imaginary.
+	 */
+	void addSpectrum(final double[] real, final double[] imaginary) {
+		final Cursor<ComplexFloatType> c = Views.flatIterable(spectrum).cursor();
+		for (int i = 0; c.hasNext(); i++) {
+			final ComplexFloatType s = c.next();
+			real[i] += s.getRealFloat();
+			imaginary[i] += s.getImaginaryFloat();
+		}
+	}
+
+	/**
+	 * Inverse transform of a spectrum which was accumulated by
+	 * {@link #addSpectrum(double[], double[])}.
+	 * 
+	 * @param real the real part
+	 * @param imaginary the imaginary part
+	 * @param output the cropped result
+	 */
+	void inverse(final double[] real, final double[] imaginary,
+		final RandomAccessibleInterval<T> output)
+	{
+		final Cursor<ComplexFloatType> c = Views.flatIterable(spectrum).cursor();
+		for (int i = 0; c.hasNext(); i++) {
+			c.next().set((float) real[i], (float) imaginary[i]);
+		}
+		ifft.compute(spectrum, padded);
+		FlatArrays.copy(Views.interval(padded, min, max), output);
+	}
+
+	/**
+	 * @return number of complex values of the spectrum, after the first
+	 *         transform
+	 */
+	int getSpectrumSize() {
+		return kernelReal.length;
+	}
+
+	/**
+	 * @return number of complex values of the spectrum, before the first
+	 *         transform
+	 */
+	long getSpectrumElements() {
+		return getFFTElements()[1];
+	}
+
+	/**
+	 * @return bytes of the result
+	 */
+	long getImageBytes() {
+		return MemoryEstimator.getImageBytes(in());
+	}
+
+	private long[] getFFTElements() {
+		return (boundary == null ? Boundary.BORDER : boundary).fftElements(in(),
+			kernel);
+	}
+
+	/**
+	 * Transform the padded input into the spectrum.
+	 */
+	private void transform(final RandomAccessibleInterval<T> input) {
+		fft.compute(Views.zeroMin(Views.interval(boundary.extend(Views.zeroMin(
+			input)), paddedMin, paddedMax)), spectrum);
+	}
+
+	/**
+	 * Multiply the spectrum by the kernel spectrum or its complex conjugate.
+	 */
+	private void multiply(final boolean conjugate) {
+		final Cursor<ComplexFloatType> c = Views.flatIterable(spectrum).cursor();
+		int i = 0;
+		while (c.hasNext()) {
+			final ComplexFloatType s = c.next();
+			final float a = s.getRealFloat();
+			final float b = s.getImaginaryFloat();
+			final float kr = kernelReal[i];
+			final float ki = conjugate ? -kernelImaginary[i] : kernelImaginary[i];
+			s.set(a * kr - b * ki, a * ki + b * kr);
+			i++;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void init(final RandomAccessibleInterval<T> input) {
+		if (boundary == null) {
+			boundary = Boundary.BORDER;
+		}
+		final int n = input.numDimensions();
+		final long[] fastSize = new long[n];
+		final long[] fftSize = new long[n];
+		FFTMethods.dimensionsRealToComplexFast(new FinalDimensions(boundary
+			.paddedSize(input, kernel)), fastSize, fftSize);
+
+		// the image is centered in the padded image
+		min = new long[n];
+		max = new long[n];
+		paddedMin = new long[n];
+		paddedMax = new long[n];
+		for (int d = 0; d < n; d++) {
+			min[d] = (fastSize[d] - input.dimension(d)) / 2;
+			max[d] = min[d] + input.dimension(d) - 1;
+			paddedMin[d] = -min[d];
+			paddedMax[d] = fastSize[d] - 1 - min[d];
+		}
+		final FinalDimensions fastDims = new FinalDimensions(fastSize);
+
+		spectrum = ArrayImgs.complexFloats(fftSize);
+		padded = ArrayImgs.floats(fastSize);
+
+		fft = Computers.unary(ops, FFTMethodsOpC.class, spectrum, padded);
+		ifft = Computers.unary(ops, IFFTMethodsOpC.class, padded, spectrum);
+
+		fft.compute(ops.filter().padShiftFFTKernel(kernel, fastDims), spectrum);
+		kernelReal = new float[(int) Intervals.numElements(spectrum)];
+		kernelImaginary = new float[kernelReal.length];
+		final Cursor<ComplexFloatType> c = Views.flatIterable(spectrum).cursor();
+		for (int i = 0; c.hasNext(); i++) {
+			final ComplexFloatType k = c.next();
+			kernelReal[i] = k.getRealFloat();
+			kernelImaginary[i] = k.getImaginaryFloat();
+		}
+	}
+
+	/**
+	 * Adjoint of the enclosing convolver, which shares its buffers and kernel
+	 * spectrum.
+	 */
+	private class Adjoint extends
+		AbstractUnaryFunctionOp<RandomAccessibleInterval<T>, RandomAccessibleInterval<T>>
+		implements LinearOperator<T>
+	{
+
+		private RandomAccessibleInterval<T> correlation;
+
+		public RandomAccessibleInterval<T> calculate(
+			final RandomAccessibleInterval<T> input)
+		{
+			if (fft == null || ifft == null) {
+				init(input);
+			}
+			if (correlation == null) {
+				correlation = FlatArrays.create(ops, input);
+			}
+			return convolve(input, correlation, true);
+		}
+	}
+}
@@ -40,7 +40,7 @@ import net.imglib2.type.numeric.RealType;
  * @author Tim-Oliver Buchholz, University of Konstanz
  * @param <T>
  */
-public class AbstractRegularizer<T extends RealType<T>> implements
+public abstract class AbstractRegularizer<T extends RealType<T>> implements
 	Regularizer<T>
 {
 
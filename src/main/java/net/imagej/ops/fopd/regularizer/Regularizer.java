@@ -32,6 +32,7 @@ package net.imagej.ops.fopd.regularizer;
 
 import net.imagej.ops.fopd.Ascent;
 import net.imagej.ops.fopd.Descent;
+import net.imagej.ops.fopd.solver.SolverState;
 import net.imglib2.type.numeric.RealType;
 
 /**
@@ -44,4 +45,17 @@ public interface Regularizer<T extends RealType<T>> {
 	public Ascent<T> getAscent();
 
 	public Descent<T> getDescent();
+
+	/**
+	 * @param state the current state
+	 * @return R(u) of the current primal iterate u, which is the intermediate
+	 *         result and not the over-relaxed result image
+	 */
+	public double getPrimalEnergy(SolverState<T> state);
+
+	/**
+	 * @param state the current state
+	 * @return R*(p) of the current regularizer dual variables p
+	 */
+	public double getConjugateEnergy(SolverState<T> state);
 }
@@ -30,15 +30,22 @@
 
 package net.imagej.ops.fopd.regularizer.tgv;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import net.imagej.ops.OpService;
 import net.imagej.ops.Ops;
 import net.imagej.ops.Ops.Map;
 import net.imagej.ops.fopd.Ascent;
+import net.imagej.ops.fopd.BufferDeclaration;
 import net.imagej.ops.fopd.DualVariables;
+import net.imagej.ops.fopd.ScalableStepSize;
 import net.imagej.ops.fopd.helper.DefaultForwardDifference;
 import net.imagej.ops.fopd.helper.DefaultL1Projector;
 import net.imagej.ops.fopd.helper.DefaultL2Norm;
+import net.imagej.ops.fopd.helper.ScratchPool;
 import net.imagej.ops.fopd.regularizer.tgv.solver.TGVMinimizer2D;
+import net.imagej.ops.fopd.solver.IterationListener;
 import net.imagej.ops.fopd.solver.RegularizerSolver;
 import net.imagej.ops.fopd.solver.SolverState;
 import net.imagej.ops.map.MapBinaryComputers.RAIAndRAIToIIParallel;
@@ -47,8 +54,6 @@ import net.imagej.ops.special.computer.BinaryComputerOp;
 import net.imagej.ops.special.computer.Computers;
 import net.imagej.ops.special.computer.UnaryComputerOp;
 import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
-import net.imagej.ops.special.function.Functions;
-import net.imagej.ops.special.function.UnaryFunctionOp;
 import net.imagej.ops.special.inplace.BinaryInplace1Op;
 import net.imagej.ops.special.inplace.Inplaces;
 import net.imglib2.IterableInterval;
@@ -71,7 +76,7 @@ import org.scijava.plugin.Plugin;
 @Plugin(type = Ascent.class)
 public class TGV2DAscent<T extends RealType<T>> extends
 	AbstractUnaryFunctionOp<SolverState<T>, SolverState<T>> implements
-	Ascent<T>
+	Ascent<T>, ScalableStepSize, BufferDeclaration
 {
 
 	/**
@@ -95,41 +100,33 @@ public class TGV2DAscent<T extends RealType<T>> extends
 	/**
 	 * The ascent step-size.
 	 */
-	private final double stepSize = 1 / 3.0;
-
-	/**
-	 * The norm of the input
-	 */
-	private RandomAccessibleInterval<T> norm;
+	private double stepSize = 1 / 3.0;
 
 	/**
 	 * The gradient computer in X-direction.
 	 */
 	@SuppressWarnings("rawtypes")
-	private UnaryFunctionOp<RandomAccessibleInterval, RandomAccessibleInterval> gradientX;
+	private UnaryComputerOp<RandomAccessibleInterval, RandomAccessibleInterval> gradientX;
 
 	/**
 	 * The gradient computer in Y-direction.
 	 */
 	@SuppressWarnings("rawtypes")
-	private UnaryFunctionOp<RandomAccessibleInterval, RandomAccessibleInterval> gradientY;
+	private UnaryComputerOp<RandomAccessibleInterval, RandomAccessibleInterval> gradientY;
 
 	/**
-	 * Holds difference between current gradientX(resultImage) and the first
-	 * result of the {@link TGVMinimizer2D}.
+	 * Solver of the {@link TGVMinimizer2D} which has to do one iteration.
 	 */
-	private IterableInterval<T> diff0;
+	private RegularizerSolver<T> tgvSolver;
 
 	/**
-	 * Holds difference between current gradientY(resultImage) and the second
-	 * result of the {@link TGVMinimizer2D}.
+	 * {@link IterationListener}s of tgvSolver and their sampling rates, which
+	 * are added once it is created.
 	 */
-	private IterableInterval<T> diff1;
+	private final List<IterationListener<T>> listeners =
+		new ArrayList<IterationListener<T>>();
 
-	/**
-	 * Solver of the {@link TGVMinimizer2D} which has to do one iteration.
-	 */
-	private RegularizerSolver<T> tgvSolver;
+	private final List<Integer> samplingRates = new ArrayList<Integer>();
 
 	/**
 	 * Add mapper.
@@ -166,25 +163,31 @@ public class TGV2DAscent<T extends RealType<T>> extends
 	public SolverState<T> calculate(final SolverState<T> input) {
 		final DualVariables<T> dualVariables = input.getRegularizerDV();
 
-		if (gradientX == null || gradientY == null || mapperAdd == null ||
-			norm == null)
-		{
+		if (gradientX == null || gradientY == null || mapperAdd == null) {
 			init(input);
 		}
 
-		mapperSubtract.compute(gradientX.calculate(input.getResultImage(0)),
-			input.getSubSolverState(0).getResultImage(0), diff0);
+		final ScratchPool pool = input.getScratchPool();
+		final RandomAccessibleInterval<T> diff = pool.borrow(ops, dualVariables
+			.getDualVariable(0));
+		final RandomAccessibleInterval<T> norm = pool.borrow(ops, dualVariables
+			.getDualVariable(0));
+
+		gradientX.compute(input.getResultImage(0), diff);
+		mapperSubtract.compute(diff, input.getSubSolverState(0)
+			.getResultImage(0), (IterableInterval<T>) diff);
 
 		mapperAdd.compute(dualVariables.getDualVariable(0), Converters.convert(
-			(RandomAccessibleInterval<T>) diff0, c1, input.getType()),
-			(IterableInterval<T>) dualVariables.getDualVariable(0));
+			diff, c1, input.getType()), (IterableInterval<T>) dualVariables
+				.getDualVariable(0));
 
-		mapperSubtract.compute(gradientY.calculate(input.getResultImage(0)),
-			input.getSubSolverState(0).getResultImage(1), diff1);
+		gradientY.compute(input.getResultImage(0), diff);
+		mapperSubtract.compute(diff, input.getSubSolverState(0)
+			.getResultImage(1), (IterableInterval<T>) diff);
 
 		mapperAdd.compute(dualVariables.getDualVariable(1), Converters.convert(
-			(RandomAccessibleInterval<T>) diff1, c2, input.getType()),
-			(IterableInterval<T>) dualVariables.getDualVariable(1));
+			diff, c2, input.getType()), (IterableInterval<T>) dualVariables
+				.getDualVariable(1));
 
 		normComputer.compute(dualVariables.getAllDualVariables(), norm);
 
@@ -193,25 +196,58 @@ public class TGV2DAscent<T extends RealType<T>> extends
 		inplaceMapper.mutate1((IterableInterval<T>) dualVariables
 			.getDualVariable(1), (IterableInterval<T>) norm);
 
+		pool.release(diff);
+		pool.release(norm);
+
 		tgvSolver.calculate(input);
 
 		return input;
 	}
 
+	/**
+	 * @param listener is notified after every samplingRate-th iteration of the
+	 *          {@link RegularizerSolver} of the {@link TGVMinimizer2D}
+	 * @param samplingRate of the listener
+	 */
+	public void addIterationListener(final IterationListener<T> listener,
+		final int samplingRate)
+	{
+		if (tgvSolver != null) {
+			tgvSolver.addIterationListener(listener, samplingRate);
+			return;
+		}
+		listeners.add(listener);
+		samplingRates.add(samplingRate);
+	}
+
+	public long getBufferBytes() {
+		return 0;
+	}
+
+	/**
+	 * diff and norm. The solver of the {@link TGVMinimizer2D} borrows two
+	 * images as well, after they were released.
+	 */
+	public int getNumScratchImages() {
+		return 2;
+	}
+
+	public double getStepSize() {
+		return stepSize;
+	}
+
+	public void scaleStepSize(final double factor) {
+		stepSize *= factor;
+	}
+
 	@SuppressWarnings("unchecked")
 	private void init(final SolverState<T> input) {
 		final DualVariables<T> dualVariables = input.getRegularizerDV();
-		norm = (RandomAccessibleInterval<T>) ops.create().img(dualVariables
-			.getDualVariable(0));
-		diff0 = (IterableInterval<T>) ops.create().img(dualVariables
-			.getDualVariable(0));
-		diff1 = (IterableInterval<T>) ops.create().img(dualVariables
-			.getDualVariable(0));
 
-		gradientX = Functions.unary(ops, DefaultForwardDifference.class,
+		gradientX = Computers.unary(ops, DefaultForwardDifference.class,
 			RandomAccessibleInterval.class, RandomAccessibleInterval.class, 0,
 			new OutOfBoundsBorderFactory<DoubleType, RandomAccessibleInterval<DoubleType>>());
-		gradientY = Functions.unary(ops, DefaultForwardDifference.class,
+		gradientY = Computers.unary(ops, DefaultForwardDifference.class,
 			RandomAccessibleInterval.class, RandomAccessibleInterval.class, 1,
 			new OutOfBoundsBorderFactory<DoubleType, RandomAccessibleInterval<DoubleType>>());
 
@@ -258,5 +294,8 @@ public class TGV2DAscent<T extends RealType<T>> extends
 
 		tgvSolver = ops.op(RegularizerSolver.class, input.getSubSolverState(0),
 			new TGVMinimizer2D<T>(ops, beta, 1 / 5.0), 1);
+		for (int i = 0; i < listeners.size(); i++) {
+			tgvSolver.addIterationListener(listeners.get(i), samplingRates.get(i));
+		}
 	}
 }
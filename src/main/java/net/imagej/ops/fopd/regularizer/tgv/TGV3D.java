@@ -31,8 +31,11 @@
 package net.imagej.ops.fopd.regularizer.tgv;
 
 import net.imagej.ops.OpService;
+import net.imagej.ops.fopd.helper.Energies;
 import net.imagej.ops.fopd.regularizer.AbstractRegularizer;
+import net.imagej.ops.fopd.regularizer.tgv.solver.TGVMinimizer3D;
 import net.imagej.ops.fopd.solver.SolverState;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.RealType;
 
 /**
@@ -47,9 +50,41 @@ import net.imglib2.type.numeric.RealType;
  */
 public class TGV3D<T extends RealType<T>> extends AbstractRegularizer<T> {
 
+	private final double alpha;
+
 	@SuppressWarnings("unchecked")
 	public TGV3D(final OpService ops, final double alpha, final double beta, final double descentStepSize) {
+		this.alpha = alpha;
 		this.ascent = ops.op(TGV3DAscent.class, SolverState.class, alpha, beta);
 		this.descent = ops.op(TGV3DDescent.class, SolverState.class, descentStepSize);
 	}
+
+	/**
+	 * alpha * |grad(u) - v|, where v is the current result of the
+	 * {@link TGVMinimizer3D}. The second order term of v is constant for
+	 * fixed v and cancels in the primal-dual gap.
+	 */
+	public double getPrimalEnergy(final SolverState<T> state) {
+		return Energies.gradientEnergy(state.getIntermediateResult(0), getV(
+			state), alpha, 0);
+	}
+
+	/**
+	 * &lt;p, v&gt;, since |p| <= alpha holds after the ascent.
+	 */
+	public double getConjugateEnergy(final SolverState<T> state) {
+		return Energies.innerProduct(state.getRegularizerDV()
+			.getAllDualVariables(), getV(state));
+	}
+
+	@SuppressWarnings("unchecked")
+	private RandomAccessibleInterval<T>[] getV(final SolverState<T> state) {
+		final SolverState<T> subState = state.getSubSolverState(0);
+		final RandomAccessibleInterval<T>[] v = new RandomAccessibleInterval[state
+			.getResultImage(0).numDimensions()];
+		for (int d = 0; d < v.length; d++) {
+			v[d] = subState.getIntermediateResult(d);
+		}
+		return v;
+	}
 }
@@ -31,7 +31,6 @@
 package net.imagej.ops.fopd.regularizer.tgv.solver;
 
 import net.imagej.ops.OpService;
-import net.imagej.ops.fopd.DualVariables;
 import net.imagej.ops.fopd.solver.AbstractSolverState;
 import net.imagej.ops.fopd.solver.SolverState;
 import net.imglib2.RandomAccessibleInterval;
@@ -50,8 +49,7 @@ public class TGVMinimizer2DSolverState<T extends RealType<T>> extends
 	public TGVMinimizer2DSolverState(final OpService ops,
 		final RandomAccessibleInterval<T>[] images)
 	{
-		super(ops, images, 2);
-		regularizerDV = new DualVariables<T>(ops, images[0], 3);
+		super(ops, images, 2, 3, 0);
 	}
 
 	@Override
@@ -60,7 +58,7 @@ public class TGVMinimizer2DSolverState<T extends RealType<T>> extends
 			throw new ArrayIndexOutOfBoundsException(
 				"This solver only has two intermediate results.");
 		}
-		return intermediateResults[i];
+		return intermediateResult(i);
 	}
 
 	@Override
@@ -69,6 +67,6 @@ public class TGVMinimizer2DSolverState<T extends RealType<T>> extends
 			throw new ArrayIndexOutOfBoundsException(
 				"This solver only has two results.");
 		}
-		return results[i];
+		return result(i);
 	}
 }
@@ -31,8 +31,11 @@
 package net.imagej.ops.fopd.regularizer.tgv.solver;
 
 import net.imagej.ops.OpService;
+import net.imagej.ops.fopd.helper.Energies;
 import net.imagej.ops.fopd.regularizer.AbstractRegularizer;
+import net.imagej.ops.fopd.solver.SolverState;
 import net.imagej.ops.fopd.solver.TGV3DSolverState;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.RealType;
 
 /**
@@ -47,9 +50,53 @@ import net.imglib2.type.numeric.RealType;
  */
 public class TGVMinimizer3D<T extends RealType<T>> extends AbstractRegularizer<T> {
 
+	private final double beta;
+
 	@SuppressWarnings("unchecked")
 	public TGVMinimizer3D(final OpService ops, final double beta, final double descentStepSize) {
+		this.beta = beta;
 		this.ascent = ops.op(TGVMinimizer3DAscent.class, TGV3DSolverState.class, beta);
 		this.descent = ops.op(TGVMinimizer3DDescent.class, TGV3DSolverState.class, descentStepSize);
 	}
+
+	/**
+	 * beta * |E(v)| - &lt;p, v&gt;, where v is the current result of the
+	 * sub-solver state and p are the dual variables of the {@link net.imagej.ops.fopd.regularizer.tgv.TGV3D}, which
+	 * are constant while v is minimized.
+	 */
+	public double getPrimalEnergy(final SolverState<T> state) {
+		final RandomAccessibleInterval<T>[] v = getV(state);
+		return Energies.symmetrizedGradientEnergy(v, beta) - Energies
+			.innerProduct(getP(state, v.length), v);
+	}
+
+	/**
+	 * The conjugate is the indicator of |w| <= beta, which holds after the
+	 * ascent.
+	 */
+	public double getConjugateEnergy(final SolverState<T> state) {
+		return 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	private RandomAccessibleInterval<T>[] getV(final SolverState<T> state) {
+		final SolverState<T> subState = state.getSubSolverState(0);
+		final RandomAccessibleInterval<T>[] v = new RandomAccessibleInterval[subState
+			.numIntermediateResults()];
+		for (int d = 0; d < v.length; d++) {
+			v[d] = subState.getIntermediateResult(d);
+		}
+		return v;
+	}
+
+	@SuppressWarnings("unchecked")
+	private RandomAccessibleInterval<T>[] getP(final SolverState<T> state,
+		final int n)
+	{
+		final RandomAccessibleInterval<T>[] p = new RandomAccessibleInterval[n];
+		for (int d = 0; d < n; d++) {
+			p[d] = state.getRegularizerDV().getDualVariable(d);
+		}
+		return p;
+	}
 }
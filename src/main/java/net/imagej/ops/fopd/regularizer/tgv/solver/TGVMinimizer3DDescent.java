@@ -44,9 +44,8 @@ import net.imagej.ops.fopd.solver.SolverState;
 import net.imagej.ops.map.MapBinaryComputers.RAIAndRAIToIIParallel;
 import net.imagej.ops.special.computer.BinaryComputerOp;
 import net.imagej.ops.special.computer.Computers;
+import net.imagej.ops.special.computer.UnaryComputerOp;
 import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
-import net.imagej.ops.special.function.Functions;
-import net.imagej.ops.special.function.UnaryFunctionOp;
 import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.converter.Converter;
@@ -77,16 +76,11 @@ public class TGVMinimizer3DDescent<T extends RealType<T>> extends
 	@Parameter
 	private OpService ops;
 
-	/**
-	 * Holds the sum of the divergence and the image which should be smoothed.
-	 */
-	private RandomAccessibleInterval<T> sum;
-
 	/**
 	 * Divergence computer.
 	 */
 	@SuppressWarnings("rawtypes")
-	private UnaryFunctionOp<RandomAccessibleInterval[], RandomAccessibleInterval> divComputer;
+	private UnaryComputerOp<RandomAccessibleInterval[], RandomAccessibleInterval> divComputer;
 
 	/**
 	 * Mapped add computer.
@@ -107,9 +101,15 @@ public class TGVMinimizer3DDescent<T extends RealType<T>> extends
 			init(dualVariables);
 		}
 
-		mapperAdd.compute(divComputer.calculate(new RandomAccessibleInterval[] {
-			dualVariables.getDualVariable(0), dualVariables.getDualVariable(
-				1), dualVariables.getDualVariable(2) }), input.getRegularizerDV().getDualVariable(0),
+		// holds the sum of the divergence and the image which should be
+		// smoothed
+		final RandomAccessibleInterval<T> sum = input.getScratchPool().borrow(
+			ops, dualVariables.getDualVariable(0));
+
+		divComputer.compute(new RandomAccessibleInterval[] { dualVariables
+			.getDualVariable(0), dualVariables.getDualVariable(1), dualVariables
+				.getDualVariable(2) }, sum);
+		mapperAdd.compute(sum, input.getRegularizerDV().getDualVariable(0),
 			(IterableInterval<T>) sum);
 
 		mapperAdd.compute(input.getSubSolverState(0).getIntermediateResult(0),
@@ -117,9 +117,10 @@ public class TGVMinimizer3DDescent<T extends RealType<T>> extends
 			(IterableInterval<T>) input.getSubSolverState(0)
 				.getIntermediateResult(0));
 
-		mapperAdd.compute(divComputer.calculate(new RandomAccessibleInterval[] {
-			dualVariables.getDualVariable(1), dualVariables.getDualVariable(
-				3), dualVariables.getDualVariable(4) }), input.getRegularizerDV().getDualVariable(1),
+		divComputer.compute(new RandomAccessibleInterval[] { dualVariables
+			.getDualVariable(1), dualVariables.getDualVariable(3), dualVariables
+				.getDualVariable(4) }, sum);
+		mapperAdd.compute(sum, input.getRegularizerDV().getDualVariable(1),
 			(IterableInterval<T>) sum);
 
 		mapperAdd.compute(input.getSubSolverState(0).getIntermediateResult(1),
@@ -128,9 +129,10 @@ public class TGVMinimizer3DDescent<T extends RealType<T>> extends
 				.getIntermediateResult(1));
 		
 
-		mapperAdd.compute(divComputer.calculate(new RandomAccessibleInterval[] {
-			dualVariables.getDualVariable(2), dualVariables.getDualVariable(
-				4), dualVariables.getDualVariable(5) }), input.getRegularizerDV().getDualVariable(2),
+		divComputer.compute(new RandomAccessibleInterval[] { dualVariables
+			.getDualVariable(2), dualVariables.getDualVariable(4), dualVariables
+				.getDualVariable(5) }, sum);
+		mapperAdd.compute(sum, input.getRegularizerDV().getDualVariable(2),
 			(IterableInterval<T>) sum);
 
 		mapperAdd.compute(input.getSubSolverState(0).getIntermediateResult(2),
@@ -138,12 +140,13 @@ public class TGVMinimizer3DDescent<T extends RealType<T>> extends
 			(IterableInterval<T>) input.getSubSolverState(0)
 				.getIntermediateResult(2));
 
+		input.getScratchPool().release(sum);
 		return input;
 	}
 
 	@SuppressWarnings("unchecked")
 	private void init(final DualVariables<T> input) {
-		divComputer = Functions.unary(ops, DefaultDivergence3D.class,
+		divComputer = Computers.unary(ops, DefaultDivergence3D.class,
 			RandomAccessibleInterval.class, RandomAccessibleInterval[].class);
 		converter = new Converter<T, T>() {
 
@@ -156,8 +159,5 @@ public class TGVMinimizer3DDescent<T extends RealType<T>> extends
 			RandomAccessibleInterval.class, BinaryComputerOp.class);
 		mapperAdd.setOp(Computers.binary(ops, Ops.Math.Add.class, input
 			.getType(), input.getType(), input.getType()));
-
-		sum = (RandomAccessibleInterval<T>) ops.create().img(input
-			.getDualVariable(0));
 	}
 }
@@ -33,6 +33,7 @@ package net.imagej.ops.fopd.regularizer.tv;
 import net.imagej.ops.OpService;
 import net.imagej.ops.Ops;
 import net.imagej.ops.Ops.Map;
+import net.imagej.ops.fopd.BufferDeclaration;
 import net.imagej.ops.fopd.Descent;
 import net.imagej.ops.fopd.DualVariables;
 import net.imagej.ops.fopd.helper.DefaultDivergence2D;
@@ -40,9 +41,8 @@ import net.imagej.ops.fopd.solver.SolverState;
 import net.imagej.ops.map.MapBinaryComputers.RAIAndRAIToIIParallel;
 import net.imagej.ops.special.computer.BinaryComputerOp;
 import net.imagej.ops.special.computer.Computers;
+import net.imagej.ops.special.computer.UnaryComputerOp;
 import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
-import net.imagej.ops.special.function.Functions;
-import net.imagej.ops.special.function.UnaryFunctionOp;
 import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.converter.Converter;
@@ -62,7 +62,7 @@ import org.scijava.plugin.Plugin;
  */
 @Plugin(type = Descent.class)
 public abstract class AbstractTV2DDescent<T extends RealType<T>>
-		extends AbstractUnaryFunctionOp<SolverState<T>, SolverState<T>> implements Descent<T> {
+		extends AbstractUnaryFunctionOp<SolverState<T>, SolverState<T>> implements TVDescent<T>, BufferDeclaration {
 
 	@Parameter
 	private double stepSize;
@@ -70,7 +70,7 @@ public abstract class AbstractTV2DDescent<T extends RealType<T>>
 	@Parameter
 	private OpService ops;
 	@SuppressWarnings("rawtypes")
-	private UnaryFunctionOp<RandomAccessibleInterval[], RandomAccessibleInterval> divComputer;
+	private UnaryComputerOp<RandomAccessibleInterval[], RandomAccessibleInterval> divComputer;
 
 	private BinaryComputerOp<T, T, T> addComputer;
 
@@ -86,15 +86,18 @@ public abstract class AbstractTV2DDescent<T extends RealType<T>>
 			init(dualVariables);
 		}
 
-		mapper.compute(input.getIntermediateResult(0), Converters
-				.convert(divComputer.calculate(dualVariables.getAllDualVariables()), converter, input.getType()),
+		final RandomAccessibleInterval<T> divergence = input.getScratchPool().borrow(ops,
+				dualVariables.getDualVariable(0));
+		divComputer.compute(dualVariables.getAllDualVariables(), divergence);
+		mapper.compute(input.getIntermediateResult(0), Converters.convert(divergence, converter, input.getType()),
 				(IterableInterval<T>) input.getIntermediateResult(0));
+		input.getScratchPool().release(divergence);
 		return input;
 	}
 
 	@SuppressWarnings("unchecked")
 	private void init(final DualVariables<T> input) {
-		divComputer = Functions.unary(ops, DefaultDivergence2D.class, RandomAccessibleInterval.class,
+		divComputer = Computers.unary(ops, DefaultDivergence2D.class, RandomAccessibleInterval.class,
 				RandomAccessibleInterval[].class);
 		converter = new Converter<T, T>() {
 
@@ -108,4 +111,23 @@ public abstract class AbstractTV2DDescent<T extends RealType<T>>
 		mapper.setOp(addComputer);
 
 	}
+
+	public long getBufferBytes() {
+		return 0;
+	}
+
+	/**
+	 * The divergence.
+	 */
+	public int getNumScratchImages() {
+		return 1;
+	}
+
+	public double getStepSize() {
+		return stepSize;
+	}
+
+	public void scaleStepSize(final double factor) {
+		stepSize *= factor;
+	}
 }
@@ -31,6 +31,7 @@
 package net.imagej.ops.fopd.regularizer.tv;
 
 import net.imagej.ops.OpService;
+import net.imagej.ops.fopd.helper.Energies;
 import net.imagej.ops.fopd.regularizer.AbstractRegularizer;
 import net.imagej.ops.fopd.solver.SolverState;
 import net.imglib2.type.numeric.RealType;
@@ -47,9 +48,25 @@ import net.imglib2.type.numeric.RealType;
  */
 public class TotalVariation2D<T extends RealType<T>> extends AbstractRegularizer<T> {
 
+	private final double lambda;
+
 	@SuppressWarnings("unchecked")
 	public TotalVariation2D(final OpService ops, final double lambda, final double descentStepSize) {
+		this.lambda = lambda;
 		this.ascent = ops.op(TotalVariation2DAscent.class, SolverState.class, lambda);
 		this.descent = ops.op(TotalVariation2DDescent.class, SolverState.class, descentStepSize);
 	}
+
+	public double getPrimalEnergy(final SolverState<T> state) {
+		return Energies.gradientEnergy(state.getIntermediateResult(0), null,
+			lambda, 0);
+	}
+
+	/**
+	 * The conjugate is the indicator of |p| <= lambda, which holds after the
+	 * ascent.
+	 */
+	public double getConjugateEnergy(final SolverState<T> state) {
+		return 0;
+	}
 }
@@ -31,6 +31,7 @@
 package net.imagej.ops.fopd.regularizer.tvhuber;
 
 import net.imagej.ops.OpService;
+import net.imagej.ops.fopd.helper.Energies;
 import net.imagej.ops.fopd.regularizer.AbstractRegularizer;
 import net.imagej.ops.fopd.regularizer.tv.TotalVariation2DDescent;
 import net.imagej.ops.fopd.solver.SolverState;
@@ -46,13 +47,32 @@ import net.imglib2.type.numeric.RealType;
  */
 public class TVHuber2D<T extends RealType<T>> extends AbstractRegularizer<T> {
 
+	private final double lambda;
+
+	private final double alpha;
+
 	@SuppressWarnings("unchecked")
 	public TVHuber2D(final OpService ops, final double lambda,
 		final double alpha, final double descentStepSize)
 	{
+		this.lambda = lambda;
+		this.alpha = alpha;
 		this.ascent = ops.op(TVHuber2DAscent.class, SolverState.class, lambda,
 			alpha);
 		this.descent = ops.op(TotalVariation2DDescent.class, SolverState.class,
 			descentStepSize);
 	}
+
+	public double getPrimalEnergy(final SolverState<T> state) {
+		return Energies.gradientEnergy(state.getIntermediateResult(0), null,
+			lambda, alpha);
+	}
+
+	/**
+	 * alpha / 2 * |p|^2, since |p| <= lambda holds after the ascent.
+	 */
+	public double getConjugateEnergy(final SolverState<T> state) {
+		return alpha / 2 * Energies.squaredNorm(state.getRegularizerDV()
+			.getAllDualVariables());
+	}
 }
@@ -31,6 +31,7 @@
 package net.imagej.ops.fopd.regularizer.tvhuber;
 
 import net.imagej.ops.OpService;
+import net.imagej.ops.fopd.helper.Energies;
 import net.imagej.ops.fopd.regularizer.AbstractRegularizer;
 import net.imagej.ops.fopd.regularizer.tv.TotalVariation3DDescent;
 import net.imagej.ops.fopd.solver.SolverState;
@@ -45,9 +46,28 @@ import net.imglib2.type.numeric.RealType;
  */
 public class TVHuber3D<T extends RealType<T>> extends AbstractRegularizer<T> {
 
+	private final double lambda;
+
+	private final double alpha;
+
 	@SuppressWarnings("unchecked")
 	public TVHuber3D(final OpService ops, final double lambda, final double alpha, final double descentStepSize) {
+		this.lambda = lambda;
+		this.alpha = alpha;
 		this.ascent = ops.op(TVHuber3DAscent.class, SolverState.class, lambda, alpha);
 		this.descent = ops.op(TotalVariation3DDescent.class, SolverState.class, descentStepSize);
 	}
+
+	public double getPrimalEnergy(final SolverState<T> state) {
+		return Energies.gradientEnergy(state.getIntermediateResult(0), null,
+			lambda, alpha);
+	}
+
+	/**
+	 * alpha / 2 * |p|^2, since |p| <= lambda holds after the ascent.
+	 */
+	public double getConjugateEnergy(final SolverState<T> state) {
+		return alpha / 2 * Energies.squaredNorm(state.getRegularizerDV()
+			.getAllDualVariables());
+	}
 }
@@ -32,11 +32,16 @@ package net.imagej.ops.fopd.solver;
 
 import net.imagej.ops.OpService;
 import net.imagej.ops.fopd.DualVariables;
+import net.imagej.ops.fopd.helper.FlatArrays;
+import net.imagej.ops.fopd.helper.ScratchPool;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
 
 /**
- * Abstract implementation of {@link SolverState}.
+ * Abstract implementation of {@link SolverState}. Every energy declares how
+ * many results and dual variables it needs, the images are allocated on first
+ * access.
  * 
  * @author Tim-Oliver Buchholz, University of Konstanz
  *
@@ -50,29 +55,69 @@ public class AbstractSolverState<T extends RealType<T>> implements SolverState<T
 	protected RandomAccessibleInterval<T>[] results;
 	protected T type;
 	protected int numViews;
+	protected ScratchPool scratchPool = new ScratchPool();
 
-	@SuppressWarnings("unchecked")
+	private final OpService ops;
+	private final RandomAccessibleInterval<T> template;
+	private final long bytesPerImage;
+
+	/**
+	 * Declares numResults results and intermediate results, one regularizer
+	 * dual variable per result and dimension and one cost function dual
+	 * variable per view.
+	 */
 	public AbstractSolverState(final OpService ops, final RandomAccessibleInterval<T>[] images, final int numResults) {
-		this.regularizerDV = new DualVariables<T>(ops, images[0], numResults * images[0].numDimensions());
-		this.costFunctionDV = new DualVariables<T>(ops, images[0], images.length);
+		this(ops, images, numResults, numResults * images[0].numDimensions(), images.length);
+	}
+
+	/**
+	 * @param ops the OpService
+	 * @param images the templates of all images
+	 * @param numResults number of results and intermediate results
+	 * @param numRegularizerDV number of regularizer dual variables
+	 * @param numCostFunctionDV number of cost function dual variables
+	 */
+	@SuppressWarnings("unchecked")
+	public AbstractSolverState(final OpService ops, final RandomAccessibleInterval<T>[] images, final int numResults,
+			final int numRegularizerDV, final int numCostFunctionDV) {
+		this.ops = ops;
+		this.template = images[0];
+		this.regularizerDV = new DualVariables<T>(ops, images[0], numRegularizerDV);
+		this.costFunctionDV = new DualVariables<T>(ops, images[0], numCostFunctionDV);
 		this.numViews = images.length;
 
 		this.intermediateResults = new RandomAccessibleInterval[numResults];
 		this.results = new RandomAccessibleInterval[numResults];
 
-		for (int i = 0; i < numResults; i++) {
-			intermediateResults[i] = (RandomAccessibleInterval<T>) ops.create().img(images[0]);
-			results[i] = (RandomAccessibleInterval<T>) ops.create().img(images[0]);
+		this.type = images[0].randomAccess().get().createVariable();
+		this.bytesPerImage = Intervals.numElements(images[0]) * ((type.getBitsPerPixel() + 7) / 8);
+	}
+
+	/**
+	 * @return result i, allocated on first access
+	 */
+	protected synchronized RandomAccessibleInterval<T> result(final int i) {
+		if (results[i] == null) {
+			results[i] = FlatArrays.create(ops, template);
 		}
+		return results[i];
+	}
 
-		this.type = images[0].randomAccess().get().createVariable();
+	/**
+	 * @return intermediate result i, allocated on first access
+	 */
+	protected synchronized RandomAccessibleInterval<T> intermediateResult(final int i) {
+		if (intermediateResults[i] == null) {
+			intermediateResults[i] = FlatArrays.create(ops, template);
+		}
+		return intermediateResults[i];
 	}
 
 	public RandomAccessibleInterval<T> getResultImage(final int i) {
 		if (i >= results.length) {
 			throw new ArrayIndexOutOfBoundsException("This solver has only " + results.length + " results.");
 		}
-		return this.results[0];
+		return result(0);
 	}
 
 	public DualVariables<T> getRegularizerDV() {
@@ -92,7 +137,7 @@ public class AbstractSolverState<T extends RealType<T>> implements SolverState<T
 			throw new ArrayIndexOutOfBoundsException(
 					"This solver has only " + intermediateResults.length + " intermediate results.");
 		}
-		return this.intermediateResults[0];
+		return intermediateResult(0);
 	}
 
 	public SolverState<T> getSubSolverState(int i) {
@@ -111,4 +156,48 @@ public class AbstractSolverState<T extends RealType<T>> implements SolverState<T
 		return this.intermediateResults.length;
 	}
 
+	public ScratchPool getScratchPool() {
+		return this.scratchPool;
+	}
+
+	public void setScratchPool(final ScratchPool scratchPool) {
+		this.scratchPool = scratchPool;
+	}
+
+	public synchronized Footprint getFootprint() {
+		long allocated = regularizerDV.getNumAllocated() + costFunctionDV.getNumAllocated();
+		for (int i = 0; i < results.length; i++) {
+			allocated += results[i] == null ? 0 : 1;
+			allocated += intermediateResults[i] == null ? 0 : 1;
+		}
+		final long declared = regularizerDV.getNumDualVariables() + costFunctionDV.getNumDualVariables()
+				+ results.length + intermediateResults.length;
+		return new Footprint(declared, allocated, bytesPerImage);
+	}
+
+	/**
+	 * Images which were not allocated yet are zero once they are accessed, only
+	 * the allocated ones are cleared.
+	 */
+	public synchronized void reset() {
+		reset(regularizerDV);
+		reset(costFunctionDV);
+		for (int i = 0; i < results.length; i++) {
+			if (intermediateResults[i] != null) {
+				FlatArrays.setZero(intermediateResults[i]);
+			}
+			if (results[i] != null) {
+				FlatArrays.setZero(results[i]);
+			}
+		}
+	}
+
+	private void reset(final DualVariables<T> dualVariables) {
+		for (int i = 0; i < dualVariables.getNumDualVariables(); i++) {
+			if (dualVariables.isAllocated(i)) {
+				FlatArrays.setZero(dualVariables.getDualVariable(i));
+			}
+		}
+	}
+
 }
@@ -0,0 +1,128 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.solver;
+
+import net.imagej.ops.fopd.ScalableStepSize;
+import net.imagej.ops.fopd.costfunction.AbstractAscent;
+import net.imagej.ops.fopd.costfunction.CostFunction;
+import net.imagej.ops.fopd.costfunction.squaredl2norm.SquaredL2Norm;
+import net.imagej.ops.fopd.operator.Identity;
+import net.imagej.ops.fopd.regularizer.Regularizer;
+import net.imagej.ops.fopd.regularizer.tv.TVDescent;
+import net.imglib2.type.numeric.RealType;
+
+import org.scijava.plugin.Plugin;
+
+/**
+ * Accelerated variant of the {@link DefaultSolver} for uniformly convex data
+ * terms: Algorithm 2 proposed by Chambolle, Antonin, and Thomas Pock.
+ * "A first-order primal-dual algorithm for convex problems with applications to imaging."
+ * Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * 
+ * The {@link SquaredL2Norm} with {@link Identity} operators is uniformly
+ * convex in u with gamma = number of views. It is handled by its proximal map
+ * in the primal step (see {@link SquaredL2PrimalUpdate}) and the step-sizes
+ * are updated after every iteration: theta = 1 / sqrt(1 + 2 * gamma * tau),
+ * tau = theta * tau and sigma = sigma / theta. The cost function ascent is not
+ * used. This reduces the convergence rate from O(1/N) to O(1/N^2).
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ * @param <T>
+ */
+@Plugin(type = Solver.class)
+public class AcceleratedSolver<T extends RealType<T>> extends DefaultSolver<T> {
+
+	/**
+	 * Primal update with the proximal map of the data term.
+	 */
+	private SquaredL2PrimalUpdate<T> primalUpdate;
+
+	@Override
+	protected double iterate(final SolverState<T> input) {
+		if (primalUpdate == null) {
+			init(input);
+		}
+
+		final ScalableStepSize dualStep = (ScalableStepSize) regularizer
+			.getAscent();
+		final ScalableStepSize primalStep = (ScalableStepSize) regularizer
+			.getDescent();
+
+		regularizer.getAscent().calculate(input);
+
+		final double theta = 1 / Math.sqrt(1 + 2 * input.getNumViews() *
+			primalStep.getStepSize());
+		primalUpdate.setTheta(theta);
+		primalUpdate.calculate(input);
+
+		primalStep.scaleStepSize(theta);
+		dualStep.scaleStepSize(1 / theta);
+
+		return primalUpdate.getRelativeChange();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void init(final SolverState<T> input) {
+		if (!supports(regularizer, costfunction, input.getNumViews())) {
+			throw new IllegalArgumentException(
+				"Acceleration needs a SquaredL2Norm with identity operators.");
+		}
+		primalUpdate = ops.op(SquaredL2PrimalUpdate.class, SolverState.class,
+			regularizer.getDescent(), costfunction.getAscent());
+	}
+
+	/**
+	 * @param regularizer of the problem
+	 * @param costFunction of the problem
+	 * @param numViews number of views
+	 * @return true, if the problem has a uniformly convex data term, which can
+	 *         be handled by the {@link AcceleratedSolver}
+	 */
+	public static <T extends RealType<T>> boolean supports(
+		final Regularizer<T> regularizer, final CostFunction<T> costFunction,
+		final int numViews)
+	{
+		if (!(costFunction instanceof SquaredL2Norm) || !(regularizer
+			.getDescent() instanceof TVDescent) || !(regularizer
+				.getAscent() instanceof ScalableStepSize))
+		{
+			return false;
+		}
+		final AbstractAscent<T> ascent = (AbstractAscent<T>) costFunction
+			.getAscent();
+		for (int i = 0; i < numViews; i++) {
+			if (!(ascent.getOperator(i) instanceof Identity)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,383 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.solver;
+
+import net.imagej.ops.fopd.ScalableStepSize;
+import net.imagej.ops.fopd.costfunction.AbstractAscent;
+import net.imagej.ops.fopd.costfunction.CostFunction;
+import net.imagej.ops.fopd.regularizer.Regularizer;
+import net.imagej.ops.fopd.regularizer.tv.TVDescent;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+import org.scijava.plugin.Plugin;
+
+/**
+ * Variant of the {@link DefaultSolver} with adaptive step-sizes as proposed
+ * by: Goldstein, Tom, Min Li, and Xiaoming Yuan.
+ * "Adaptive primal-dual splitting methods for statistical learning and image processing."
+ * Advances in Neural Information Processing Systems (2015): 2089-2097.
+ * 
+ * After every iteration the primal residual |u_old - u| / tau and the dual
+ * residual |(y_old - y) / sigma + K(uBar_old - u)| are compared. If one of
+ * them is larger by more than the factor DELTA, the step-sizes of all
+ * {@link ScalableStepSize} ascents and descents are shifted towards it while
+ * their product is kept. The adaptivity alpha decays by ETA with every shift,
+ * which ensures convergence. If the step-sizes violate the backtracking
+ * condition, they are reduced for the next iteration. K consists of the
+ * forward differences of the regularizer and the {@link AbstractAscent}
+ * operators of the cost function, hence only TV regularizers are supported
+ * (see {@link #supports(Regularizer, CostFunction)}).
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ * @param <T>
+ */
+@Plugin(type = Solver.class)
+public class AdaptiveSolver<T extends RealType<T>> extends DefaultSolver<T> {
+
+	/**
+	 * Initial adaptivity.
+	 */
+	private static final double ALPHA = 0.5;
+
+	/**
+	 * Decay of the adaptivity.
+	 */
+	private static final double ETA = 0.95;
+
+	/**
+	 * Tolerated ratio between the residuals.
+	 */
+	private static final double DELTA = 1.5;
+
+	/**
+	 * Backtracking parameter.
+	 */
+	private static final double GAMMA = 0.75;
+
+	/**
+	 * Shrinkage of the step-sizes, if backtracking is needed.
+	 */
+	private static final double BETA = 0.95;
+
+	private double alpha = ALPHA;
+
+	private RandomAccessibleInterval<T> uOld;
+
+	private RandomAccessibleInterval<T> uBarOld;
+
+	private RandomAccessibleInterval<T>[] pOld;
+
+	private RandomAccessibleInterval<T>[] qOld;
+
+	/**
+	 * K(uBar_old - u) of every view. The operators return their own buffer,
+	 * which is overwritten by the next call, hence the copies.
+	 */
+	private RandomAccessibleInterval<T>[] kw;
+
+	private ScalableStepSize[] primalSteps;
+
+	private ScalableStepSize[] dualSteps;
+
+	@Override
+	public void reset() {
+		alpha = ALPHA;
+	}
+
+	/**
+	 * The previous variables are copied by an ops computer.
+	 */
+	@Override
+	public boolean isFused() {
+		return false;
+	}
+
+	/**
+	 * In addition the previous primal and dual variables and K(w) of every
+	 * view.
+	 */
+	@Override
+	public long getBufferBytes() {
+		final SolverState<T> state = in();
+		return super.getBufferBytes() + (2 + state.getRegularizerDV()
+			.getNumDualVariables() + 2 * state.getCostFunctionDV()
+				.getNumDualVariables()) * MemoryEstimator.getImageBytes(state);
+	}
+
+	@Override
+	protected double iterate(final SolverState<T> input) {
+		if (uOld == null) {
+			init(input);
+		}
+
+		final RandomAccessibleInterval<T>[] p = input.getRegularizerDV()
+			.getAllDualVariables();
+		final RandomAccessibleInterval<T>[] q = input.getCostFunctionDV()
+			.getAllDualVariables();
+
+		copyComputer.compute(input.getIntermediateResult(0), uOld);
+		copyComputer.compute(input.getResultImage(0), uBarOld);
+		for (int d = 0; d < p.length; d++) {
+			copyComputer.compute(p[d], pOld[d]);
+		}
+		for (int i = 0; i < q.length; i++) {
+			copyComputer.compute(q[i], qOld[i]);
+		}
+
+		final double relativeChange = super.iterate(input);
+
+		adapt(input, p, q);
+
+		return relativeChange;
+	}
+
+	/**
+	 * Compute the residuals and adapt the step-sizes.
+	 * 
+	 * @param input the state after the iteration
+	 * @param p the regularizer dual variables
+	 * @param q the cost function dual variables
+	 */
+	private void adapt(final SolverState<T> input,
+		final RandomAccessibleInterval<T>[] p,
+		final RandomAccessibleInterval<T>[] q)
+	{
+		final double tau = primalSteps[0].getStepSize();
+		final double sigmaR = dualSteps[0].getStepSize();
+		final double sigmaC = dualSteps[1].getStepSize();
+
+		// uOld = u - u_old and uBarOld = uBar_old - u
+		double primalResidual = 0;
+		double primalNorm = 0;
+		final Cursor<T> cu = Views.flatIterable(input.getIntermediateResult(0))
+			.cursor();
+		final Cursor<T> cOld = Views.flatIterable(uOld).cursor();
+		final Cursor<T> cBarOld = Views.flatIterable(uBarOld).cursor();
+		while (cu.hasNext()) {
+			final double u = cu.next().getRealDouble();
+			final T old = cOld.next();
+			final T barOld = cBarOld.next();
+			final double du = u - old.getRealDouble();
+			old.setReal(du);
+			barOld.setReal(barOld.getRealDouble() - u);
+			primalResidual += Math.abs(du);
+			primalNorm += du * du;
+		}
+		primalResidual /= tau;
+
+		// pOld = p - p_old and qOld = q - q_old
+		final double dualNormR = difference(p, pOld);
+		final double dualNormC = difference(q, qOld);
+
+		final AbstractAscent<T> ascent = (AbstractAscent<T>) costfunction
+			.getAscent();
+		@SuppressWarnings("unchecked")
+		final RandomAccessibleInterval<T>[] kdu = new RandomAccessibleInterval[q.length];
+		for (int i = 0; i < q.length; i++) {
+			copyComputer.compute(ascent.getOperator(i).calculate(uBarOld), kw[i]);
+			kdu[i] = ascent.getOperator(i).calculate(uOld);
+		}
+
+		final double[] sums = dualResidual(sigmaR, sigmaC, kw, kdu);
+		final double dualResidual = sums[0];
+		final double innerProduct = sums[1];
+
+		final double denominator = GAMMA * (primalNorm / tau + dualNormR / sigmaR +
+			dualNormC / sigmaC);
+		final double b = denominator > 0 ? 2 * innerProduct / denominator : 0;
+
+		if (b > 1) {
+			scale(primalSteps, BETA / b);
+			scale(dualSteps, BETA / b);
+		}
+		else if (primalResidual > DELTA * dualResidual) {
+			scale(primalSteps, 1 / (1 - alpha));
+			scale(dualSteps, 1 - alpha);
+			alpha *= ETA;
+		}
+		else if (primalResidual < dualResidual / DELTA) {
+			scale(primalSteps, 1 - alpha);
+			scale(dualSteps, 1 / (1 - alpha));
+			alpha *= ETA;
+		}
+	}
+
+	/**
+	 * Sum of |(p_old - p) / sigmaR + fd(w)| and |(q_old - q) / sigmaC + K(w)|,
+	 * where w = uBar_old - u, and the inner product of K(u - u_old) and y -
+	 * y_old.
+	 */
+	private double[] dualResidual(final double sigmaR, final double sigmaC,
+		final RandomAccessibleInterval<T>[] kw,
+		final RandomAccessibleInterval<T>[] kdu)
+	{
+		final int n = uOld.numDimensions();
+		final long[] max = new long[n];
+		uOld.max(max);
+
+		final Cursor<T> c = Views.flatIterable(uOld).localizingCursor();
+		final RandomAccess<T> du = uOld.randomAccess();
+		final RandomAccess<T> w = uBarOld.randomAccess();
+		final RandomAccess<T>[] dp = randomAccesses(pOld);
+		final RandomAccess<T>[] dq = randomAccesses(qOld);
+		final RandomAccess<T>[] kwRA = randomAccesses(kw);
+		final RandomAccess<T>[] kduRA = randomAccesses(kdu);
+
+		double residual = 0;
+		double innerProduct = 0;
+		while (c.hasNext()) {
+			c.fwd();
+			du.setPosition(c);
+			w.setPosition(c);
+			final double duCenter = du.get().getRealDouble();
+			final double wCenter = w.get().getRealDouble();
+			for (int d = 0; d < n; d++) {
+				double gradientDu = 0;
+				double gradientW = 0;
+				if (c.getLongPosition(d) < max[d]) {
+					du.fwd(d);
+					w.fwd(d);
+					gradientDu = du.get().getRealDouble() - duCenter;
+					gradientW = w.get().getRealDouble() - wCenter;
+					du.bck(d);
+					w.bck(d);
+				}
+				dp[d].setPosition(c);
+				final double change = dp[d].get().getRealDouble();
+				residual += Math.abs(gradientW - change / sigmaR);
+				innerProduct += gradientDu * change;
+			}
+			for (int i = 0; i < dq.length; i++) {
+				dq[i].setPosition(c);
+				kwRA[i].setPosition(c);
+				kduRA[i].setPosition(c);
+				final double change = dq[i].get().getRealDouble();
+				residual += Math.abs(kwRA[i].get().getRealDouble() - change /
+					sigmaC);
+				innerProduct += kduRA[i].get().getRealDouble() * change;
+			}
+		}
+		return new double[] { residual, innerProduct };
+	}
+
+	/**
+	 * Stores current - old in old.
+	 * 
+	 * @return sum of (current - old)^2
+	 */
+	private double difference(final RandomAccessibleInterval<T>[] current,
+		final RandomAccessibleInterval<T>[] old)
+	{
+		double squaredNorm = 0;
+		for (int i = 0; i < current.length; i++) {
+			final Cursor<T> cc = Views.flatIterable(current[i]).cursor();
+			final Cursor<T> co = Views.flatIterable(old[i]).cursor();
+			while (cc.hasNext()) {
+				final T o = co.next();
+				final double change = cc.next().getRealDouble() - o.getRealDouble();
+				o.setReal(change);
+				squaredNorm += change * change;
+			}
+		}
+		return squaredNorm;
+	}
+
+	private void scale(final ScalableStepSize[] steps, final double factor) {
+		for (final ScalableStepSize step : steps) {
+			step.scaleStepSize(factor);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void init(final SolverState<T> input) {
+		if (!supports(regularizer, costfunction)) {
+			throw new IllegalArgumentException(
+				"Adaptive step-sizes need a TV regularizer and scalable ascents and descents.");
+		}
+		primalSteps = new ScalableStepSize[] { (ScalableStepSize) regularizer
+			.getDescent(), (ScalableStepSize) costfunction.getDescent() };
+		dualSteps = new ScalableStepSize[] { (ScalableStepSize) regularizer
+			.getAscent(), (ScalableStepSize) costfunction.getAscent() };
+
+		uOld = (RandomAccessibleInterval<T>) ops.create().img(input
+			.getIntermediateResult(0));
+		uBarOld = (RandomAccessibleInterval<T>) ops.create().img(input
+			.getResultImage(0));
+		pOld = create(input.getRegularizerDV().getAllDualVariables());
+		qOld = create(input.getCostFunctionDV().getAllDualVariables());
+		kw = create(qOld);
+	}
+
+	/**
+	 * The residuals model K as the forward differences of u and the operators
+	 * of the cost function. The TGV regularizer additionally couples u with
+	 * the vector field v of an inner solver and is therefore not supported.
+	 * 
+	 * @param regularizer of the problem
+	 * @param costFunction of the problem
+	 * @return true, if the problem can be handled by the {@link AdaptiveSolver}
+	 */
+	public static <T extends RealType<T>> boolean supports(
+		final Regularizer<T> regularizer, final CostFunction<T> costFunction)
+	{
+		return regularizer.getDescent() instanceof TVDescent && regularizer
+			.getAscent() instanceof ScalableStepSize && costFunction
+				.getAscent() instanceof AbstractAscent && costFunction
+					.getDescent() instanceof ScalableStepSize;
+	}
+
+	@SuppressWarnings("unchecked")
+	private RandomAccessibleInterval<T>[] create(
+		final RandomAccessibleInterval<T>[] imgs)
+	{
+		final RandomAccessibleInterval<T>[] copies =
+			new RandomAccessibleInterval[imgs.length];
+		for (int i = 0; i < imgs.length; i++) {
+			copies[i] = (RandomAccessibleInterval<T>) ops.create().img(imgs[i]);
+		}
+		return copies;
+	}
+
+	@SuppressWarnings("unchecked")
+	private RandomAccess<T>[] randomAccesses(
+		final RandomAccessibleInterval<T>[] imgs)
+	{
+		final RandomAccess<T>[] ras = new RandomAccess[imgs.length];
+		for (int i = 0; i < imgs.length; i++) {
+			ras[i] = imgs[i].randomAccess();
+		}
+		return ras;
+	}
+}
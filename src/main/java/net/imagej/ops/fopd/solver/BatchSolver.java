@@ -0,0 +1,288 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.imagej.ops.fopd.helper.TiledExecutor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+
+import org.scijava.thread.ThreadService;
+
+/**
+ * Solves a list of problems with the same energy and parameters.
+ * 
+ * At most numWorkers problems are solved at the same time. Every worker
+ * holds one {@link PreparedSolver}, which is reused as long as the next
+ * images have the same size, and takes the next unsolved problem until all
+ * are done. Memory use is bounded by numWorkers solver states.
+ * 
+ * If several workers are used, each of them solves its problem on its own
+ * thread (see {@link TiledExecutor#setSequential(boolean)}), since forking
+ * every step costs more than it gains on small images. Only fused energies
+ * run all steps on the {@link TiledExecutor} (see
+ * {@link DefaultSolver#isFused()}), the other steps still fork inside
+ * imagej-ops and oversubscribe the cores if several workers are used. With
+ * {@link #AUTOMATIC} workers, images of up to {@link #MAX_SEQUENTIAL_PIXELS}
+ * pixels of a fused energy are solved by one worker per core. Larger images
+ * and energies which are not fused are solved one after the other, each
+ * with all cores.
+ * 
+ * With a memory budget, a worker only prepares a solver once the predicted
+ * peak bytes of the problem (see {@link SolverPreparer#estimatePeakBytes})
+ * fit next to the solvers of the other workers. It keeps the bytes as long
+ * as it holds the solver. The estimate follows the precision and chunking of
+ * the settings of the energy, while the prepared solvers solve in memory and
+ * in the type of the images, hence both should keep their defaults.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ * @param <T>
+ */
+public class BatchSolver<T extends RealType<T>> {
+
+	/**
+	 * Choose the number of workers by the size of the images and whether the
+	 * energy is fused.
+	 */
+	public static final int AUTOMATIC = 0;
+
+	/**
+	 * Images up to this size are solved single-threaded in
+	 * {@link #AUTOMATIC} mode.
+	 */
+	public static final long MAX_SEQUENTIAL_PIXELS = 512 * 512;
+
+	/**
+	 * No memory budget, only the number of workers limits the memory use.
+	 */
+	public static final long NO_BUDGET = 0;
+
+	private final ThreadService ts;
+
+	private final SolverPreparer<T> preparer;
+
+	private final int numWorkers;
+
+	private final long memoryBudget;
+
+	/**
+	 * @param ts the ThreadService
+	 * @param preparer the energy, e.g. an op matched with
+	 *          {@link net.imagej.ops.OpService#op}
+	 */
+	public BatchSolver(final ThreadService ts,
+		final SolverPreparer<T> preparer)
+	{
+		this(ts, preparer, AUTOMATIC);
+	}
+
+	/**
+	 * @param ts the ThreadService
+	 * @param preparer the energy, e.g. an op matched with
+	 *          {@link net.imagej.ops.OpService#op}
+	 * @param numWorkers maximum number of problems which are solved at the same
+	 *          time or {@link #AUTOMATIC}
+	 */
+	public BatchSolver(final ThreadService ts, final SolverPreparer<T> preparer,
+		final int numWorkers)
+	{
+		this(ts, preparer, numWorkers, NO_BUDGET);
+	}
+
+	/**
+	 * @param ts the ThreadService
+	 * @param preparer the energy, e.g. an op matched with
+	 *          {@link net.imagej.ops.OpService#op}
+	 * @param numWorkers maximum number of problems which are solved at the same
+	 *          time or {@link #AUTOMATIC}
+	 * @param memoryBudget bytes the solvers of all workers may use together or
+	 *          {@link #NO_BUDGET}
+	 */
+	public BatchSolver(final ThreadService ts, final SolverPreparer<T> preparer,
+		final int numWorkers, final long memoryBudget)
+	{
+		if (numWorkers < 0) {
+			throw new IllegalArgumentException(
+				"Number of workers must not be negative.");
+		}
+		if (memoryBudget < 0) {
+			throw new IllegalArgumentException(
+				"Memory budget must not be negative.");
+		}
+		this.ts = ts;
+		this.preparer = preparer;
+		this.numWorkers = numWorkers;
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * @param problems one image per view for each problem
+	 * @return the results in the order of problems
+	 */
+	@SuppressWarnings("unchecked")
+	public List<RandomAccessibleInterval<T>> solve(
+		final List<RandomAccessibleInterval<T>[]> problems)
+	{
+		final Object[] results = new Object[problems.size()];
+		final AtomicReference<PreparedSolver<T>> first =
+			new AtomicReference<PreparedSolver<T>>();
+		final int workers = Math.min(getNumWorkers(problems, first),
+			results.length);
+		final AtomicInteger next = new AtomicInteger();
+		final MemoryBudget budget = memoryBudget == NO_BUDGET ? null
+			: new MemoryBudget(memoryBudget);
+		final Runnable worker = new Runnable() {
+
+			public void run() {
+				final boolean wasSequential = TiledExecutor.setSequential(
+					workers > 1 || TiledExecutor.isSequential());
+				long reserved = 0;
+				try {
+					// NB: The solver prepared to choose the number of workers is reused.
+					PreparedSolver<T> solver = first.getAndSet(null);
+					if (solver != null && budget != null) {
+						final long bytes = estimatePeakBytes(solver.getObservedImages());
+						budget.acquire(bytes);
+						reserved = bytes;
+					}
+					for (int i = next.getAndIncrement(); i < results.length; i = next
+						.getAndIncrement())
+					{
+						final RandomAccessibleInterval<T>[] images = problems.get(i);
+						if (solver == null || !solver.fits(images)) {
+							if (budget != null) {
+								// NB: Release before acquiring, a waiting worker holds nothing.
+								solver = null;
+								budget.release(reserved);
+								reserved = 0;
+								final long bytes = estimatePeakBytes(images);
+								budget.acquire(bytes);
+								reserved = bytes;
+							}
+							solver = prepare(images);
+						}
+						results[i] = solver.solve(images);
+					}
+				}
+				finally {
+					if (budget != null) {
+						budget.release(reserved);
+					}
+					TiledExecutor.setSequential(wasSequential);
+				}
+			}
+		};
+
+		if (workers <= 1) {
+			worker.run();
+			return (List<RandomAccessibleInterval<T>>) (List<?>) Arrays.asList(
+				results);
+		}
+
+		final ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int w = 0; w < workers; w++) {
+			futures.add(ts.run(worker));
+		}
+
+		for (final Future<?> future : futures) {
+			try {
+				future.get();
+			}
+			catch (final InterruptedException exc) {
+				throw new RuntimeException(exc);
+			}
+			catch (final ExecutionException exc) {
+				throw new RuntimeException(exc);
+			}
+		}
+		return (List<RandomAccessibleInterval<T>>) (List<?>) Arrays.asList(
+			results);
+	}
+
+	/**
+	 * @param problems the problems
+	 * @param first is set to the solver of the first problem, if one is
+	 *          prepared to check whether the energy is fused
+	 * @return the number of workers for problems
+	 */
+	private int getNumWorkers(final List<RandomAccessibleInterval<T>[]> problems,
+		final AtomicReference<PreparedSolver<T>> first)
+	{
+		if (numWorkers != AUTOMATIC) {
+			return numWorkers;
+		}
+		for (final RandomAccessibleInterval<T>[] images : problems) {
+			if (Intervals.numElements(images[0]) > MAX_SEQUENTIAL_PIXELS) {
+				return 1;
+			}
+		}
+		if (problems.isEmpty()) {
+			return 1;
+		}
+		// NB: The state of the solver is allocated lazily, preparing it only
+		// copies the observed images. The solver is kept for the first worker.
+		first.set(prepare(problems.get(0)));
+		if (!first.get().getSolver().isFused()) {
+			return 1;
+		}
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * The preparer is an op with mutable fields, hence the workers prepare one
+	 * after the other.
+	 */
+	private PreparedSolver<T> prepare(
+		final RandomAccessibleInterval<T>[] images)
+	{
+		synchronized (preparer) {
+			return preparer.prepare(images);
+		}
+	}
+
+	/**
+	 * The estimate builds a solver, hence it takes the same lock as
+	 * {@link #prepare(RandomAccessibleInterval[])}.
+	 */
+	private long estimatePeakBytes(final RandomAccessibleInterval<T>[] images) {
+		synchronized (preparer) {
+			return preparer.estimatePeakBytes(images);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.solver;
+
+import net.imagej.ops.fopd.operator.FastConvolver;
+import net.imagej.ops.fopd.operator.SpatialConvolver;
+import net.imagej.ops.fopd.operator.SpectralConvolver;
+
+/**
+ * Implementation of the convolutions of the deconvolution problems.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public enum Convolution {
+
+	/**
+	 * One {@link FastConvolver} for the kernel and one for the flipped kernel.
+	 * Reproduces the results of earlier versions.
+	 */
+	FFT,
+
+	/**
+	 * One {@link SpectralConvolver} per view. The kernel is transformed once
+	 * and its spectrum gives the adjoint as well, the input is transformed
+	 * into preallocated buffers. The results differ from {@link #FFT} by
+	 * rounding.
+	 */
+	SPECTRAL,
+
+	/**
+	 * One {@link SpatialConvolver} per view, which sums over the kernel
+	 * directly, line by line if the kernel is separable.
+	 */
+	SPATIAL,
+
+	/**
+	 * {@link #SPATIAL} if it is estimated to be cheaper for the size of the
+	 * kernel (see {@link SpatialConvolver#isCheaper}), else {@link #SPECTRAL}.
+	 */
+	AUTOMATIC;
+}
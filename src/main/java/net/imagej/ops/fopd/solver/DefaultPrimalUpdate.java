@@ -0,0 +1,374 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.solver;
+
+import java.util.List;
+
+import net.imagej.ops.fopd.costfunction.AbstractCostFunctionDescent;
+import net.imagej.ops.fopd.helper.Energies;
+import net.imagej.ops.fopd.helper.FlatArrays;
+import net.imagej.ops.fopd.helper.TileTask;
+import net.imagej.ops.fopd.helper.TiledExecutor;
+import net.imagej.ops.fopd.regularizer.tv.TVDescent;
+import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Implementation of {@link PrimalUpdate} for a {@link TVDescent} regularizer
+ * and an {@link AbstractCostFunctionDescent}.
+ * 
+ * For every pixel x: u(x) = u_old(x) + tau_r * div(p)(x) - tau_c * sum_i
+ * K_i^T(q_i)(x) and uBar(x) = clip01(2 * u(x) - u_old(x)). The divergence is
+ * computed on the fly from backward differences with zero boundary. Only the
+ * adjoint operators K_i^T are applied beforehand, concurrently for the views
+ * or summed in the frequency domain (see
+ * {@link AbstractCostFunctionDescent#applyOperators(SolverState)}). If all
+ * images are {@link FlatArrays}, the backing arrays are accessed directly.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ * @param <T>
+ */
+@Plugin(type = PrimalUpdate.class)
+public class DefaultPrimalUpdate<T extends RealType<T>> extends
+	AbstractUnaryFunctionOp<SolverState<T>, SolverState<T>> implements
+	PrimalUpdate<T>
+{
+
+	@Parameter
+	private TVDescent<T> regularizerDescent;
+
+	@Parameter
+	private AbstractCostFunctionDescent<T> costFunctionDescent;
+
+	@Parameter
+	private ThreadService ts;
+
+	private double relativeChange;
+
+	public SolverState<T> calculate(final SolverState<T> input) {
+		final RandomAccessibleInterval<T>[] adjoints = costFunctionDescent
+			.applyOperators(input);
+
+		final RandomAccessibleInterval<T>[] p = input.getRegularizerDV()
+			.getAllDualVariables();
+		final RandomAccessibleInterval<T> u = input.getIntermediateResult(0);
+		final RandomAccessibleInterval<T> uBar = input.getResultImage(0);
+
+		final int n = u.numDimensions();
+		final long[] min = new long[n];
+		u.min(min);
+
+		final boolean doubles = FlatArrays.isDoubles(u, uBar) && FlatArrays
+			.isDoubles(p) && FlatArrays.isDoubles(adjoints);
+		final boolean floats = !doubles && FlatArrays.isFloats(u, uBar) &&
+			FlatArrays.isFloats(p) && FlatArrays.isFloats(adjoints);
+		final long[] dims = Intervals.dimensionsAsLongArray(u);
+		final int[] strides = FlatArrays.strides(u);
+
+		final int numImages = n + 2 + adjoints.length;
+		final List<double[]> sums = TiledExecutor.run(ts, u, numImages,
+			new TileTask<double[]>()
+		{
+
+			public double[] run(final Interval tile) {
+				if (doubles) {
+					return update(FlatArrays.doubles(p), FlatArrays.doubles(adjoints),
+						FlatArrays.doubles(u), FlatArrays.doubles(uBar), dims, strides,
+						tile);
+				}
+				else if (floats) {
+					return update(FlatArrays.floats(p), FlatArrays.floats(adjoints),
+						FlatArrays.floats(u), FlatArrays.floats(uBar), dims, strides,
+						tile);
+				}
+				return update(p, adjoints, u, uBar, tile, min);
+			}
+		});
+
+		double squaredChange = 0;
+		double squaredNorm = 0;
+		for (final double[] sum : sums) {
+			squaredChange += sum[0];
+			squaredNorm += sum[1];
+		}
+
+		relativeChange = Energies.relativeChange(squaredChange, squaredNorm);
+
+		return input;
+	}
+
+	public double getRelativeChange() {
+		return relativeChange;
+	}
+
+	/**
+	 * Update u and uBar inside of tile.
+	 * 
+	 * @param p the regularizer dual variables, one per dimension
+	 * @param adjoints the adjoint operators applied to the cost function dual
+	 *          variables, one per view
+	 * @param u the intermediate result
+	 * @param uBar the over-relaxed result
+	 * @param tile the part of the image which is processed
+	 * @param uMin the min of u, where the backward difference is p itself
+	 * @return sum of (u - u_old)^2 and sum of u^2 inside of tile
+	 */
+	private double[] update(final RandomAccessibleInterval<T>[] p,
+		final RandomAccessibleInterval<T>[] adjoints,
+		final RandomAccessibleInterval<T> u, final RandomAccessibleInterval<T> uBar,
+		final Interval tile, final long[] uMin)
+	{
+		final int n = tile.numDimensions();
+		final double regularizerStepSize = regularizerDescent.getStepSize();
+		final double costFunctionStepSize = costFunctionDescent.getStepSize();
+
+		final long[] min = new long[n];
+		tile.min(min);
+		final long[] max = new long[n];
+		tile.max(max);
+		final long[] shiftback = new long[n];
+		for (int d = 0; d < n; ++d)
+			shiftback[d] = min[d] - max[d];
+
+		@SuppressWarnings("unchecked")
+		final RandomAccess<T>[] accesses = new RandomAccess[2 + n +
+			adjoints.length];
+		accesses[0] = u.randomAccess();
+		accesses[1] = uBar.randomAccess();
+		for (int d = 0; d < n; ++d) {
+			accesses[2 + d] = p[d].randomAccess();
+		}
+		for (int i = 0; i < adjoints.length; i++) {
+			accesses[2 + n + i] = adjoints[i].randomAccess();
+		}
+		for (final RandomAccess<T> access : accesses) {
+			access.setPosition(min);
+		}
+		final RandomAccess<T> current = accesses[0];
+		final RandomAccess<T> relaxed = accesses[1];
+
+		double squaredChange = 0;
+		double squaredNorm = 0;
+		final long max0 = max[0];
+		while (true) {
+			// process pixel
+			final T t = current.get();
+			final double old = t.getRealDouble();
+
+			double divergence = 0;
+			for (int d = 0; d < n; ++d) {
+				final RandomAccess<T> dual = accesses[2 + d];
+				final double center = dual.get().getRealDouble();
+				double back = 0;
+				if (dual.getLongPosition(d) > uMin[d]) {
+					dual.bck(d);
+					back = dual.get().getRealDouble();
+					dual.fwd(d);
+				}
+				divergence += center - back;
+			}
+
+			double value = old + divergence * regularizerStepSize;
+			for (int i = 2 + n; i < accesses.length; i++) {
+				value = value - accesses[i].get().getRealDouble() *
+					costFunctionStepSize;
+			}
+			t.setReal(value);
+			squaredChange += (value - old) * (value - old);
+			squaredNorm += value * value;
+
+			double extrapolated = value * 2.0 - old;
+			if (extrapolated < 0) {
+				extrapolated = 0;
+			}
+			else if (extrapolated > 1) {
+				extrapolated = 1;
+			}
+			relaxed.get().setReal(extrapolated);
+
+			// move to next pixel
+			// check dimension 0 separately to avoid the loop over d in most
+			// iterations
+			if (current.getLongPosition(0) == max0) {
+				if (n == 1) return new double[] { squaredChange, squaredNorm };
+				move(accesses, shiftback[0], 0);
+				// now check the remaining dimensions
+				for (int d = 1; d < n; ++d)
+					if (current.getLongPosition(d) == max[d]) {
+						move(accesses, shiftback[d], d);
+						if (d == n - 1) return new double[] { squaredChange,
+							squaredNorm };
+					}
+					else {
+						move(accesses, 1, d);
+						break;
+					}
+			}
+			else {
+				move(accesses, 1, 0);
+			}
+		}
+	}
+
+	/**
+	 * Update u and uBar inside of tile on flat double arrays.
+	 * 
+	 * @param p the regularizer dual variables, one per dimension
+	 * @param adjoints the adjoint operators applied to the cost function dual
+	 *          variables, one per view
+	 * @param u the intermediate result
+	 * @param uBar the over-relaxed result
+	 * @param dims the dimensions of u
+	 * @param strides the strides of u
+	 * @param tile the part of the image which is processed
+	 * @return sum of (u - u_old)^2 and sum of u^2 inside of tile
+	 */
+	private double[] update(final double[][] p, final double[][] adjoints,
+		final double[] u, final double[] uBar, final long[] dims, final int[] strides,
+		final Interval tile)
+	{
+		final int n = dims.length;
+		final double regularizerStepSize = regularizerDescent.getStepSize();
+		final double costFunctionStepSize = costFunctionDescent.getStepSize();
+		final long[] position = Intervals.minAsLongArray(tile);
+		final long min0 = tile.min(0);
+		final long max0 = tile.max(0);
+
+		double squaredChange = 0;
+		double squaredNorm = 0;
+		do {
+			int i = FlatArrays.index(position, strides);
+			for (long x = min0; x <= max0; x++, i++) {
+				position[0] = x;
+				final double old = u[i];
+
+				double divergence = 0;
+				for (int d = 0; d < n; ++d) {
+					final double back = position[d] > 0 ? p[d][i - strides[d]] : 0;
+					divergence += p[d][i] - back;
+				}
+
+				double value = old + divergence * regularizerStepSize;
+				for (int v = 0; v < adjoints.length; v++) {
+					value = value - adjoints[v][i] * costFunctionStepSize;
+				}
+				u[i] = value;
+				squaredChange += (value - old) * (value - old);
+				squaredNorm += value * value;
+
+				double extrapolated = value * 2.0 - old;
+				if (extrapolated < 0) {
+					extrapolated = 0;
+				}
+				else if (extrapolated > 1) {
+					extrapolated = 1;
+				}
+				uBar[i] = extrapolated;
+			}
+		} while (FlatArrays.nextRow(position, tile));
+		return new double[] { squaredChange, squaredNorm };
+	}
+
+	/**
+	 * Update u and uBar inside of tile on flat float arrays.
+	 * 
+	 * @param p the regularizer dual variables, one per dimension
+	 * @param adjoints the adjoint operators applied to the cost function dual
+	 *          variables, one per view
+	 * @param u the intermediate result
+	 * @param uBar the over-relaxed result
+	 * @param dims the dimensions of u
+	 * @param strides the strides of u
+	 * @param tile the part of the image which is processed
+	 * @return sum of (u - u_old)^2 and sum of u^2 inside of tile
+	 */
+	private double[] update(final float[][] p, final float[][] adjoints,
+		final float[] u, final float[] uBar, final long[] dims, final int[] strides,
+		final Interval tile)
+	{
+		final int n = dims.length;
+		final double regularizerStepSize = regularizerDescent.getStepSize();
+		final double costFunctionStepSize = costFunctionDescent.getStepSize();
+		final long[] position = Intervals.minAsLongArray(tile);
+		final long min0 = tile.min(0);
+		final long max0 = tile.max(0);
+
+		double squaredChange = 0;
+		double squaredNorm = 0;
+		do {
+			int i = FlatArrays.index(position, strides);
+			for (long x = min0; x <= max0; x++, i++) {
+				position[0] = x;
+				final double old = u[i];
+
+				double divergence = 0;
+				for (int d = 0; d < n; ++d) {
+					final double back = position[d] > 0 ? p[d][i - strides[d]] : 0;
+					divergence += p[d][i] - back;
+				}
+
+				double value = old + divergence * regularizerStepSize;
+				for (int v = 0; v < adjoints.length; v++) {
+					value = value - adjoints[v][i] * costFunctionStepSize;
+				}
+				u[i] = (float) value;
+				squaredChange += (value - old) * (value - old);
+				squaredNorm += value * value;
+
+				double extrapolated = value * 2.0 - old;
+				if (extrapolated < 0) {
+					extrapolated = 0;
+				}
+				else if (extrapolated > 1) {
+					extrapolated = 1;
+				}
+				uBar[i] = (float) extrapolated;
+			}
+		} while (FlatArrays.nextRow(position, tile));
+		return new double[] { squaredChange, squaredNorm };
+	}
+
+	private void move(final RandomAccess<T>[] accesses, final long distance,
+		final int d)
+	{
+		for (int i = 0; i < accesses.length; i++) {
+			accesses[i].move(distance, d);
+		}
+	}
+}
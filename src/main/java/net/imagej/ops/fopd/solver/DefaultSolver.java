@@ -33,18 +33,23 @@ package net.imagej.ops.fopd.solver;
 import net.imagej.ops.OpService;
 import net.imagej.ops.Ops;
 import net.imagej.ops.Ops.Map;
+import net.imagej.ops.fopd.BufferDeclaration;
+import net.imagej.ops.fopd.costfunction.AbstractAscent;
+import net.imagej.ops.fopd.costfunction.AbstractCostFunctionDescent;
 import net.imagej.ops.fopd.costfunction.CostFunction;
-import net.imagej.ops.fopd.helper.AveragePerPixelDifference;
 import net.imagej.ops.fopd.helper.Default01Clipper;
+import net.imagej.ops.fopd.helper.Energies;
+import net.imagej.ops.fopd.helper.TiledExecutor;
+import net.imagej.ops.fopd.operator.Identity;
 import net.imagej.ops.fopd.regularizer.Regularizer;
+import net.imagej.ops.fopd.regularizer.tv.TVAscent;
+import net.imagej.ops.fopd.regularizer.tv.TVDescent;
 import net.imagej.ops.map.MapBinaryComputers.RAIAndIIToRAIParallel;
 import net.imagej.ops.map.MapIIInplaceParallel;
 import net.imagej.ops.special.computer.BinaryComputerOp;
 import net.imagej.ops.special.computer.Computers;
 import net.imagej.ops.special.computer.UnaryComputerOp;
 import net.imagej.ops.special.function.AbstractUnaryFunctionOp;
-import net.imagej.ops.special.function.BinaryFunctionOp;
-import net.imagej.ops.special.function.Functions;
 import net.imagej.ops.special.inplace.Inplaces;
 import net.imagej.ops.special.inplace.UnaryInplaceOp;
 import net.imglib2.IterableInterval;
@@ -52,7 +57,6 @@ import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.converter.Converter;
 import net.imglib2.converter.Converters;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.type.numeric.real.DoubleType;
 
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
@@ -68,24 +72,34 @@ import org.scijava.plugin.Plugin;
  */
 @Plugin(type = Solver.class)
 public class DefaultSolver<T extends RealType<T>>
-		extends AbstractUnaryFunctionOp<SolverState<T>, RandomAccessibleInterval<T>> implements Solver<T> {
+		extends AbstractUnaryFunctionOp<SolverState<T>, RandomAccessibleInterval<T>> implements Solver<T>, BufferDeclaration {
 
 	@Parameter
-	private Regularizer<T> regularizer;
+	protected Regularizer<T> regularizer;
 
 	@Parameter
-	private CostFunction<T> costfunction;
+	protected CostFunction<T> costfunction;
 
+	/**
+	 * Maximum number of iterations.
+	 */
 	@Parameter
 	private int numIterations;
 
+	/**
+	 * Optional {@link StoppingCriterion}, which is checked after every
+	 * iteration.
+	 */
+	@Parameter(required = false)
+	private StoppingCriterion<T> stoppingCriterion;
+
 	@Parameter
-	private OpService ops;
+	protected OpService ops;
 
 	/**
 	 * CopyComputer to copy images.
 	 */
-	private UnaryComputerOp<RandomAccessibleInterval<T>, RandomAccessibleInterval<T>> copyComputer;
+	protected UnaryComputerOp<RandomAccessibleInterval<T>, RandomAccessibleInterval<T>> copyComputer;
 
 	/**
 	 * Subtract computer.
@@ -99,48 +113,222 @@ public class DefaultSolver<T extends RealType<T>>
 
 	private Converter<T, T> converter;
 
-	private BinaryFunctionOp<RandomAccessibleInterval, RandomAccessibleInterval, double[]> avgDifference;
+	/**
+	 * Fused descents, over-relaxation and clipping. Null if the descents of
+	 * regularizer and cost function do not support it.
+	 */
+	private PrimalUpdate<T> primalUpdate;
+
+	/**
+	 * Registered {@link IterationListener}s.
+	 */
+	private final IterationListeners<T> listeners = new IterationListeners<T>();
+
+	/**
+	 * The result before a sampled iteration.
+	 */
+	private RandomAccessibleInterval<T> previous;
+
+	/**
+	 * True, if all steps run on the calling thread.
+	 */
+	private boolean singleThreaded = false;
+
+	/**
+	 * @param singleThreaded
+	 *            true, if all steps have to run on the calling thread
+	 */
+	public void setSingleThreaded(final boolean singleThreaded) {
+		this.singleThreaded = singleThreaded;
+	}
+
+	/**
+	 * @param listener
+	 *            is notified after every samplingRate-th iteration
+	 * @param samplingRate
+	 *            of the listener
+	 */
+	public void addIterationListener(final IterationListener<T> listener, final int samplingRate) {
+		listeners.add(listener, samplingRate);
+	}
 
+	/**
+	 * The fused dual updates of TV and of the cost functions and the fused
+	 * primal update run on the {@link TiledExecutor}. The convolvers and the
+	 * ops mappers of the other steps fork inside imagej-ops.
+	 * 
+	 * @return true, if all steps of an iteration run on the
+	 *         {@link TiledExecutor}, so that a sequential thread (see
+	 *         {@link TiledExecutor#setSequential(boolean)}) does not fork
+	 */
 	@SuppressWarnings("unchecked")
+	public boolean isFused() {
+		if (!(regularizer.getAscent() instanceof TVAscent) || !(regularizer.getDescent() instanceof TVDescent)
+				|| !(costfunction.getAscent() instanceof AbstractAscent)
+				|| !(costfunction.getDescent() instanceof AbstractCostFunctionDescent)) {
+			return false;
+		}
+		final AbstractAscent<T> ascent = (AbstractAscent<T>) costfunction.getAscent();
+		for (int i = 0; i < in().getNumViews(); i++) {
+			if (!(ascent.getOperator(i) instanceof Identity)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The previous result of the listeners and the buffers of the steps and
+	 * their operators.
+	 */
+	public long getBufferBytes() {
+		long bytes = listeners.isEmpty() ? 0 : MemoryEstimator.getImageBytes(in());
+		final Object[] steps = new Object[] { regularizer.getAscent(), regularizer.getDescent(),
+				costfunction.getAscent(), costfunction.getDescent() };
+		for (int i = 0; i < steps.length; i++) {
+			bytes += MemoryEstimator.getBufferBytes(steps[i]);
+		}
+		return bytes;
+	}
+
+	/**
+	 * The steps of the ascents run one after the other, the descents while
+	 * tmp of {@link #iterate(SolverState)} is borrowed.
+	 */
+	public int getNumScratchImages() {
+		final int ascents = Math.max(MemoryEstimator.getNumScratchImages(regularizer.getAscent()),
+				MemoryEstimator.getNumScratchImages(costfunction.getAscent()));
+		final int descents = Math.max(MemoryEstimator.getNumScratchImages(regularizer.getDescent()),
+				MemoryEstimator.getNumScratchImages(costfunction.getDescent()));
+		return Math.max(ascents, 1 + descents);
+	}
+
+	/**
+	 * Forget everything which was adapted during the last run, before the
+	 * solver is run on a reset {@link SolverState}.
+	 */
+	public void reset() {
+		// NB: The default solver does not adapt.
+	}
+
 	public RandomAccessibleInterval<T> calculate(SolverState<T> input) {
 
 		if (mapperSubtract == null || copyComputer == null || converter == null || clipperMapper == null) {
 			initComputers(input);
 		}
 
-		// only needed because of a matcher bug.
-		final RandomAccessibleInterval<T> tmp = (RandomAccessibleInterval<T>) ops.create()
-				.img(input.getIntermediateResult(0));
-		final RandomAccessibleInterval<T> oldResult = (RandomAccessibleInterval<T>) ops.create()
-				.img(input.getIntermediateResult(0)); 
-
-		double[] statistic = new double[3];
-		
-		for (int i = 0; i < numIterations; i++) {
-
-			regularizer.getAscent().calculate(input);
-			costfunction.getAscent().calculate(input);
-
-			copyComputer.compute(input.getIntermediateResult(0), input.getResultImage(0));
-
-			regularizer.getDescent().calculate(input);
-			costfunction.getDescent().calculate(input);
-
-			// mapperSubtract.compute(2*u, uq, uq) does not work, because wrong
-			// map is chosen later on.
-			mapperSubtract.compute(
-					Converters.convert(input.getIntermediateResult(0), converter, input.getRegularizerDV().getType()),
-					(IterableInterval<T>) input.getResultImage(0), tmp);
-
-			clipperMapper.mutate((IterableInterval<T>) tmp);
-			copyComputer.compute(tmp, input.getResultImage(0));
-			statistic = avgDifference.calculate(oldResult, input.getResultImage(0));
-			System.out.println("Change: min = " + statistic[0] + ", mean = " + statistic[1] + ", max = " + statistic[2] + ";");
-			copyComputer.compute(input.getResultImage(0), oldResult);
+		final boolean wasSequential = TiledExecutor.setSequential(singleThreaded || TiledExecutor.isSequential());
+		try {
+			iterateAll(input);
+		} finally {
+			TiledExecutor.setSequential(wasSequential);
 		}
 		return input.getResultImage(0);
 	}
 
+	/**
+	 * Iterate until numIterations are done or the stopping criterion holds.
+	 * 
+	 * @param input the state
+	 */
+	@SuppressWarnings("unchecked")
+	private void iterateAll(final SolverState<T> input) {
+		final long start = System.nanoTime();
+		int i = 0;
+		while (i < numIterations) {
+			final int steps = Math.min(getBlockLength(), numIterations - i);
+
+			final boolean sampled = listeners.isSampled(i + steps);
+			if (sampled) {
+				if (previous == null) {
+					previous = (RandomAccessibleInterval<T>) ops.create().img(input.getResultImage(0));
+				}
+				copyComputer.compute(input.getResultImage(0), previous);
+			}
+
+			final long iterationStart = System.nanoTime();
+			final double relativeChange = iterate(input, steps);
+			i += steps;
+
+			if (sampled) {
+				final long now = System.nanoTime();
+				listeners.fire(new IterationEvent<T>(i, numIterations, now - iterationStart, now - start,
+						relativeChange, input, previous, input.getResultImage(0), regularizer, costfunction));
+			}
+
+			if (stoppingCriterion != null && stoppingCriterion.hasConverged(input, i, relativeChange)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @return number of iterations which are performed by
+	 *         {@link #iterate(SolverState, int)} before listeners and stopping
+	 *         criterion are evaluated
+	 */
+	protected int getBlockLength() {
+		return 1;
+	}
+
+	/**
+	 * Perform steps iterations.
+	 * 
+	 * @param input the state
+	 * @param steps number of iterations, at most {@link #getBlockLength()}
+	 * @return |u - u_old| / |u| of the last iteration or NaN, if it was not
+	 *         computed
+	 */
+	protected double iterate(final SolverState<T> input, final int steps) {
+		double relativeChange = Double.NaN;
+		for (int s = 0; s < steps; s++) {
+			relativeChange = iterate(input);
+		}
+		return relativeChange;
+	}
+
+	/**
+	 * One iteration of the algorithm: ascents of regularizer and cost
+	 * function, followed by the descents and the over-relaxation.
+	 * 
+	 * @param input the state
+	 * @return |u - u_old| / |u| or NaN, if it was not computed
+	 */
+	@SuppressWarnings("unchecked")
+	protected double iterate(final SolverState<T> input) {
+		regularizer.getAscent().calculate(input);
+		costfunction.getAscent().calculate(input);
+
+		if (primalUpdate != null) {
+			primalUpdate.calculate(input);
+			return primalUpdate.getRelativeChange();
+		}
+
+		// only needed because of a matcher bug.
+		final RandomAccessibleInterval<T> tmp = input.getScratchPool().borrow(ops, input.getIntermediateResult(0));
+
+		copyComputer.compute(input.getIntermediateResult(0), input.getResultImage(0));
+
+		regularizer.getDescent().calculate(input);
+		costfunction.getDescent().calculate(input);
+
+		double relativeChange = Double.NaN;
+		if (stoppingCriterion != null) {
+			relativeChange = Energies.relativeChange(input.getResultImage(0), input.getIntermediateResult(0));
+		}
+
+		// mapperSubtract.compute(2*u, uq, uq) does not work, because wrong
+		// map is chosen later on.
+		mapperSubtract.compute(
+				Converters.convert(input.getIntermediateResult(0), converter, input.getRegularizerDV().getType()),
+				(IterableInterval<T>) input.getResultImage(0), tmp);
+
+		clipperMapper.mutate((IterableInterval<T>) tmp);
+		copyComputer.compute(tmp, input.getResultImage(0));
+		input.getScratchPool().release(tmp);
+		return relativeChange;
+	}
+
 	@SuppressWarnings("unchecked")
 	private void initComputers(final SolverState<T> input) {
 		final T type = input.getType();
@@ -161,8 +349,11 @@ public class DefaultSolver<T extends RealType<T>>
 
 		clipperMapper = (MapIIInplaceParallel<T>) ops.op(Map.class, IterableInterval.class, UnaryInplaceOp.class);
 		clipperMapper.setOp((UnaryInplaceOp<T, T>) Inplaces.unary(ops, Default01Clipper.class, type));
-		
-		avgDifference = Functions.binary(ops, AveragePerPixelDifference.class, double[].class,
-				RandomAccessibleInterval.class, RandomAccessibleInterval.class);
+
+		if (regularizer.getDescent() instanceof TVDescent
+				&& costfunction.getDescent() instanceof AbstractCostFunctionDescent) {
+			primalUpdate = ops.op(DefaultPrimalUpdate.class, SolverState.class, regularizer.getDescent(),
+					costfunction.getDescent());
+		}
 	}
 }
@@ -0,0 +1,110 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.solver;
+
+/**
+ * Memory footprint of a {@link SolverState}: the bytes of all images the
+ * energy declared and the bytes of the images which were accessed and
+ * therefore allocated so far.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public class Footprint {
+
+	private final long declaredImages;
+
+	private final long allocatedImages;
+
+	private final long declaredBytes;
+
+	private final long allocatedBytes;
+
+	public Footprint(final long declaredImages, final long allocatedImages,
+		final long bytesPerImage)
+	{
+		this(declaredImages, allocatedImages, declaredImages * bytesPerImage,
+			allocatedImages * bytesPerImage);
+	}
+
+	private Footprint(final long declaredImages, final long allocatedImages,
+		final long declaredBytes, final long allocatedBytes)
+	{
+		this.declaredImages = declaredImages;
+		this.allocatedImages = allocatedImages;
+		this.declaredBytes = declaredBytes;
+		this.allocatedBytes = allocatedBytes;
+	}
+
+	/**
+	 * @return number of images the energy declared
+	 */
+	public long getDeclaredImages() {
+		return declaredImages;
+	}
+
+	/**
+	 * @return number of images which are allocated
+	 */
+	public long getAllocatedImages() {
+		return allocatedImages;
+	}
+
+	/**
+	 * @return bytes of all declared images
+	 */
+	public long getDeclaredBytes() {
+		return declaredBytes;
+	}
+
+	/**
+	 * @return bytes of all allocated images
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * @param other footprint, e.g. of a sub-solver state
+	 * @return the sum of both footprints
+	 */
+	public Footprint add(final Footprint other) {
+		return new Footprint(declaredImages + other.declaredImages,
+			allocatedImages + other.allocatedImages, declaredBytes +
+				other.declaredBytes, allocatedBytes + other.allocatedBytes);
+	}
+
+	@Override
+	public String toString() {
+		return allocatedImages + " of " + declaredImages +
+			" images allocated (" + allocatedBytes + " of " + declaredBytes +
+			" bytes)";
+	}
+}
@@ -0,0 +1,185 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.solver;
+
+import net.imagej.ops.fopd.costfunction.CostFunction;
+import net.imagej.ops.fopd.regularizer.Regularizer;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Describes one finished iteration of a {@link Solver}. The change statistics
+ * and the energy are computed on first request.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ * @param <T>
+ */
+public class IterationEvent<T extends RealType<T>> {
+
+	private final int iteration;
+
+	private final int numIterations;
+
+	private final long iterationTime;
+
+	private final long elapsedTime;
+
+	private final double relativeChange;
+
+	private final SolverState<T> state;
+
+	private final RandomAccessibleInterval<T> previous;
+
+	private final RandomAccessibleInterval<T> current;
+
+	private final Regularizer<T> regularizer;
+
+	private final CostFunction<T> costFunction;
+
+	private double[] change;
+
+	private double energy = Double.NaN;
+
+	/**
+	 * @param iteration the finished iteration, starting at 1
+	 * @param numIterations the maximum number of iterations
+	 * @param iterationTime duration of the iteration in nanoseconds
+	 * @param elapsedTime duration of all iterations so far in nanoseconds
+	 * @param relativeChange |u - u_old| / |u| or NaN, if it was not computed
+	 * @param state the solver state after the iteration
+	 * @param previous the result before the iteration
+	 * @param current the result after the iteration
+	 * @param regularizer of the problem
+	 * @param costFunction of the problem or null
+	 */
+	public IterationEvent(final int iteration, final int numIterations,
+		final long iterationTime, final long elapsedTime,
+		final double relativeChange, final SolverState<T> state,
+		final RandomAccessibleInterval<T> previous,
+		final RandomAccessibleInterval<T> current,
+		final Regularizer<T> regularizer, final CostFunction<T> costFunction)
+	{
+		this.iteration = iteration;
+		this.numIterations = numIterations;
+		this.iterationTime = iterationTime;
+		this.elapsedTime = elapsedTime;
+		this.relativeChange = relativeChange;
+		this.state = state;
+		this.previous = previous;
+		this.current = current;
+		this.regularizer = regularizer;
+		this.costFunction = costFunction;
+	}
+
+	/**
+	 * @return the finished iteration, starting at 1
+	 */
+	public int getIteration() {
+		return iteration;
+	}
+
+	/**
+	 * @return the maximum number of iterations
+	 */
+	public int getNumIterations() {
+		return numIterations;
+	}
+
+	/**
+	 * @return duration of the iteration in nanoseconds
+	 */
+	public long getIterationTime() {
+		return iterationTime;
+	}
+
+	/**
+	 * @return duration of all iterations so far in nanoseconds
+	 */
+	public long getElapsedTime() {
+		return elapsedTime;
+	}
+
+	/**
+	 * @return |u - u_old| / |u| or NaN, if it was not computed
+	 */
+	public double getRelativeChange() {
+		return relativeChange;
+	}
+
+	/**
+	 * @return the solver state after the iteration
+	 */
+	public SolverState<T> getState() {
+		return state;
+	}
+
+	/**
+	 * @return min, mean and max of the per pixel absolute difference between
+	 *         the result before and after the iteration
+	 */
+	public double[] getChange() {
+		if (change == null) {
+			final Cursor<T> cp = Views.flatIterable(previous).cursor();
+			final Cursor<T> cc = Views.flatIterable(current).cursor();
+			double min = Double.POSITIVE_INFINITY;
+			double max = 0;
+			double sum = 0;
+			long numPix = 0;
+			while (cc.hasNext()) {
+				final double diff = Math.abs(cc.next().getRealDouble() - cp.next()
+					.getRealDouble());
+				min = Math.min(min, diff);
+				max = Math.max(max, diff);
+				sum += diff;
+				numPix++;
+			}
+			change = new double[] { min, sum / numPix, max };
+		}
+		return change;
+	}
+
+	/**
+	 * @return the primal energy of the primal iterate after the iteration,
+	 *         without the {@link CostFunction} for events of the
+	 *         {@link RegularizerSolver}
+	 */
+	public double getEnergy() {
+		if (Double.isNaN(energy)) {
+			energy = regularizer.getPrimalEnergy(state);
+			if (costFunction != null) {
+				energy += costFunction.getPrimalEnergy(state);
+			}
+		}
+		return energy;
+	}
+}
@@ -0,0 +1,100 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.solver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * The {@link IterationListener}s of a {@link Solver} together with their
+ * sampling rates.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ * @param <T>
+ */
+public class IterationListeners<T extends RealType<T>> {
+
+	private final List<IterationListener<T>> listeners =
+		new ArrayList<IterationListener<T>>();
+
+	private final List<Integer> samplingRates = new ArrayList<Integer>();
+
+	/**
+	 * @param listener to add
+	 * @param samplingRate the listener is notified after every samplingRate-th
+	 *          iteration
+	 */
+	public void add(final IterationListener<T> listener,
+		final int samplingRate)
+	{
+		if (samplingRate < 1) {
+			throw new IllegalArgumentException(
+				"Sampling rate has to be positive.");
+		}
+		listeners.add(listener);
+		samplingRates.add(samplingRate);
+	}
+
+	/**
+	 * @param iteration starting at 1
+	 * @return true, if any listener has to be notified after this iteration
+	 */
+	public boolean isSampled(final int iteration) {
+		for (final int samplingRate : samplingRates) {
+			if (iteration % samplingRate == 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true, if no listener was added
+	 */
+	public boolean isEmpty() {
+		return listeners.isEmpty();
+	}
+
+	/**
+	 * Notify all listeners which sample the iteration of the event.
+	 * 
+	 * @param event of the finished iteration
+	 */
+	public void fire(final IterationEvent<T> event) {
+		for (int i = 0; i < listeners.size(); i++) {
+			if (event.getIteration() % samplingRates.get(i) == 0) {
+				listeners.get(i).iterationFinished(event);
+			}
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.solver;
+
+/**
+ * Bytes which are shared by the workers of a {@link BatchSolver}. A worker
+ * acquires the predicted peak bytes of its problem before it allocates the
+ * solver and waits until enough bytes are released by the other workers. A
+ * problem which is larger than the whole budget is admitted as soon as no
+ * other problem is running.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+class MemoryBudget {
+
+	private final long budget;
+
+	private long used;
+
+	/**
+	 * @param budget bytes which may be in use at the same time
+	 */
+	MemoryBudget(final long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Wait until bytes fit into the budget and reserve them.
+	 * 
+	 * @param bytes to reserve
+	 */
+	synchronized void acquire(final long bytes) {
+		while (used > 0 && used + bytes > budget) {
+			try {
+				wait();
+			}
+			catch (final InterruptedException exc) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(exc);
+			}
+		}
+		used += bytes;
+	}
+
+	/**
+	 * @param bytes which were reserved with {@link #acquire(long)}
+	 */
+	synchronized void release(final long bytes) {
+		used -= bytes;
+		notifyAll();
+	}
+
+	/**
+	 * @return the reserved bytes
+	 */
+	synchronized long getUsed() {
+		return used;
+	}
+}
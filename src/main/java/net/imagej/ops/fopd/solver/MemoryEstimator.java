@@ -0,0 +1,249 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imagej.ops.fopd.solver;
+
+import net.imagej.ops.fopd.BufferDeclaration;
+import net.imagej.ops.fopd.helper.FlatArrays;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.converter.RealFloatConverter;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Predicts the peak heap memory of a {@link PreparedSolver} before it is run.
+ * 
+ * The solver state, the convolvers and the buffers of the steps are
+ * allocated on first use. Hence a solver can be built for the images of a
+ * problem without allocating them, and the estimate adds up:
+ * <ul>
+ * <li>the declared {@link SolverState}: results, intermediate results and
+ * dual variables, including the TGV sub-state (see {@link Footprint}),</li>
+ * <li>the largest set of scratch images the solver borrows at the same time,
+ * </li>
+ * <li>the buffers of the solver, its steps and their operators, e.g. the
+ * padded images and spectra of the convolvers (see
+ * {@link BufferDeclaration}),</li>
+ * <li>the observed images held by the {@link PreparedSolver} and the
+ * returned result.</li>
+ * </ul>
+ * Parts which do not implement {@link BufferDeclaration} are counted as
+ * holding nothing. Images which are mapped to files (see
+ * {@link SolverSettings#setScratchDirectory}) are not counted.
+ * 
+ * The solver is built for the images as they are solved: converted to float
+ * for {@link Precision#FLOAT} (see {@link #getSolvedTemplates}) and cropped
+ * to one extended chunk for chunked solving (see {@link #getChunkTemplates}),
+ * since only the solver of one chunk is held at a time. The images of the
+ * original size and type, i.e. the result of chunked solving, unless it is
+ * mapped, and the conversion back from float, are added.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public final class MemoryEstimator {
+
+	private MemoryEstimator() {
+		// NB: Utility class
+	}
+
+	/**
+	 * @param prepared the solver, which was not run yet, built on the
+	 *          {@link #getSolvedTemplates}
+	 * @param template one image per view of the problem, not accessed
+	 * @param settings the settings the solver was built with
+	 * @return predicted peak bytes of solving the problem in memory
+	 */
+	public static <S extends RealType<S>, T extends RealType<T>> long
+		peakBytes(final PreparedSolver<S> prepared,
+			final RandomAccessibleInterval<T>[] template,
+			final SolverSettings settings)
+	{
+		return peakBytes(prepared, template, settings, false);
+	}
+
+	/**
+	 * @param prepared the solver, which was not run yet, built on the
+	 *          {@link #getSolvedTemplates} of the {@link #getChunkTemplates}
+	 *          if chunked
+	 * @param template one image per view of the problem, not accessed
+	 * @param settings the settings the solver was built with
+	 * @param chunked whether the problem is solved chunk by chunk
+	 * @return predicted peak bytes
+	 */
+	public static <S extends RealType<S>, T extends RealType<T>> long
+		peakBytes(final PreparedSolver<S> prepared,
+			final RandomAccessibleInterval<T>[] template,
+			final SolverSettings settings, final boolean chunked)
+	{
+		final SolverState<S> state = prepared.getState();
+		final DefaultSolver<S> solver = prepared.getSolver();
+
+		long peak = solver.getBufferBytes();
+		if (settings.getScratchDirectory() == null) {
+			peak += state.getFootprint().getDeclaredBytes() + solver
+				.getNumScratchImages() * getImageBytes(state);
+		}
+
+		// the observed images and the returned copy of the result
+		final RandomAccessibleInterval<S>[] observed = prepared
+			.getObservedImages();
+		peak += (observed.length + 1) * getImageBytes(observed[0]);
+
+		// the images in the type of the problem
+		final long pixelBytes = getBytesPerPixel(template[0].randomAccess()
+			.get());
+		final long chunkBytes = Intervals.numElements(observed[0]) * pixelBytes;
+		final boolean converted = isConverted(template, settings);
+		if (converted) {
+			peak += chunkBytes;
+		}
+		if (chunked) {
+			if (settings.getStorage() != null || settings
+				.getScratchDirectory() == null)
+			{
+				peak += Intervals.numElements(template[0]) * pixelBytes;
+			}
+			if (converted) {
+				peak += template.length * chunkBytes;
+			}
+		}
+		return peak;
+	}
+
+	/**
+	 * @param template one image per view, not accessed
+	 * @param settings the settings
+	 * @return views of template in the type in which they are solved, which is
+	 *         float for {@link Precision#FLOAT}
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static <T extends RealType<T>> RandomAccessibleInterval<T>[]
+		getSolvedTemplates(final RandomAccessibleInterval<T>[] template,
+			final SolverSettings settings)
+	{
+		if (!isConverted(template, settings)) {
+			return template;
+		}
+		final RandomAccessibleInterval[] floats =
+			new RandomAccessibleInterval[template.length];
+		for (int i = 0; i < template.length; i++) {
+			floats[i] = Converters.convert(template[i], new RealFloatConverter<T>(),
+				new FloatType());
+		}
+		return floats;
+	}
+
+	/**
+	 * @param template one image per view, not accessed
+	 * @param settings the settings
+	 * @param overlap number of pixels by which the chunks are extended
+	 * @return views of template of the size of the largest extended chunk or
+	 *         template, if it is not chunked
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends RealType<T>> RandomAccessibleInterval<T>[]
+		getChunkTemplates(final RandomAccessibleInterval<T>[] template,
+			final SolverSettings settings, final long overlap)
+	{
+		if (settings.getChunkSize() == 0) {
+			return template;
+		}
+		final long[] max = new long[template[0].numDimensions()];
+		for (int d = 0; d < max.length; d++) {
+			max[d] = Math.min(settings.getChunkSize() + 2 * overlap, template[0]
+				.dimension(d)) - 1;
+		}
+		final FinalInterval chunk = new FinalInterval(new long[max.length], max);
+		final RandomAccessibleInterval<T>[] chunks =
+			new RandomAccessibleInterval[template.length];
+		for (int i = 0; i < template.length; i++) {
+			chunks[i] = Views.interval(Views.zeroMin(template[i]), chunk);
+		}
+		return chunks;
+	}
+
+	private static boolean isConverted(
+		final RandomAccessibleInterval<?>[] template,
+		final SolverSettings settings)
+	{
+		return settings.getPrecision() == Precision.FLOAT && !FlatArrays.isFloats(
+			template);
+	}
+
+	/**
+	 * @param part a step, operator or solver
+	 * @return the declared buffer bytes of part, 0 if it declares nothing
+	 */
+	public static long getBufferBytes(final Object part) {
+		return part instanceof BufferDeclaration ? ((BufferDeclaration) part)
+			.getBufferBytes() : 0;
+	}
+
+	/**
+	 * @param part a step, operator or solver
+	 * @return the declared number of scratch images of part, 0 if it declares
+	 *         nothing
+	 */
+	public static int getNumScratchImages(final Object part) {
+		return part instanceof BufferDeclaration ? ((BufferDeclaration) part)
+			.getNumScratchImages() : 0;
+	}
+
+	/**
+	 * @param img the image, which is not accessed
+	 * @return bytes of an image like img
+	 */
+	public static <T extends RealType<T>> long getImageBytes(
+		final RandomAccessibleInterval<T> img)
+	{
+		return Intervals.numElements(img) * getBytesPerPixel(img.randomAccess()
+			.get());
+	}
+
+	/**
+	 * @param state the state, whose images are not allocated
+	 * @return bytes of one image of state
+	 */
+	public static long getImageBytes(final SolverState<?> state) {
+		final Footprint footprint = state.getFootprint();
+		return footprint.getDeclaredBytes() / footprint.getDeclaredImages();
+	}
+
+	/**
+	 * @param type the type
+	 * @return bytes of one pixel of type
+	 */
+	public static long getBytesPerPixel(final RealType<?> type) {
+		return (type.getBitsPerPixel() + 7) / 8;
+	}
+}
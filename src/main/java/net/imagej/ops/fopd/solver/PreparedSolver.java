@@ -0,0 +1,217 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.imagej.ops.OpService;
+import net.imagej.ops.fopd.ScalableStepSize;
+import net.imagej.ops.fopd.costfunction.AbstractAscent;
+import net.imagej.ops.fopd.costfunction.CostFunction;
+import net.imagej.ops.fopd.helper.FlatArrays;
+import net.imagej.ops.fopd.regularizer.Regularizer;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+
+/**
+ * A {@link Solver} together with its {@link SolverState}, {@link Regularizer}
+ * and {@link CostFunction}, which is set up once for images of one size and
+ * then run on image after image.
+ * 
+ * The observed images of the cost function are owned buffers, into which the
+ * images are copied. Before every run the state is reset to zero and all
+ * step-sizes are set back to their initial value. The matched ops, their
+ * lazily initialized computers and all buffers are reused. Instances are not
+ * thread-safe, use one per thread (see {@link BatchSolver}).
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ * @param <T>
+ */
+public class PreparedSolver<T extends RealType<T>> {
+
+	private final OpService ops;
+
+	private final RandomAccessibleInterval<T>[] observed;
+
+	private final SolverState<T> state;
+
+	private final Regularizer<T> regularizer;
+
+	private final CostFunction<T> costFunction;
+
+	private final DefaultSolver<T> solver;
+
+	private final List<ScalableStepSize> steps =
+		new ArrayList<ScalableStepSize>();
+
+	private final double[] initialStepSizes;
+
+	/**
+	 * True, if the state holds the result of a previous run.
+	 */
+	private boolean dirty = false;
+
+	/**
+	 * @param ops the OpService
+	 * @param observed the observed images of costFunction
+	 * @param state the state of solver
+	 * @param regularizer the regularizer of solver
+	 * @param costFunction the cost function of solver
+	 * @param solver the solver
+	 */
+	public PreparedSolver(final OpService ops,
+		final RandomAccessibleInterval<T>[] observed, final SolverState<T> state,
+		final Regularizer<T> regularizer, final CostFunction<T> costFunction,
+		final DefaultSolver<T> solver)
+	{
+		this.ops = ops;
+		this.observed = observed;
+		this.state = state;
+		this.regularizer = regularizer;
+		this.costFunction = costFunction;
+		this.solver = solver;
+
+		for (final Object step : new Object[] { regularizer.getAscent(),
+			regularizer.getDescent(), costFunction.getAscent(), costFunction
+				.getDescent() })
+		{
+			if (step instanceof ScalableStepSize && !steps.contains(step)) {
+				steps.add((ScalableStepSize) step);
+			}
+		}
+		initialStepSizes = new double[steps.size()];
+		for (int i = 0; i < initialStepSizes.length; i++) {
+			initialStepSizes[i] = steps.get(i).getStepSize();
+		}
+	}
+
+	/**
+	 * @param images the images
+	 * @return true, if images can be solved by this solver
+	 */
+	public boolean fits(final RandomAccessibleInterval<T>[] images) {
+		if (images.length != observed.length) {
+			return false;
+		}
+		for (int i = 0; i < images.length; i++) {
+			if (!Arrays.equals(Intervals.dimensionsAsLongArray(images[i]),
+				Intervals.dimensionsAsLongArray(observed[i])))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Solve the problem for images. The images are not modified.
+	 * 
+	 * @param images one image per view, of the prepared size
+	 * @return a new result image
+	 */
+	public RandomAccessibleInterval<T> solve(
+		final RandomAccessibleInterval<T>[] images)
+	{
+		if (!fits(images)) {
+			throw new IllegalArgumentException(
+				"Images differ from the prepared number of views or dimensions.");
+		}
+		for (int i = 0; i < images.length; i++) {
+			FlatArrays.copy(images[i], observed[i]);
+		}
+
+		final RandomAccessibleInterval<T> result = run();
+		final RandomAccessibleInterval<T> copy = FlatArrays.create(ops,
+			observed[0]);
+		FlatArrays.copy(result, copy);
+		return copy;
+	}
+
+	/**
+	 * Solve the problem for the current values of the observed images.
+	 * 
+	 * @return the result image of the state, which is overwritten by the next
+	 *         run
+	 */
+	public RandomAccessibleInterval<T> run() {
+		if (dirty) {
+			reset();
+		}
+		dirty = true;
+		solver.calculate(state);
+		return state.getResultImage(0);
+	}
+
+	private void reset() {
+		state.reset();
+		for (int i = 0; i < initialStepSizes.length; i++) {
+			final double stepSize = steps.get(i).getStepSize();
+			if (stepSize != initialStepSizes[i]) {
+				steps.get(i).scaleStepSize(initialStepSizes[i] / stepSize);
+			}
+		}
+		if (costFunction.getAscent() instanceof AbstractAscent) {
+			((AbstractAscent<T>) costFunction.getAscent()).observedImagesChanged();
+		}
+		solver.reset();
+	}
+
+	/**
+	 * @return the observed images, into which the images are copied
+	 */
+	public RandomAccessibleInterval<T>[] getObservedImages() {
+		return observed;
+	}
+
+	/**
+	 * @return the state
+	 */
+	public SolverState<T> getState() {
+		return state;
+	}
+
+	/**
+	 * @return the solver, e.g. to add {@link IterationListener}s
+	 */
+	public DefaultSolver<T> getSolver() {
+		return solver;
+	}
+
+	/**
+	 * @return the cost function of the solver
+	 */
+	public CostFunction<T> getCostFunction() {
+		return costFunction;
+	}
+}
@@ -0,0 +1,116 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.solver;
+
+import net.imagej.ops.fopd.costfunction.CostFunction;
+import net.imagej.ops.fopd.helper.Energies;
+import net.imagej.ops.fopd.regularizer.Regularizer;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Stops if the primal-dual gap relative to the primal energy drops below the
+ * tolerance.
+ * 
+ * The problem min_{u in [0, 1]} R(grad u) + sum_i F_i(K_i u) has the gap
+ * R(grad u) + sum_i F_i(K_i u) + R*(p) + sum_i F_i*(q_i) - sum_x min(0, -div(p)
+ * + sum_i K_i^T q_i), which is evaluated with the energies provided by the
+ * {@link Regularizer} and the {@link CostFunction}. The primal energies are
+ * evaluated on the primal iterate u, which is the intermediate result, and not
+ * on the over-relaxed result image. The last term does not depend on u.
+ * Since the evaluation costs about as much as one iteration, it is only done
+ * every checkInterval iterations.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ * @param <T>
+ */
+public class PrimalDualGap<T extends RealType<T>> implements
+	StoppingCriterion<T>
+{
+
+	private final Regularizer<T> regularizer;
+
+	private final CostFunction<T> costFunction;
+
+	private final double tolerance;
+
+	private final int checkInterval;
+
+	private double gap = Double.POSITIVE_INFINITY;
+
+	public PrimalDualGap(final Regularizer<T> regularizer,
+		final CostFunction<T> costFunction, final double tolerance,
+		final int checkInterval)
+	{
+		this.regularizer = regularizer;
+		this.costFunction = costFunction;
+		this.tolerance = tolerance;
+		this.checkInterval = Math.max(checkInterval, 1);
+	}
+
+	public boolean hasConverged(final SolverState<T> state,
+		final int iteration, final double relativeChange)
+	{
+		if (iteration % checkInterval != 0) {
+			return false;
+		}
+
+		final double primal = regularizer.getPrimalEnergy(state) + costFunction
+			.getPrimalEnergy(state);
+		gap = primal + regularizer.getConjugateEnergy(state) + costFunction
+			.getConjugateEnergy(state) - boxTerm(state);
+
+		return gap <= tolerance * Math.abs(primal);
+	}
+
+	/**
+	 * @return the gap of the last evaluation
+	 */
+	public double getGap() {
+		return gap;
+	}
+
+	@SuppressWarnings("unchecked")
+	private double boxTerm(final SolverState<T> state) {
+		final int n = state.getIntermediateResult(0).numDimensions();
+		final RandomAccessibleInterval<T>[] p = new RandomAccessibleInterval[n];
+		for (int d = 0; d < n; d++) {
+			p[d] = state.getRegularizerDV().getDualVariable(d);
+		}
+
+		final RandomAccessibleInterval<T>[] adjoints =
+			new RandomAccessibleInterval[state.getNumViews()];
+		for (int i = 0; i < adjoints.length; i++) {
+			adjoints[i] = costFunction.getAdjoint(state, i);
+		}
+		return Energies.boxTerm(p, adjoints);
+	}
+}
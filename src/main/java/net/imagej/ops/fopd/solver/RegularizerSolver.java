@@ -96,6 +96,41 @@ public class RegularizerSolver<T extends RealType<T>> extends
 
 	private Converter<T, T> converter;
 
+	/**
+	 * Registered {@link IterationListener}s.
+	 */
+	private final IterationListeners<T> listeners =
+		new IterationListeners<T>();
+
+	/**
+	 * The result before a sampled iteration.
+	 */
+	private RandomAccessibleInterval<T> previous;
+
+	/**
+	 * Number of iterations of all previous calls.
+	 */
+	private int numPreviousIterations;
+
+	/**
+	 * Duration of all previous calls in nanoseconds.
+	 */
+	private long previousTime;
+
+	/**
+	 * The iterations are counted over all calls, since the TGV ascents run one
+	 * iteration per call. The maximum number of iterations of an event is the
+	 * number of iterations at the end of the current call.
+	 * 
+	 * @param listener is notified after every samplingRate-th iteration
+	 * @param samplingRate of the listener
+	 */
+	public void addIterationListener(final IterationListener<T> listener,
+		final int samplingRate)
+	{
+		listeners.add(listener, samplingRate);
+	}
+
 	@SuppressWarnings("unchecked")
 	public RandomAccessibleInterval<T> calculate(SolverState<T> input) {
 
@@ -106,12 +141,24 @@ public class RegularizerSolver<T extends RealType<T>> extends
 		}
 
 		// only needed because of a matcher bug.
-		final RandomAccessibleInterval<T> tmp =
-			(RandomAccessibleInterval<T>) ops.create().img(input
-				.getIntermediateResult(0));
+		final RandomAccessibleInterval<T> tmp = input.getScratchPool().borrow(
+			ops, input.getIntermediateResult(0));
 
+		final long start = System.nanoTime();
 		for (int i = 0; i < numIterations; i++) {
 
+			final int iteration = numPreviousIterations + i + 1;
+			final boolean sampled = listeners.isSampled(iteration);
+			if (sampled) {
+				if (previous == null) {
+					previous = (RandomAccessibleInterval<T>) ops.create().img(input
+						.getSubSolverState(0).getResultImage(0));
+				}
+				copyComputer.compute(input.getSubSolverState(0).getResultImage(0),
+					previous);
+			}
+
+			final long iterationStart = System.nanoTime();
 			regularizer.getAscent().calculate(input);
 			for (int j = 0; j < input.getSubSolverState(0)
 				.numIntermediateResults(); j++)
@@ -139,7 +186,18 @@ public class RegularizerSolver<T extends RealType<T>> extends
 				clipperMapper.mutate((IterableInterval<T>) input
 					.getSubSolverState(0).getResultImage(j));
 			}
+
+			if (sampled) {
+				final long now = System.nanoTime();
+				listeners.fire(new IterationEvent<T>(iteration,
+					numPreviousIterations + numIterations, now - iterationStart,
+					previousTime + now - start, Double.NaN, input, previous, input
+						.getSubSolverState(0).getResultImage(0), regularizer, null));
+			}
 		}
+		numPreviousIterations += numIterations;
+		previousTime += System.nanoTime() - start;
+		input.getScratchPool().release(tmp);
 		return input.getSubSolverState(0).getResultImage(0);
 	}
 
@@ -0,0 +1,508 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.solver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imagej.ops.fopd.costfunction.CostFunction;
+import net.imagej.ops.fopd.helper.MappedStorage;
+import net.imagej.ops.fopd.helper.ScratchPool;
+import net.imagej.ops.fopd.helper.ViewExecutor;
+import net.imagej.ops.fopd.operator.Boundary;
+import net.imagej.ops.fopd.regularizer.Regularizer;
+import net.imagej.ops.fopd.regularizer.tgv.TGV2DAscent;
+import net.imagej.ops.fopd.regularizer.tgv.TGV3DAscent;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Optional settings of the energy ops. All settings have defaults, which
+ * reproduce the plain {@link DefaultSolver}.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public class SolverSettings {
+
+	/**
+	 * Extend the chunks by the number of iterations, which gives the same
+	 * result as solving the whole image at once.
+	 */
+	public static final long EXACT_OVERLAP = -1;
+
+	/**
+	 * Overlap of the chunks if none is given. The exact overlap grows with the
+	 * number of iterations, e.g. chunks of 64 pixels extended by 200 pixels on
+	 * all sides of a 2D image solve over 50 times as many pixels as the chunks
+	 * themselves. The error of a smaller overlap is largest at the borders of
+	 * the chunks and decreases towards their centers.
+	 */
+	public static final long DEFAULT_OVERLAP = 16;
+
+	private Precision precision = Precision.INPUT;
+
+	private double tolerance = 0;
+
+	private StoppingRule stoppingRule = StoppingRule.RELATIVE_CHANGE;
+
+	private int checkInterval = 10;
+
+	private SolverVariant variant = SolverVariant.DEFAULT;
+
+	private int temporalBlocking = 1;
+
+	private long chunkSize = 0;
+
+	private long chunkOverlap = DEFAULT_OVERLAP;
+
+	private ImgFactory<?> storage;
+
+	private ScratchPool scratchPool = new ScratchPool();
+
+	private boolean singleThreaded = false;
+
+	private Convolution convolution = Convolution.FFT;
+
+	private Boundary boundary = Boundary.BORDER;
+
+	private int parallelViews = ViewExecutor.AUTOMATIC;
+
+	private File scratchDirectory;
+
+	private final List<IterationListener<?>> listeners =
+		new ArrayList<IterationListener<?>>();
+
+	private final List<Integer> samplingRates = new ArrayList<Integer>();
+
+	private final List<IterationListener<?>> regularizerListeners =
+		new ArrayList<IterationListener<?>>();
+
+	private final List<Integer> regularizerSamplingRates =
+		new ArrayList<Integer>();
+
+	public Precision getPrecision() {
+		return precision;
+	}
+
+	/**
+	 * @param precision in which the solver computes
+	 * @return this
+	 */
+	public SolverSettings setPrecision(final Precision precision) {
+		this.precision = precision;
+		return this;
+	}
+
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	/**
+	 * @param tolerance of the {@link StoppingRule}, 0 runs all iterations
+	 * @return this
+	 */
+	public SolverSettings setTolerance(final double tolerance) {
+		this.tolerance = tolerance;
+		return this;
+	}
+
+	public StoppingRule getStoppingRule() {
+		return stoppingRule;
+	}
+
+	/**
+	 * @param stoppingRule the convergence test
+	 * @return this
+	 */
+	public SolverSettings setStoppingRule(final StoppingRule stoppingRule) {
+		this.stoppingRule = stoppingRule;
+		return this;
+	}
+
+	public int getCheckInterval() {
+		return checkInterval;
+	}
+
+	/**
+	 * @param checkInterval number of iterations between two evaluations of the
+	 *          {@link PrimalDualGap}
+	 * @return this
+	 */
+	public SolverSettings setCheckInterval(final int checkInterval) {
+		this.checkInterval = checkInterval;
+		return this;
+	}
+
+	public SolverVariant getVariant() {
+		return variant;
+	}
+
+	/**
+	 * @param variant of the {@link Solver}
+	 * @return this
+	 */
+	public SolverSettings setVariant(final SolverVariant variant) {
+		this.variant = variant;
+		return this;
+	}
+
+	public int getTemporalBlocking() {
+		return temporalBlocking;
+	}
+
+	/**
+	 * @param temporalBlocking number of iterations which are performed per
+	 *          tile by the {@link TemporallyBlockedSolver}, 1 disables temporal
+	 *          blocking
+	 * @return this
+	 */
+	public SolverSettings setTemporalBlocking(final int temporalBlocking) {
+		this.temporalBlocking = temporalBlocking;
+		return this;
+	}
+
+	public long getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * @param numIt the number of iterations of the solver
+	 * @return number of pixels by which the chunks are extended, at most numIt
+	 */
+	public long getChunkOverlap(final int numIt) {
+		return chunkOverlap == EXACT_OVERLAP ? numIt : Math.min(chunkOverlap,
+			numIt);
+	}
+
+	/**
+	 * Solve the denoising problems chunk by chunk, to bound the memory of the
+	 * solver. Each chunk is solved on its own, extended by
+	 * {@link #DEFAULT_OVERLAP} pixels on all sides. Up to that many iterations
+	 * this gives the same result as solving the whole image at once, more
+	 * iterations only approximate it near the borders of the chunks (see
+	 * {@link #setChunking(long, long)}).
+	 * 
+	 * @param chunkSize edge length of the chunks, 0 disables chunking
+	 * @return this
+	 */
+	public SolverSettings setChunking(final long chunkSize) {
+		return setChunking(chunkSize, DEFAULT_OVERLAP);
+	}
+
+	/**
+	 * Solve the denoising problems chunk by chunk, extended by overlap pixels
+	 * on all sides. One iteration only reaches the direct neighbors, hence an
+	 * overlap of at least the number of iterations gives the same result as
+	 * solving the whole image at once. A smaller overlap is an approximation:
+	 * the pixels closer to a chunk border than the number of iterations minus
+	 * the overlap see the cut and differ from the exact result. It trades this
+	 * error for less work, since the extended chunks of many iterations are
+	 * much larger than the chunks.
+	 * 
+	 * The tolerance is not applied to chunked solving, every chunk runs all
+	 * iterations. Chunks which stop after different numbers of iterations
+	 * would leave seams at their borders.
+	 * 
+	 * @param chunkSize edge length of the chunks, 0 disables chunking
+	 * @param overlap number of pixels by which the chunks are extended or
+	 *          {@link #EXACT_OVERLAP}
+	 * @return this
+	 */
+	public SolverSettings setChunking(final long chunkSize, final long overlap) {
+		if (chunkSize < 0 || overlap < 0 && overlap != EXACT_OVERLAP) {
+			throw new IllegalArgumentException(
+				"Chunk size and overlap must not be negative.");
+		}
+		this.chunkSize = chunkSize;
+		this.chunkOverlap = overlap;
+		return this;
+	}
+
+	public ImgFactory<?> getStorage() {
+		return storage;
+	}
+
+	/**
+	 * @param storage creates the result image of chunked solving, e.g. a
+	 *          factory of disk-backed {@link net.imglib2.img.cell.CellImg}s.
+	 *          If null, the result is mapped into the scratch directory, if
+	 *          one is set, else created like the input.
+	 * @return this
+	 */
+	public SolverSettings setStorage(final ImgFactory<?> storage) {
+		this.storage = storage;
+		return this;
+	}
+
+	public ScratchPool getScratchPool() {
+		return scratchPool;
+	}
+
+	/**
+	 * Scratch images are kept in the pool between the runs of all energy ops
+	 * which use these settings. Setting the same pool on several settings
+	 * shares it between them as well.
+	 * 
+	 * @param scratchPool the pool of scratch images
+	 * @return this
+	 */
+	public SolverSettings setScratchPool(final ScratchPool scratchPool) {
+		this.scratchPool = scratchPool;
+		return this;
+	}
+
+	public boolean isSingleThreaded() {
+		return singleThreaded;
+	}
+
+	/**
+	 * Solve on the calling thread only, instead of splitting every step over
+	 * all cores. Useful if many small images are solved at the same time (see
+	 * {@link BatchSolver}).
+	 * 
+	 * @param singleThreaded true, to solve on the calling thread
+	 * @return this
+	 */
+	public SolverSettings setSingleThreaded(final boolean singleThreaded) {
+		this.singleThreaded = singleThreaded;
+		return this;
+	}
+
+	public Convolution getConvolution() {
+		return convolution;
+	}
+
+	/**
+	 * @param convolution implementation of the convolutions of the
+	 *          deconvolution problems
+	 * @return this
+	 */
+	public SolverSettings setConvolution(final Convolution convolution) {
+		this.convolution = convolution;
+		return this;
+	}
+
+	public Boundary getBoundary() {
+		return boundary;
+	}
+
+	/**
+	 * @param boundary condition of the convolutions of the deconvolution
+	 *          problems. {@link Boundary#CIRCULAR} avoids padding the images
+	 *          by the kernel size.
+	 * @return this
+	 */
+	public SolverSettings setBoundary(final Boundary boundary) {
+		this.boundary = boundary;
+		return this;
+	}
+
+	public int getParallelViews() {
+		return parallelViews;
+	}
+
+	/**
+	 * The views of multi-view problems are processed concurrently by the cost
+	 * function. The number of views in flight is limited by the free memory
+	 * and the number of cores. The result does not depend on it.
+	 * 
+	 * @param parallelViews maximum number of views which are processed at the
+	 *          same time, {@link ViewExecutor#AUTOMATIC} to decide by the
+	 *          cores and the free memory alone, 1 to process the views one
+	 *          after the other
+	 * @return this
+	 */
+	public SolverSettings setParallelViews(final int parallelViews) {
+		if (parallelViews < 0) {
+			throw new IllegalArgumentException(
+				"Number of parallel views must not be negative.");
+		}
+		this.parallelViews = parallelViews;
+		return this;
+	}
+
+	public File getScratchDirectory() {
+		return scratchDirectory;
+	}
+
+	/**
+	 * Back the dual variables and the primal images of the solver state with
+	 * memory-mapped files instead of heap arrays (see {@link MappedStorage}).
+	 * Lets large problems run with a small heap, e.g. the TGV deconvolution of
+	 * large volumes. Only {@link net.imglib2.type.numeric.real.DoubleType} and
+	 * {@link net.imglib2.type.numeric.real.FloatType} images are mapped.
+	 * 
+	 * @param scratchDirectory directory of the mapped files, null keeps the
+	 *          state on the heap
+	 * @return this
+	 */
+	public SolverSettings setScratchDirectory(final File scratchDirectory) {
+		this.scratchDirectory = scratchDirectory;
+		return this;
+	}
+
+	/**
+	 * @param images the observed images
+	 * @return the images from which the solver state is created, mapped
+	 *         templates if a scratch directory is set
+	 */
+	public <T extends RealType<T>> RandomAccessibleInterval<T>[]
+		getStateTemplates(final RandomAccessibleInterval<T>[] images)
+	{
+		if (scratchDirectory == null) {
+			return images;
+		}
+		return new MappedStorage(scratchDirectory).createTemplates(images);
+	}
+
+	/**
+	 * @param listener is notified after every samplingRate-th iteration of the
+	 *          {@link Solver}
+	 * @param samplingRate of the listener
+	 * @return this
+	 */
+	public SolverSettings addIterationListener(
+		final IterationListener<?> listener, final int samplingRate)
+	{
+		listeners.add(listener);
+		samplingRates.add(samplingRate);
+		return this;
+	}
+
+	/**
+	 * The listener is added to the {@link RegularizerSolver} of a TGV
+	 * regularizer, which runs one iteration per iteration of the
+	 * {@link Solver}. Its events report the state of the outer solver and
+	 * have no cost function energy. Other regularizers have no such solver
+	 * and ignore the listener.
+	 * 
+	 * @param listener is notified after every samplingRate-th iteration of the
+	 *          {@link RegularizerSolver}
+	 * @param samplingRate of the listener
+	 * @return this
+	 */
+	public SolverSettings addRegularizerIterationListener(
+		final IterationListener<?> listener, final int samplingRate)
+	{
+		regularizerListeners.add(listener);
+		regularizerSamplingRates.add(samplingRate);
+		return this;
+	}
+
+	/**
+	 * Add the {@link IterationListener}s of these settings to the solver, set
+	 * the block length of a {@link TemporallyBlockedSolver} and whether it
+	 * runs single-threaded.
+	 * 
+	 * @param solver which is configured
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends RealType<T>> void configure(final DefaultSolver<T> solver) {
+		if (solver instanceof TemporallyBlockedSolver) {
+			((TemporallyBlockedSolver<T>) solver).setBlockLength(temporalBlocking);
+		}
+		solver.setSingleThreaded(singleThreaded);
+		for (int i = 0; i < listeners.size(); i++) {
+			solver.addIterationListener((IterationListener<T>) listeners.get(i),
+				samplingRates.get(i));
+		}
+
+		final Object ascent = solver.regularizer.getAscent();
+		for (int i = 0; i < regularizerListeners.size(); i++) {
+			final IterationListener<T> listener =
+				(IterationListener<T>) regularizerListeners.get(i);
+			if (ascent instanceof TGV2DAscent) {
+				((TGV2DAscent<T>) ascent).addIterationListener(listener,
+					regularizerSamplingRates.get(i));
+			}
+			else if (ascent instanceof TGV3DAscent) {
+				((TGV3DAscent<T>) ascent).addIterationListener(listener,
+					regularizerSamplingRates.get(i));
+			}
+		}
+	}
+
+	/**
+	 * @param regularizer of the problem
+	 * @param costFunction of the problem
+	 * @param numViews number of views
+	 * @return the {@link Solver} class of these settings
+	 * @throws IllegalArgumentException if the {@link SolverVariant} does not
+	 *           support the problem
+	 */
+	@SuppressWarnings("rawtypes")
+	public <T extends RealType<T>> Class<? extends DefaultSolver> getSolverClass(
+		final Regularizer<T> regularizer, final CostFunction<T> costFunction,
+		final int numViews)
+	{
+		if (variant == SolverVariant.DEFAULT && temporalBlocking > 1 &&
+			TemporallyBlockedSolver.supports(regularizer, costFunction, numViews))
+		{
+			return TemporallyBlockedSolver.class;
+		}
+		if (variant == SolverVariant.ACCELERATED) {
+			if (!AcceleratedSolver.supports(regularizer, costFunction, numViews)) {
+				throw new IllegalArgumentException(
+					"The accelerated solver needs a TV regularizer and a SquaredL2Norm with identity operators.");
+			}
+			return AcceleratedSolver.class;
+		}
+		if (variant == SolverVariant.ADAPTIVE) {
+			if (!AdaptiveSolver.supports(regularizer, costFunction)) {
+				throw new IllegalArgumentException(
+					"The adaptive solver needs a TV or TV-Huber regularizer.");
+			}
+			return AdaptiveSolver.class;
+		}
+		return DefaultSolver.class;
+	}
+
+	/**
+	 * @param regularizer of the problem
+	 * @param costFunction of the problem
+	 * @return the {@link StoppingCriterion} of these settings or null, if no
+	 *         tolerance is set
+	 */
+	public <T extends RealType<T>> StoppingCriterion<T> createStoppingCriterion(
+		final Regularizer<T> regularizer, final CostFunction<T> costFunction)
+	{
+		if (tolerance <= 0) {
+			return null;
+		}
+		if (stoppingRule == StoppingRule.PRIMAL_DUAL_GAP) {
+			return new PrimalDualGap<T>(regularizer, costFunction, tolerance,
+				checkInterval);
+		}
+		return new RelativeChange<T>(tolerance);
+	}
+}
@@ -31,6 +31,7 @@
 package net.imagej.ops.fopd.solver;
 
 import net.imagej.ops.fopd.DualVariables;
+import net.imagej.ops.fopd.helper.ScratchPool;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.RealType;
 
@@ -71,4 +72,26 @@ public interface SolverState<T extends RealType<T>> {
 	int numResultImages();
 
 	int numIntermediateResults();
+
+	/**
+	 * @return the pool from which the steps borrow their scratch images
+	 */
+	ScratchPool getScratchPool();
+
+	/**
+	 * @param scratchPool to share the scratch images with other solver runs
+	 */
+	void setScratchPool(ScratchPool scratchPool);
+
+	/**
+	 * Set all dual variables, intermediate results and results back to zero,
+	 * the state of a new solver run.
+	 */
+	void reset();
+
+	/**
+	 * @return the declared and the allocated memory of this state and all
+	 *         sub-solver states
+	 */
+	Footprint getFootprint();
 }
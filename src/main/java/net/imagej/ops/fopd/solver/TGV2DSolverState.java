@@ -63,4 +63,15 @@ public class TGV2DSolverState<T extends RealType<T>> extends
 		}
 		return tgvState;
 	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		tgvState.reset();
+	}
+
+	@Override
+	public Footprint getFootprint() {
+		return super.getFootprint().add(tgvState.getFootprint());
+	}
 }
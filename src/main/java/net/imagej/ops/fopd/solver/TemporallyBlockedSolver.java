@@ -0,0 +1,512 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.solver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imagej.ops.fopd.costfunction.AbstractAscent;
+import net.imagej.ops.fopd.costfunction.AbstractCostFunctionDescent;
+import net.imagej.ops.fopd.costfunction.CostFunction;
+import net.imagej.ops.fopd.costfunction.l1norm.L1Norm;
+import net.imagej.ops.fopd.costfunction.squaredl2norm.SquaredL2Norm;
+import net.imagej.ops.fopd.helper.Energies;
+import net.imagej.ops.fopd.helper.FlatArrays;
+import net.imagej.ops.fopd.helper.TVDualUpdate;
+import net.imagej.ops.fopd.helper.TileTask;
+import net.imagej.ops.fopd.helper.TiledExecutor;
+import net.imagej.ops.fopd.operator.Identity;
+import net.imagej.ops.fopd.regularizer.Regularizer;
+import net.imagej.ops.fopd.regularizer.tv.TVAscent;
+import net.imagej.ops.fopd.regularizer.tv.TVDescent;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Temporally blocked variant of the {@link DefaultSolver} for TV and TV-Huber
+ * denoising with the {@link L1Norm} or the {@link SquaredL2Norm}.
+ * 
+ * All stencils of one iteration have radius 1. A tile which is extended by a
+ * halo of k pixels can therefore perform k iterations on its own, before the
+ * wrong values from the cut-off border reach the tile. Every tile is copied
+ * with its halo into local buffers, which stay in the cache for all k
+ * iterations, instead of streaming all images through memory in every
+ * iteration. The tiles of the k iterations are kept until all tiles are done
+ * and are written back afterwards. This needs memory for one additional copy
+ * of u, uBar and the dual variables.
+ * 
+ * On {@link net.imglib2.type.numeric.real.DoubleType} images the result is the
+ * same as the one of the {@link DefaultSolver}. Listeners and the
+ * {@link StoppingCriterion} are evaluated after every block of k iterations.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ * @param <T>
+ */
+@Plugin(type = Solver.class)
+public class TemporallyBlockedSolver<T extends RealType<T>> extends
+	DefaultSolver<T>
+{
+
+	@Parameter
+	private ThreadService ts;
+
+	/**
+	 * Number of iterations per tile.
+	 */
+	private int blockLength = 4;
+
+	private double dualStepSize;
+
+	private double lambda;
+
+	private double divisor;
+
+	private double primalStepSize;
+
+	private double costFunctionAscentStepSize;
+
+	private double costFunctionDescentStepSize;
+
+	private boolean l1;
+
+	/**
+	 * @param blockLength number of iterations per tile
+	 */
+	public void setBlockLength(final int blockLength) {
+		if (blockLength < 1) {
+			throw new IllegalArgumentException(
+				"Block length has to be positive.");
+		}
+		this.blockLength = blockLength;
+	}
+
+	@Override
+	protected int getBlockLength() {
+		return blockLength;
+	}
+
+	/**
+	 * The new values of all tiles are held as doubles until they are written
+	 * back, the halos of the tiles in flight are not counted.
+	 */
+	@Override
+	public long getBufferBytes() {
+		final SolverState<T> state = in();
+		final long numPixels = MemoryEstimator.getImageBytes(state) /
+			MemoryEstimator.getBytesPerPixel(state.getType());
+		return super.getBufferBytes() + (2 + state.getRegularizerDV()
+			.getNumDualVariables() + state.getCostFunctionDV()
+				.getNumDualVariables()) * numPixels * 8;
+	}
+
+	/**
+	 * The tiles do not borrow scratch images.
+	 */
+	@Override
+	public int getNumScratchImages() {
+		return 0;
+	}
+
+	@Override
+	protected double iterate(final SolverState<T> input) {
+		return iterate(input, 1);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	protected double iterate(final SolverState<T> input, final int steps) {
+		if (!supports(regularizer, costfunction, input.getNumViews())) {
+			throw new IllegalArgumentException(
+				"Temporal blocking needs TV or TV-Huber with L1 or squared L2 denoising.");
+		}
+		final TVDualUpdate<T> dualUpdate = ((TVAscent<T>) regularizer.getAscent())
+			.getDualUpdate();
+		dualStepSize = dualUpdate.getStepSize();
+		lambda = dualUpdate.getLambda();
+		divisor = dualUpdate.getDivisor();
+		primalStepSize = ((TVDescent<T>) regularizer.getDescent()).getStepSize();
+		costFunctionAscentStepSize = ((AbstractAscent<T>) costfunction.getAscent())
+			.getStepSize();
+		costFunctionDescentStepSize = ((AbstractCostFunctionDescent<T>) costfunction
+			.getDescent()).getStepSize();
+		l1 = costfunction instanceof L1Norm;
+
+		final RandomAccessibleInterval<T> u = input.getIntermediateResult(0);
+		final RandomAccessibleInterval<T> uBar = input.getResultImage(0);
+		final RandomAccessibleInterval<T>[] p = input.getRegularizerDV()
+			.getAllDualVariables();
+		final RandomAccessibleInterval<T>[] q = input.getCostFunctionDV()
+			.getAllDualVariables();
+		final RandomAccessibleInterval<T>[] f = new RandomAccessibleInterval[q.length];
+		for (int i = 0; i < f.length; i++) {
+			f[i] = ((AbstractAscent<T>) costfunction.getAscent()).getF(i);
+		}
+
+		// the tiles are at least 8 halos wide, to limit the redundant work
+		final int n = u.numDimensions();
+		final int numImages = 2 + p.length + 2 * q.length;
+		final long maxPixels = Math.max(TiledExecutor.L2_CACHE_SIZE / (8 *
+			numImages), (long) Math.pow(8 * blockLength, n));
+		final int numThreads = TiledExecutor.numThreads();
+		final List<Interval> tiles = TiledExecutor.tiles(u, maxPixels, 2 *
+			numThreads);
+
+		final List<Block> blocks = TiledExecutor.run(ts, tiles, numThreads,
+			new TileTask<Block>()
+		{
+
+			public Block run(final Interval tile) {
+				return solve(u, uBar, p, q, f, tile, steps);
+			}
+		});
+
+		double squaredChange = 0;
+		double squaredNorm = 0;
+		for (final Block block : blocks) {
+			squaredChange += block.squaredChange;
+			squaredNorm += block.squaredNorm;
+		}
+
+		TiledExecutor.run(ts, new ArrayList<Interval>(blocks), numThreads,
+			new TileTask<Void>()
+		{
+
+			public Void run(final Interval tile) {
+				final Block block = (Block) tile;
+				write(block.u, u, block);
+				write(block.uBar, uBar, block);
+				for (int d = 0; d < p.length; d++) {
+					write(block.p[d], p[d], block);
+				}
+				for (int i = 0; i < q.length; i++) {
+					write(block.q[i], q[i], block);
+				}
+				return null;
+			}
+		});
+
+		return Energies.relativeChange(squaredChange, squaredNorm);
+	}
+
+	/**
+	 * Perform steps iterations on tile extended by a halo of steps pixels.
+	 * 
+	 * @return the new values inside of tile
+	 */
+	private Block solve(final RandomAccessibleInterval<T> u,
+		final RandomAccessibleInterval<T> uBar,
+		final RandomAccessibleInterval<T>[] p,
+		final RandomAccessibleInterval<T>[] q,
+		final RandomAccessibleInterval<T>[] f, final Interval tile,
+		final int steps)
+	{
+		final int n = tile.numDimensions();
+		final long[] min = new long[n];
+		final long[] max = new long[n];
+		final long[] localMin = new long[n];
+		final long[] localMax = new long[n];
+		for (int d = 0; d < n; d++) {
+			min[d] = Math.max(tile.min(d) - steps, u.min(d));
+			max[d] = Math.min(tile.max(d) + steps, u.max(d));
+			localMin[d] = tile.min(d) - min[d];
+			localMax[d] = tile.max(d) - min[d];
+		}
+		final FinalInterval halo = new FinalInterval(min, max);
+		final FinalInterval local = new FinalInterval(localMin, localMax);
+		final long[] dims = Intervals.dimensionsAsLongArray(halo);
+		final int[] strides = FlatArrays.strides(halo);
+
+		final double[] localU = read(u, halo);
+		final double[] localUBar = read(uBar, halo);
+		final double[][] localP = new double[p.length][];
+		for (int d = 0; d < p.length; d++) {
+			localP[d] = read(p[d], halo);
+		}
+		final double[][] localQ = new double[q.length][];
+		final double[][] localF = new double[q.length][];
+		for (int i = 0; i < q.length; i++) {
+			localQ[i] = read(q[i], halo);
+			localF[i] = read(f[i], halo);
+		}
+
+		final Block block = new Block(tile);
+		for (int s = 0; s < steps; s++) {
+			dualUpdate(localP, localUBar, dims, strides);
+			for (int i = 0; i < q.length; i++) {
+				costFunctionAscent(localQ[i], localUBar, localF[i]);
+			}
+			primalUpdate(localP, localQ, localU, localUBar, dims, strides,
+				s == steps - 1 ? local : null, block);
+		}
+
+		block.u = crop(localU, strides, local);
+		block.uBar = crop(localUBar, strides, local);
+		block.p = new double[p.length][];
+		for (int d = 0; d < p.length; d++) {
+			block.p[d] = crop(localP[d], strides, local);
+		}
+		block.q = new double[q.length][];
+		for (int i = 0; i < q.length; i++) {
+			block.q[i] = crop(localQ[i], strides, local);
+		}
+		return block;
+	}
+
+	/**
+	 * Same as {@link net.imagej.ops.fopd.helper.DefaultTVDualUpdate} on the
+	 * local buffers.
+	 */
+	private void dualUpdate(final double[][] p, final double[] u,
+		final long[] dims, final int[] strides)
+	{
+		final int n = dims.length;
+		final FinalInterval all = new FinalInterval(dims);
+		final long[] position = new long[n];
+		final long max0 = dims[0] - 1;
+
+		final double[] values = new double[n];
+		do {
+			int i = FlatArrays.index(position, strides);
+			for (long x = 0; x <= max0; x++, i++) {
+				position[0] = x;
+				final double center = u[i];
+				double sumOfSquares = 0;
+				for (int d = 0; d < n; ++d) {
+					double gradient = 0;
+					if (position[d] < dims[d] - 1) {
+						gradient = u[i + strides[d]] - center;
+					}
+					final double value = (p[d][i] + gradient * dualStepSize) /
+						divisor;
+					values[d] = value;
+					sumOfSquares += value * value;
+				}
+
+				final double norm = Math.sqrt(sumOfSquares);
+				for (int d = 0; d < n; ++d) {
+					p[d][i] = norm > lambda ? lambda * values[d] / norm : values[d];
+				}
+			}
+		} while (FlatArrays.nextRow(position, all));
+	}
+
+	/**
+	 * Same as the ascent of the {@link L1Norm} or the {@link SquaredL2Norm} on
+	 * the local buffers.
+	 */
+	private void costFunctionAscent(final double[] q, final double[] uBar,
+		final double[] f)
+	{
+		final double stepSize = costFunctionAscentStepSize;
+		if (l1) {
+			for (int i = 0; i < q.length; i++) {
+				final double value = q[i] + (uBar[i] - f[i]) * stepSize;
+				final double norm = Math.abs(value);
+				q[i] = norm > 1 ? value / norm : value;
+			}
+		}
+		else {
+			final double divider = 1.0 + stepSize;
+			for (int i = 0; i < q.length; i++) {
+				q[i] = (q[i] + (uBar[i] - f[i]) * stepSize) / divider;
+			}
+		}
+	}
+
+	/**
+	 * Same as {@link DefaultPrimalUpdate} on the local buffers.
+	 * 
+	 * @param measured the part in which the relative change is summed up into
+	 *          block or null
+	 */
+	private void primalUpdate(final double[][] p, final double[][] q,
+		final double[] u, final double[] uBar, final long[] dims,
+		final int[] strides, final Interval measured, final Block block)
+	{
+		final int n = dims.length;
+		final FinalInterval all = new FinalInterval(dims);
+		final long[] position = new long[n];
+		final long max0 = dims[0] - 1;
+
+		double squaredChange = 0;
+		double squaredNorm = 0;
+		do {
+			boolean measuredRow = measured != null;
+			for (int d = 1; d < n && measuredRow; d++) {
+				measuredRow = position[d] >= measured.min(d) && position[d] <= measured
+					.max(d);
+			}
+
+			int i = FlatArrays.index(position, strides);
+			for (long x = 0; x <= max0; x++, i++) {
+				position[0] = x;
+				final double old = u[i];
+
+				double divergence = 0;
+				for (int d = 0; d < n; ++d) {
+					final double back = position[d] > 0 ? p[d][i - strides[d]] : 0;
+					divergence += p[d][i] - back;
+				}
+
+				double value = old + divergence * primalStepSize;
+				for (int v = 0; v < q.length; v++) {
+					value = value - q[v][i] * costFunctionDescentStepSize;
+				}
+				u[i] = value;
+				if (measuredRow && x >= measured.min(0) && x <= measured.max(0)) {
+					squaredChange += (value - old) * (value - old);
+					squaredNorm += value * value;
+				}
+
+				double extrapolated = value * 2.0 - old;
+				if (extrapolated < 0) {
+					extrapolated = 0;
+				}
+				else if (extrapolated > 1) {
+					extrapolated = 1;
+				}
+				uBar[i] = extrapolated;
+			}
+		} while (FlatArrays.nextRow(position, all));
+
+		block.squaredChange = squaredChange;
+		block.squaredNorm = squaredNorm;
+	}
+
+	/**
+	 * @param regularizer of the problem
+	 * @param costFunction of the problem
+	 * @param numViews number of views
+	 * @return true, if the problem can be solved by the
+	 *         {@link TemporallyBlockedSolver}
+	 */
+	public static <T extends RealType<T>> boolean supports(
+		final Regularizer<T> regularizer, final CostFunction<T> costFunction,
+		final int numViews)
+	{
+		if (!(regularizer.getAscent() instanceof TVAscent) || !(regularizer
+			.getDescent() instanceof TVDescent) || !(costFunction instanceof L1Norm ||
+				costFunction instanceof SquaredL2Norm) || !(costFunction
+					.getDescent() instanceof AbstractCostFunctionDescent))
+		{
+			return false;
+		}
+		final AbstractAscent<T> ascent = (AbstractAscent<T>) costFunction
+			.getAscent();
+		final AbstractCostFunctionDescent<T> descent =
+			(AbstractCostFunctionDescent<T>) costFunction.getDescent();
+		for (int i = 0; i < numViews; i++) {
+			if (!(ascent.getOperator(i) instanceof Identity) || !(descent
+				.getOperator(i) instanceof Identity))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the values of img inside of interval in flat iteration order
+	 */
+	private static <T extends RealType<T>> double[] read(
+		final RandomAccessibleInterval<T> img, final Interval interval)
+	{
+		final double[] values = new double[(int) Intervals.numElements(interval)];
+		final Cursor<T> c = Views.flatIterable(Views.interval(img, interval))
+			.cursor();
+		for (int i = 0; i < values.length; i++) {
+			values[i] = c.next().getRealDouble();
+		}
+		return values;
+	}
+
+	/**
+	 * Set the values of img inside of interval in flat iteration order.
+	 */
+	private static <T extends RealType<T>> void write(final double[] values,
+		final RandomAccessibleInterval<T> img, final Interval interval)
+	{
+		final Cursor<T> c = Views.flatIterable(Views.interval(img, interval))
+			.cursor();
+		for (int i = 0; i < values.length; i++) {
+			c.next().setReal(values[i]);
+		}
+	}
+
+	/**
+	 * @return the values inside of part in flat iteration order
+	 */
+	private static double[] crop(final double[] values, final int[] strides,
+		final Interval part)
+	{
+		final double[] cropped = new double[(int) Intervals.numElements(part)];
+		final int rowLength = (int) part.dimension(0);
+		final long[] position = Intervals.minAsLongArray(part);
+		int j = 0;
+		do {
+			System.arraycopy(values, FlatArrays.index(position, strides), cropped, j,
+				rowLength);
+			j += rowLength;
+		} while (FlatArrays.nextRow(position, part));
+		return cropped;
+	}
+
+	/**
+	 * The results of one tile.
+	 */
+	private static class Block extends FinalInterval {
+
+		private double[] u;
+
+		private double[] uBar;
+
+		private double[][] p;
+
+		private double[][] q;
+
+		private double squaredChange;
+
+		private double squaredNorm;
+
+		private Block(final Interval tile) {
+			super(tile);
+		}
+	}
+}
@@ -31,6 +31,9 @@
 package net.imagej.ops.fopd;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
 
 import net.imagej.ops.fopd.energy.deconvolution.TGVL1Deconvolution2D;
 import net.imagej.ops.fopd.energy.deconvolution.TVHuberL1Deconvolution2D;
@@ -39,11 +42,19 @@ import net.imagej.ops.fopd.energy.deconvolution.TVL1Deconvolution2D;
 import net.imagej.ops.fopd.energy.deconvolution.TVSquaredL2Deconvolution2D;
 import net.imagej.ops.fopd.energy.denoising.TGVL1Denoising2D;
 import net.imagej.ops.fopd.energy.denoising.TVHuberL1Denoising2D;
+import net.imagej.ops.fopd.energy.denoising.TVHuberSquaredL2Denoising2D;
 import net.imagej.ops.fopd.energy.denoising.TVL1Denoising2D;
+import net.imagej.ops.fopd.energy.denoising.TVSquaredL2Denoising2D;
+import net.imagej.ops.fopd.helper.MappedStorage;
+import net.imagej.ops.fopd.solver.Convolution;
+import net.imagej.ops.fopd.solver.Precision;
+import net.imagej.ops.fopd.solver.SolverSettings;
+import net.imagej.ops.fopd.solver.SolverVariant;
 import net.imglib2.Cursor;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
 import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.view.Views;
 
 import org.junit.Test;
 
@@ -109,6 +120,244 @@ public class SolverTest extends AbstractOpTest {
 		}
 	}
 
+	@Test
+	public void TVL1DenoisingFloatPrecisionTest() {
+
+		@SuppressWarnings("unchecked")
+		final Cursor<DoubleType> c = ((Img<DoubleType>) ops.run(
+			TVL1Denoising2D.class, new RandomAccessibleInterval[] { img2D }, 10,
+			new SolverSettings().setPrecision(Precision.FLOAT), 0.5)).cursor();
+		int i = 0;
+		while (c.hasNext()) {
+			c.next();
+			assertEquals("Pixel at [" + c.getDoublePosition(0) + "," + c
+				.getDoublePosition(1) + "] differs.",
+				expectedTVL1Denoising[i++], c.get().get(), 1e-5);
+		}
+	}
+
+	@Test
+	public void TVSquaredL2DenoisingAcceleratedTest() {
+		assertVariantConverges(SolverVariant.ACCELERATED, 200);
+	}
+
+	@Test
+	public void TVSquaredL2DenoisingAdaptiveTest() {
+		assertVariantConverges(SolverVariant.ADAPTIVE, 500);
+	}
+
+	@Test
+	public void TVSquaredL2DeconvolutionAdaptiveTest() {
+		final RandomAccessibleInterval<?>[] kernels =
+			new RandomAccessibleInterval[] { kernel2D };
+
+		@SuppressWarnings("unchecked")
+		final Cursor<DoubleType> e = ((Img<DoubleType>) ops.run(
+			TVSquaredL2Deconvolution2D.class, new RandomAccessibleInterval[] {
+				convolved2D }, kernels, 2000, 0.1)).cursor();
+		@SuppressWarnings("unchecked")
+		final Cursor<DoubleType> c = ((Img<DoubleType>) ops.run(
+			TVSquaredL2Deconvolution2D.class, new RandomAccessibleInterval[] {
+				convolved2D }, kernels, 500, new SolverSettings().setVariant(
+					SolverVariant.ADAPTIVE), 0.1)).cursor();
+		while (c.hasNext()) {
+			c.next();
+			assertEquals("Pixel at [" + c.getDoublePosition(0) + "," + c
+				.getDoublePosition(1) + "] differs.", e.next().get(), c.get().get(),
+				1e-3);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void TGVL1DenoisingAdaptiveUnsupportedTest() {
+		// TGV is not supported by the adaptive solver
+		ops.run(TGVL1Denoising2D.class, new RandomAccessibleInterval[] { img2D },
+			10, new SolverSettings().setVariant(SolverVariant.ADAPTIVE), 0.5, 1.0);
+	}
+
+	/**
+	 * Compares the result of a {@link SolverVariant} to the result of the
+	 * default solver after many iterations.
+	 */
+	@SuppressWarnings("unchecked")
+	private void assertVariantConverges(final SolverVariant variant,
+		final int numIt)
+	{
+		final Cursor<DoubleType> e = ((Img<DoubleType>) ops.run(
+			TVSquaredL2Denoising2D.class, new RandomAccessibleInterval[] { img2D },
+			2000, 0.5)).cursor();
+		final Cursor<DoubleType> c = ((Img<DoubleType>) ops.run(
+			TVSquaredL2Denoising2D.class, new RandomAccessibleInterval[] { img2D },
+			numIt, new SolverSettings().setVariant(variant), 0.5)).cursor();
+		while (c.hasNext()) {
+			c.next();
+			assertEquals("Pixel at [" + c.getDoublePosition(0) + "," + c
+				.getDoublePosition(1) + "] differs.", e.next().get(), c.get().get(),
+				1e-3);
+		}
+	}
+
+	@Test
+	public void TVL1DenoisingTemporalBlockingTest() {
+		assertTemporalBlockingMatches(TVL1Denoising2D.class, 0.5);
+	}
+
+	@Test
+	public void TVHuberSquaredL2DenoisingTemporalBlockingTest() {
+		assertTemporalBlockingMatches(TVHuberSquaredL2Denoising2D.class, 0.5,
+			0.05);
+	}
+
+	/**
+	 * Compares the result of the temporally blocked solver to the result of the
+	 * default solver on an image which is split into several tiles.
+	 */
+	@SuppressWarnings("unchecked")
+	private void assertTemporalBlockingMatches(final Class<?> energy,
+		final Object... parameters)
+	{
+		final Img<DoubleType> img = createPatternImage();
+		final Object[] defaultArgs = new Object[2 + parameters.length];
+		final Object[] blockedArgs = new Object[3 + parameters.length];
+		defaultArgs[0] = blockedArgs[0] = new RandomAccessibleInterval[] { img };
+		defaultArgs[1] = blockedArgs[1] = 10;
+		blockedArgs[2] = new SolverSettings().setTemporalBlocking(4);
+		System.arraycopy(parameters, 0, defaultArgs, 2, parameters.length);
+		System.arraycopy(parameters, 0, blockedArgs, 3, parameters.length);
+
+		final Cursor<DoubleType> e = ((Img<DoubleType>) ops.run(energy,
+			defaultArgs)).cursor();
+		final Cursor<DoubleType> c = ((Img<DoubleType>) ops.run(energy,
+			blockedArgs)).cursor();
+		while (c.hasNext()) {
+			c.next();
+			assertEquals("Pixel at [" + c.getDoublePosition(0) + "," + c
+				.getDoublePosition(1) + "] differs.", e.next().get(), c.get().get(),
+				1e-12);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void TVL1DenoisingChunkedTest() {
+		final Img<DoubleType> img = createPatternImage();
+		final Cursor<DoubleType> e = ((Img<DoubleType>) ops.run(
+			TVL1Denoising2D.class, new RandomAccessibleInterval[] { img }, 10,
+			0.5)).cursor();
+		final Cursor<DoubleType> c = ((Img<DoubleType>) ops.run(
+			TVL1Denoising2D.class, new RandomAccessibleInterval[] { img }, 10,
+			new SolverSettings().setChunking(32, 10), 0.5)).cursor();
+		while (c.hasNext()) {
+			c.next();
+			assertEquals("Pixel at [" + c.getDoublePosition(0) + "," + c
+				.getDoublePosition(1) + "] differs.", e.next().get(), c.get().get(),
+				1e-12);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void TVL1DenoisingChunkedDefaultOverlapTest() {
+		final Img<DoubleType> img = createPatternImage();
+		final Cursor<DoubleType> e = ((Img<DoubleType>) ops.run(
+			TVL1Denoising2D.class, new RandomAccessibleInterval[] { img }, 12,
+			0.5)).cursor();
+		final Cursor<DoubleType> c = ((Img<DoubleType>) ops.run(
+			TVL1Denoising2D.class, new RandomAccessibleInterval[] { img }, 12,
+			new SolverSettings().setChunking(32), 0.5)).cursor();
+		while (c.hasNext()) {
+			c.next();
+			assertEquals("Pixel at [" + c.getDoublePosition(0) + "," + c
+				.getDoublePosition(1) + "] differs.", e.next().get(), c.get().get(),
+				1e-12);
+		}
+	}
+
+	/**
+	 * An overlap smaller than the number of iterations is exact only at least
+	 * numIt - overlap pixels away from the borders between the chunks.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void TVL1DenoisingChunkedApproximateTest() {
+		final int numIt = 10;
+		final int chunkSize = 32;
+		final int overlap = 2;
+		final Img<DoubleType> img = createPatternImage();
+		final Cursor<DoubleType> e = ((Img<DoubleType>) ops.run(
+			TVL1Denoising2D.class, new RandomAccessibleInterval[] { img }, numIt,
+			0.5)).cursor();
+		final Cursor<DoubleType> c = ((Img<DoubleType>) ops.run(
+			TVL1Denoising2D.class, new RandomAccessibleInterval[] { img }, numIt,
+			new SolverSettings().setChunking(chunkSize, overlap), 0.5))
+				.localizingCursor();
+
+		double maxError = 0;
+		while (c.hasNext()) {
+			c.next();
+			final double error = Math.abs(e.next().get() - c.get().get());
+			long distance = Long.MAX_VALUE;
+			for (int d = 0; d < 2; d++) {
+				final long x = c.getLongPosition(d);
+				final long min = x / chunkSize * chunkSize;
+				final long max = Math.min(min + chunkSize, img.dimension(d)) - 1;
+				if (min > 0) {
+					distance = Math.min(distance, x - min);
+				}
+				if (max < img.dimension(d) - 1) {
+					distance = Math.min(distance, max - x);
+				}
+			}
+			if (distance >= numIt - overlap) {
+				assertEquals("Pixel at [" + c.getDoublePosition(0) + "," + c
+					.getDoublePosition(1) + "] differs.", 0, error, 1e-12);
+			}
+			maxError = Math.max(maxError, error);
+		}
+		assertTrue(maxError > 1e-6);
+	}
+
+	/**
+	 * The chunks run all iterations despite the tolerance and the result is
+	 * mapped like the solver state.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void TVL1DenoisingChunkedToleranceTest() {
+		final Img<DoubleType> img = createPatternImage();
+		final Cursor<DoubleType> e = ((Img<DoubleType>) ops.run(
+			TVL1Denoising2D.class, new RandomAccessibleInterval[] { img }, 10,
+			0.5)).cursor();
+		final RandomAccessibleInterval<DoubleType> result =
+			(RandomAccessibleInterval<DoubleType>) ops.run(TVL1Denoising2D.class,
+				new RandomAccessibleInterval[] { img }, 10, new SolverSettings()
+					.setChunking(32, 10).setTolerance(10).setScratchDirectory(new File(
+						System.getProperty("java.io.tmpdir"))), 0.5);
+		assertTrue(MappedStorage.isMapped(result));
+
+		final Cursor<DoubleType> c = Views.flatIterable(result).localizingCursor();
+		while (c.hasNext()) {
+			c.next();
+			assertEquals("Pixel at [" + c.getDoublePosition(0) + "," + c
+				.getDoublePosition(1) + "] differs.", e.next().get(), c.get().get(),
+				1e-12);
+		}
+	}
+
+	/**
+	 * @return a 70x50 image with a periodic pattern
+	 */
+	private Img<DoubleType> createPatternImage() {
+		final Img<DoubleType> img = ops.create().img(new int[] { 70, 50 });
+		final Cursor<DoubleType> c = img.cursor();
+		while (c.hasNext()) {
+			c.fwd();
+			c.get().set(((c.getIntPosition(0) * 7 + c.getIntPosition(1) * 13) %
+				10) / 10.0);
+		}
+		return img;
+	}
+
 	@Test
 	public void TVHuberL1DenoisingTest() {
 
@@ -158,6 +407,24 @@ public class SolverTest extends AbstractOpTest {
 		}
 	}
 
+	@Test
+	public void TVL1DeconvolutionSpectralTest() {
+
+		@SuppressWarnings("unchecked")
+		final Cursor<DoubleType> c = ((Img<DoubleType>) ops.run(
+			TVL1Deconvolution2D.class, new RandomAccessibleInterval[] {
+				convolved2D }, new RandomAccessibleInterval[] { kernel2D }, 10,
+			new SolverSettings().setConvolution(Convolution.SPECTRAL), 0.1))
+				.cursor();
+		int i = 0;
+		while (c.hasNext()) {
+			c.next();
+			assertEquals("Pixel at [" + c.getDoublePosition(0) + "," + c
+				.getDoublePosition(1) + "] differs.",
+				expectedTVL1Deconvolution[i++], c.get().get(), 1e-5);
+		}
+	}
+
 	@Test
 	public void TVHuberL1DeconvolutionTest() {
 
@@ -246,4 +513,67 @@ public class SolverTest extends AbstractOpTest {
 				expectedTVKLDivMultiViewDeconvolution[i++], c.get().get(), 0);
 		}
 	}
+
+	@Test
+	public void TVKLDivMultiViewSequentialDeconvolutionTest() {
+
+		@SuppressWarnings("unchecked")
+		Cursor<DoubleType> c = ((Img<DoubleType>) ops.run(
+			TVKLDivDeconvolution2D.class, new RandomAccessibleInterval[] { ops
+				.copy().img(convolved2D), ops.copy().img(convolved2D) },
+			new RandomAccessibleInterval[] { kernel2D, kernel2D }, 10,
+			new SolverSettings().setParallelViews(1), 0.1)).cursor();
+		int i = 0;
+		while (c.hasNext()) {
+			c.next();
+			assertEquals("Pixel at [" + c.getDoublePosition(0) + "," + c
+				.getDoublePosition(1) + "] differs.",
+				expectedTVKLDivMultiViewDeconvolution[i++], c.get().get(), 0);
+		}
+	}
+
+	@Test
+	public void TVL1MultiViewParallelDeconvolutionTest() {
+		final RandomAccessibleInterval<?>[] kernels =
+			new RandomAccessibleInterval[] { kernel2D, kernel2D, kernel2D };
+
+		@SuppressWarnings("unchecked")
+		Cursor<DoubleType> serial = ((Img<DoubleType>) ops.run(
+			TVL1Deconvolution2D.class, new RandomAccessibleInterval[] { ops.copy()
+				.img(convolved2D), ops.copy().img(img2D), ops.copy().img(
+					convolved2D) }, kernels, 10, new SolverSettings()
+						.setParallelViews(1), 0.1)).cursor();
+		@SuppressWarnings("unchecked")
+		Cursor<DoubleType> parallel = ((Img<DoubleType>) ops.run(
+			TVL1Deconvolution2D.class, new RandomAccessibleInterval[] { ops.copy()
+				.img(convolved2D), ops.copy().img(img2D), ops.copy().img(
+					convolved2D) }, kernels, 10, new SolverSettings()
+						.setParallelViews(3), 0.1)).cursor();
+		while (serial.hasNext()) {
+			serial.next();
+			parallel.next();
+			assertEquals("Pixel at [" + serial.getDoublePosition(0) + "," + serial
+				.getDoublePosition(1) + "] differs.", serial.get().get(), parallel
+					.get().get(), 0);
+		}
+	}
+
+	@Test
+	public void TVKLDivMultiViewSpectralDeconvolutionTest() {
+
+		@SuppressWarnings("unchecked")
+		Cursor<DoubleType> c = ((Img<DoubleType>) ops.run(
+			TVKLDivDeconvolution2D.class, new RandomAccessibleInterval[] { ops
+				.copy().img(convolved2D), ops.copy().img(convolved2D) },
+			new RandomAccessibleInterval[] { kernel2D, kernel2D }, 10,
+			new SolverSettings().setConvolution(Convolution.SPECTRAL), 0.1))
+				.cursor();
+		int i = 0;
+		while (c.hasNext()) {
+			c.next();
+			assertEquals("Pixel at [" + c.getDoublePosition(0) + "," + c
+				.getDoublePosition(1) + "] differs.",
+				expectedTVKLDivMultiViewDeconvolution[i++], c.get().get(), 1e-5);
+		}
+	}
 }
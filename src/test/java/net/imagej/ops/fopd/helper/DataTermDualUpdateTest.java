@@ -0,0 +1,98 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.helper;
+
+import static org.junit.Assert.assertEquals;
+
+import net.imagej.ops.fopd.AbstractOpTest;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+/**
+ * Tests of the fused L1-Norm and squared L2-Norm dual updates.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public class DataTermDualUpdateTest extends AbstractOpTest {
+
+	@Test
+	public void l1DualUpdateTest() {
+		final Img<DoubleType> q = ops.copy().img(posNegImg2D);
+		update(DefaultL1DualUpdate.class, q, 4.0);
+
+		final Cursor<DoubleType> c = Views.flatIterable(q).cursor();
+		final Cursor<DoubleType> q0 = Views.flatIterable(posNegImg2D).cursor();
+		final Cursor<DoubleType> k = Views.flatIterable(img2D).cursor();
+		while (c.hasNext()) {
+			final double value = q0.next().get() + (k.next().get() - 0.25) * 4.0;
+			assertEquals("L1 dual update differs", Math.max(-1, Math.min(1,
+				value)), c.next().get(), 0);
+		}
+	}
+
+	@Test
+	public void squaredL2DualUpdateTest() {
+		final Img<DoubleType> q = ops.copy().img(posNegImg2D);
+		update(DefaultSquaredL2DualUpdate.class, q, 0.5);
+
+		final Cursor<DoubleType> c = Views.flatIterable(q).cursor();
+		final Cursor<DoubleType> q0 = Views.flatIterable(posNegImg2D).cursor();
+		final Cursor<DoubleType> k = Views.flatIterable(img2D).cursor();
+		while (c.hasNext()) {
+			final double value = (q0.next().get() + (k.next().get() - 0.25) *
+				0.5) / 1.5;
+			assertEquals("Squared L2 dual update differs", value, c.next().get(),
+				0);
+		}
+	}
+
+	/**
+	 * Update q with Ku = img2D and f = 0.25.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void update(final Class<? extends DataTermDualUpdate> op,
+		final Img<DoubleType> q, final double stepSize)
+	{
+		final Img<DoubleType> f = ops.create().img(img2D);
+		for (final DoubleType value : f) {
+			value.set(0.25);
+		}
+		final DataTermDualUpdate<DoubleType> dualUpdate = ops.op(op,
+			RandomAccessibleInterval.class, RandomAccessibleInterval.class, f,
+			stepSize);
+		dualUpdate.mutate1(q, img2D);
+	}
+}
@@ -0,0 +1,95 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.helper;
+
+import static org.junit.Assert.assertEquals;
+
+import net.imagej.ops.fopd.AbstractOpTest;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+/**
+ * Tests of the fused KL dual update.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public class KLDualUpdateTest extends AbstractOpTest {
+
+	@Test
+	public void klDualUpdateTest() {
+		final Img<DoubleType> q = ops.create().img(img2D);
+		final KLDualUpdate<DoubleType> dualUpdate = createDualUpdate(0.5);
+
+		dualUpdate.mutate1(q, posNegImg2D);
+		check(q, ops.create().img(img2D), 0.5);
+	}
+
+	@Test
+	public void stepSizeChangeTest() {
+		final Img<DoubleType> q = ops.create().img(img2D);
+		final KLDualUpdate<DoubleType> dualUpdate = createDualUpdate(0.5);
+		dualUpdate.mutate1(ops.create().img(img2D), posNegImg2D);
+
+		// 4 * stepSize * f has to be recomputed
+		dualUpdate.setStepSize(0.25);
+		dualUpdate.mutate1(q, posNegImg2D);
+		check(q, ops.create().img(img2D), 0.25);
+	}
+
+	@SuppressWarnings("unchecked")
+	private KLDualUpdate<DoubleType> createDualUpdate(final double stepSize) {
+		return ops.op(DefaultKLDualUpdate.class, RandomAccessibleInterval.class,
+			RandomAccessibleInterval.class, img2D, stepSize);
+	}
+
+	/**
+	 * Compare q with the closed-form update of q0.
+	 */
+	private void check(final RandomAccessibleInterval<DoubleType> q,
+		final RandomAccessibleInterval<DoubleType> q0, final double stepSize)
+	{
+		final Cursor<DoubleType> c = Views.flatIterable(q).cursor();
+		final Cursor<DoubleType> c0 = Views.flatIterable(q0).cursor();
+		final Cursor<DoubleType> k = Views.flatIterable(posNegImg2D).cursor();
+		final Cursor<DoubleType> f = Views.flatIterable(img2D).cursor();
+		while (c.hasNext()) {
+			final double s = c0.next().get() + k.next().get() * stepSize;
+			final double expected = 0.5 * (1.0 + s) - 0.5 * Math.sqrt(Math.pow(s -
+				1, 2) + f.next().get() * (4.0 * stepSize));
+			assertEquals("KLDualUpdate differs", expected, c.next().get(), 0);
+		}
+	}
+}
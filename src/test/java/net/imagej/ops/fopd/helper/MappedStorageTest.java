@@ -0,0 +1,163 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.helper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import net.imagej.ops.fopd.AbstractOpTest;
+import net.imagej.ops.fopd.energy.denoising.TVL1Denoising2D;
+import net.imagej.ops.fopd.solver.DefaultSolverState;
+import net.imagej.ops.fopd.solver.SolverSettings;
+import net.imagej.ops.fopd.solver.SolverState;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+/**
+ * Tests of the {@link MappedStorage}.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public class MappedStorageTest extends AbstractOpTest {
+
+	@Test
+	public void mappedImageTest() throws IOException {
+		final MappedStorage storage = new MappedStorage(createDirectory());
+		final RandomAccessibleInterval<DoubleType> img = storage.create(ops,
+			img2D);
+
+		assertTrue(MappedStorage.isMapped(img));
+		assertFalse(FlatArrays.isDoubles(img));
+		assertEquals(0, img.randomAccess().get().get(), 0);
+
+		FlatArrays.copy(img2D, img);
+		final Cursor<DoubleType> expected = Views.flatIterable(img2D).cursor();
+		final Cursor<DoubleType> actual = Views.flatIterable(img).cursor();
+		while (expected.hasNext()) {
+			assertEquals(expected.next().get(), actual.next().get(), 0);
+		}
+
+		// images like a mapped image are mapped by the same storage
+		final RandomAccessibleInterval<DoubleType> like = FlatArrays.create(ops,
+			img);
+		assertTrue(MappedStorage.isMapped(like));
+		assertSame(storage, MappedStorage.getStorage(like));
+	}
+
+	@Test
+	public void templateTest() throws IOException {
+		final MappedStorage storage = new MappedStorage(createDirectory());
+		@SuppressWarnings("unchecked")
+		final RandomAccessibleInterval<DoubleType>[] templates = storage
+			.createTemplates(new RandomAccessibleInterval[] { img2D, img2D });
+
+		assertEquals(2, templates.length);
+		assertTrue(MappedStorage.isMapped(templates[0]));
+		assertSame(storage, MappedStorage.getStorage(templates[0]));
+
+		// images like a template are mapped with the dimensions of the template
+		final RandomAccessibleInterval<DoubleType> like = FlatArrays.create(ops,
+			templates[0]);
+		assertTrue(MappedStorage.isMapped(like));
+		assertTrue(Intervals.equalDimensions(img2D, like));
+		assertEquals(0, like.randomAccess().get().get(), 0);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void largeStateTest() throws IOException {
+		// more pixels than an array can hold, the files stay sparse
+		final long[] dims = new long[] { 1 << 16, 1 << 14, 3 };
+		final RandomAccessibleInterval<FloatType> image = Views.interval(Views
+			.extendZero(ArrayImgs.floats(1, 1, 1)), new FinalInterval(dims));
+		final MappedStorage storage = new MappedStorage(createDirectory());
+		final SolverState<FloatType> state = new DefaultSolverState<FloatType>(
+			ops, storage.createTemplates(new RandomAccessibleInterval[] { image }),
+			1);
+
+		final RandomAccessibleInterval<FloatType> result = state.getResultImage(
+			0);
+		assertTrue(MappedStorage.isMapped(result));
+		assertTrue(Intervals.numElements(result) > Integer.MAX_VALUE);
+		assertTrue(MappedStorage.isMapped(state.getRegularizerDV()
+			.getDualVariable(2)));
+
+		final RandomAccess<FloatType> ra = result.randomAccess();
+		ra.setPosition(new long[] { dims[0] - 1, dims[1] - 1, dims[2] - 1 });
+		ra.get().set(1);
+		ra.setPosition(new long[] { 0, 0, 0 });
+		assertEquals(0, ra.get().get(), 0);
+		ra.setPosition(new long[] { dims[0] - 1, dims[1] - 1, dims[2] - 1 });
+		assertEquals(1, ra.get().get(), 0);
+	}
+
+	@Test
+	public void mappedSolverTest() throws IOException {
+		@SuppressWarnings("unchecked")
+		final Img<DoubleType> expected = (Img<DoubleType>) ops.run(
+			TVL1Denoising2D.class, new RandomAccessibleInterval[] { img2D }, 10,
+			0.5);
+		@SuppressWarnings("unchecked")
+		final RandomAccessibleInterval<DoubleType> actual =
+			(RandomAccessibleInterval<DoubleType>) ops.run(TVL1Denoising2D.class,
+				new RandomAccessibleInterval[] { img2D }, 10, new SolverSettings()
+					.setScratchDirectory(createDirectory()), 0.5);
+
+		assertFalse(MappedStorage.isMapped(actual));
+		final Cursor<DoubleType> e = expected.cursor();
+		final Cursor<DoubleType> a = Views.flatIterable(actual).cursor();
+		while (e.hasNext()) {
+			assertEquals(e.next().get(), a.next().get(), 1e-10);
+		}
+	}
+
+	private File createDirectory() throws IOException {
+		final File directory = Files.createTempDirectory("fopd").toFile();
+		directory.deleteOnExit();
+		return directory;
+	}
+}
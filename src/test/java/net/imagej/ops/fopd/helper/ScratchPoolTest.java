@@ -0,0 +1,83 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.helper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import net.imagej.ops.fopd.AbstractOpTest;
+import net.imagej.ops.fopd.energy.denoising.TGVL1Denoising2D;
+import net.imagej.ops.fopd.solver.SolverSettings;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.real.DoubleType;
+
+import org.junit.Test;
+
+/**
+ * Tests of the {@link ScratchPool}.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public class ScratchPoolTest extends AbstractOpTest {
+
+	@Test
+	public void borrowReleaseTest() {
+		final ScratchPool pool = new ScratchPool();
+		final Img<DoubleType> small = ops.create().img(new int[] { 3, 3 });
+		final Img<DoubleType> large = ops.create().img(new int[] { 3, 4 });
+
+		final RandomAccessibleInterval<DoubleType> a = pool.borrow(ops, small);
+		final RandomAccessibleInterval<DoubleType> b = pool.borrow(ops, small);
+		assertNotSame(a, b);
+		pool.release(a);
+
+		assertSame(a, pool.borrow(ops, small));
+		assertEquals(4, pool.borrow(ops, large).dimension(1));
+		assertEquals(3, pool.getNumCreated());
+	}
+
+	@Test
+	public void reuseBetweenRunsTest() {
+		final SolverSettings settings = new SolverSettings();
+
+		ops.run(TGVL1Denoising2D.class, new RandomAccessibleInterval[] { img2D },
+			3, settings, 0.5, 1.0);
+		final long created = settings.getScratchPool().getNumCreated();
+		assertTrue(created > 0);
+
+		ops.run(TGVL1Denoising2D.class, new RandomAccessibleInterval[] { img2D },
+			3, settings, 0.5, 1.0);
+		assertEquals(created, settings.getScratchPool().getNumCreated());
+	}
+}
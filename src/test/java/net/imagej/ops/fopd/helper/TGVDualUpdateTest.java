@@ -0,0 +1,120 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.helper;
+
+import static org.junit.Assert.assertEquals;
+
+import net.imagej.ops.fopd.AbstractOpTest;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+/**
+ * Tests of the fused TGV dual update.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public class TGVDualUpdateTest extends AbstractOpTest {
+
+	private static double[] expectedXX = new double[] { -0.5, 0.5, 0, -0.5, 0.5,
+		0, -0.5, 0.5, 0 };
+	private static double[] expectedXY = new double[] { -0.25, 0.25, 0, -0.25,
+		0.25, 0, -0.25, 0.25, 0 };
+	private static double[] expectedProjectedXX = new double[] {
+		-0.4082482904638631, 0.4082482904638631, 0, -0.4082482904638631,
+		0.4082482904638631, 0, -0.4082482904638631, 0.4082482904638631, 0 };
+	private static double[] expectedProjectedXY = new double[] {
+		-0.20412414523193154, 0.20412414523193154, 0, -0.20412414523193154,
+		0.20412414523193154, 0, -0.20412414523193154, 0.20412414523193154, 0 };
+	private static double[] expectedYY = new double[9];
+
+	@Test
+	public void tgvDualUpdateTest() {
+		final RandomAccessibleInterval<DoubleType>[] w = update(1.0);
+
+		check(w[0], expectedXX);
+		check(w[1], expectedXY);
+		check(w[2], expectedYY);
+	}
+
+	@Test
+	public void tgvProjectedDualUpdateTest() {
+		final RandomAccessibleInterval<DoubleType>[] w = update(0.5);
+
+		check(w[0], expectedProjectedXX);
+		check(w[1], expectedProjectedXY);
+		check(w[2], expectedYY);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void wrongNumberOfDualVariablesTest() {
+		@SuppressWarnings("unchecked")
+		final RandomAccessibleInterval<DoubleType>[] w =
+			new RandomAccessibleInterval[] { ops.create().img(img2D), ops.create()
+				.img(img2D) };
+		createDualUpdate(1.0).mutate1(w, vectorField());
+	}
+
+	@SuppressWarnings("unchecked")
+	private RandomAccessibleInterval<DoubleType>[] update(final double beta) {
+		final RandomAccessibleInterval<DoubleType>[] w =
+			new RandomAccessibleInterval[] { ops.create().img(img2D), ops.create()
+				.img(img2D), ops.create().img(img2D) };
+
+		createDualUpdate(beta).mutate1(w, vectorField());
+
+		return w;
+	}
+
+	@SuppressWarnings("unchecked")
+	private TGVDualUpdate<DoubleType> createDualUpdate(final double beta) {
+		return ops.op(DefaultTGVDualUpdate.class, RandomAccessibleInterval[].class,
+			RandomAccessibleInterval[].class, 0.5, beta);
+	}
+
+	@SuppressWarnings("unchecked")
+	private RandomAccessibleInterval<DoubleType>[] vectorField() {
+		return new RandomAccessibleInterval[] { img2D, img2D };
+	}
+
+	private void check(final RandomAccessibleInterval<DoubleType> w,
+		final double[] expected)
+	{
+		final Cursor<DoubleType> c = Views.flatIterable(w).cursor();
+		int i = 0;
+		while (c.hasNext()) {
+			assertEquals("TGVDualUpdate differs", expected[i++], c.next().get(), 0);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.helper;
+
+import static org.junit.Assert.assertEquals;
+
+import net.imagej.ops.fopd.AbstractOpTest;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+/**
+ * Tests of the fused TV dual update.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public class TVDualUpdateTest extends AbstractOpTest {
+
+	private static double[] expectedTVX = new double[] { -0.1,
+		0.07071067811865475, 0, 0, 0, 0, -0.1, 0.1, 0 };
+	private static double[] expectedTVY = new double[] { 0,
+		0.07071067811865475, 0, 0, -0.1, 0, 0, 0, 0 };
+	private static double[] expectedHuberX = new double[] { -0.25, 0.25, 0, 0,
+		0, 0, -0.25, 0.25, 0 };
+	private static double[] expectedHuberY = new double[] { 0, 0.25, 0, 0,
+		-0.25, 0, 0, 0, 0 };
+
+	@Test
+	public void tvDualUpdateTest() {
+		final RandomAccessibleInterval<DoubleType>[] p = update(0.1, 1.0);
+
+		check(p[0], expectedTVX);
+		check(p[1], expectedTVY);
+	}
+
+	@Test
+	public void tvHuberDualUpdateTest() {
+		final RandomAccessibleInterval<DoubleType>[] p = update(1.0, 2.0);
+
+		check(p[0], expectedHuberX);
+		check(p[1], expectedHuberY);
+	}
+
+	@SuppressWarnings("unchecked")
+	private RandomAccessibleInterval<DoubleType>[] update(final double lambda,
+		final double divisor)
+	{
+		final RandomAccessibleInterval<DoubleType>[] p =
+			new RandomAccessibleInterval[] { ops.create().img(img2D), ops.create()
+				.img(img2D) };
+
+		final TVDualUpdate<DoubleType> dualUpdate = ops.op(
+			DefaultTVDualUpdate.class, RandomAccessibleInterval[].class,
+			RandomAccessibleInterval.class, 0.5, lambda, divisor);
+		dualUpdate.mutate1(p, img2D);
+
+		return p;
+	}
+
+	private void check(final RandomAccessibleInterval<DoubleType> p,
+		final double[] expected)
+	{
+		final Cursor<DoubleType> c = Views.flatIterable(p).cursor();
+		int i = 0;
+		while (c.hasNext()) {
+			assertEquals("TVDualUpdate differs", expected[i++], c.next().get(), 0);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.helper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import net.imagej.ops.fopd.AbstractOpTest;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.util.Intervals;
+
+import org.junit.Test;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Test for {@link TiledExecutor}.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public class TiledExecutorTest extends AbstractOpTest {
+
+	private final Interval interval = new FinalInterval(new long[] { 2, -3, 0 },
+		new long[] { 38, 15, 4 });
+
+	@Test
+	public void tilesCoverIntervalTest() {
+		final List<Interval> tiles = TiledExecutor.tiles(interval, 50, 8);
+		assertTrue("Too few tiles", tiles.size() >= 8);
+
+		final int[] covered = new int[(int) Intervals.numElements(interval)];
+		final int[] strides = FlatArrays.strides(interval);
+		for (final Interval tile : tiles) {
+			assertTrue("Tile too large", Intervals.numElements(tile) <= 50);
+			for (int d = 0; d < tile.numDimensions(); d++) {
+				assertTrue("Tile outside", tile.min(d) >= interval.min(d) && tile.max(
+					d) <= interval.max(d));
+			}
+			final long[] position = Intervals.minAsLongArray(tile);
+			do {
+				for (long x = tile.min(0); x <= tile.max(0); x++) {
+					position[0] = x;
+					int i = 0;
+					for (int d = 0; d < position.length; d++) {
+						i += (int) (position[d] - interval.min(d)) * strides[d];
+					}
+					covered[i]++;
+				}
+			}
+			while (FlatArrays.nextRow(position, tile));
+		}
+
+		for (int i = 0; i < covered.length; i++) {
+			assertEquals("Pixel " + i + " not covered once", 1, covered[i]);
+		}
+	}
+
+	@Test
+	public void runKeepsTileOrderTest() {
+		final List<Interval> tiles = TiledExecutor.tiles(interval, 50, 8);
+		final List<Long> sizes = TiledExecutor.run(context.service(
+			ThreadService.class), tiles, 4, new TileTask<Long>()
+		{
+
+			public Long run(final Interval tile) {
+				return Intervals.numElements(tile);
+			}
+		});
+
+		long sum = 0;
+		for (int i = 0; i < tiles.size(); i++) {
+			assertEquals("Result out of order", Intervals.numElements(tiles.get(i)),
+				sizes.get(i).longValue());
+			sum += sizes.get(i);
+		}
+		assertEquals("Pixels lost", Intervals.numElements(interval), sum);
+	}
+
+	@Test
+	public void sequentialRunTest() {
+		final Thread caller = Thread.currentThread();
+		final boolean wasSequential = TiledExecutor.setSequential(true);
+		try {
+			assertEquals(1, TiledExecutor.numThreads());
+			final List<Boolean> onCaller = TiledExecutor.run(context.service(
+				ThreadService.class), TiledExecutor.tiles(interval, 50, 8), 4,
+				new TileTask<Boolean>()
+				{
+
+					public Boolean run(final Interval tile) {
+						return Thread.currentThread() == caller;
+					}
+				});
+			for (final Boolean b : onCaller) {
+				assertTrue("Tile run by another thread", b);
+			}
+		}
+		finally {
+			TiledExecutor.setSequential(wasSequential);
+		}
+		assertFalse(TiledExecutor.isSequential());
+	}
+}
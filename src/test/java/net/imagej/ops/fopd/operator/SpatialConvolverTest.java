@@ -0,0 +1,118 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.operator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import net.imagej.ops.fopd.AbstractOpTest;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+/**
+ * Test of {@link SpatialConvolver}.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public class SpatialConvolverTest extends AbstractOpTest {
+
+	@Test
+	public void sameAsFFTTest() {
+		assertNull(SpatialConvolver.separate(kernel2D));
+		assertSameAsFFT(kernel2D);
+	}
+
+	@Test
+	public void separableTest() {
+		final Img<DoubleType> separable = ops.create().img(new int[] { 3, 3 });
+		final double[] x = new double[] { 0.25, 0.5, 0.25 };
+		final double[] y = new double[] { 0.2, 0.6, 0.2 };
+		final Cursor<DoubleType> c = separable.localizingCursor();
+		while (c.hasNext()) {
+			c.fwd();
+			c.get().set(x[c.getIntPosition(0)] * y[c.getIntPosition(1)]);
+		}
+
+		assertNotNull(SpatialConvolver.separate(separable));
+		assertSameAsFFT(separable);
+	}
+
+	@Test
+	public void circularAdjointTest() {
+		final Img<DoubleType> y = ops.copy().img(img2D);
+		for (final DoubleType t : y) {
+			t.set(1 - 0.5 * t.get());
+		}
+
+		@SuppressWarnings("unchecked")
+		final SpatialConvolver<DoubleType> convolver = ops.op(
+			SpatialConvolver.class, img2D, kernel2D, Boundary.CIRCULAR);
+
+		// <Kx, y> = <x, K*y>
+		assertEquals(dot(convolver.calculate(img2D), y), dot(img2D, convolver
+			.getAdjoint().calculate(y)), 1e-12);
+	}
+
+	private void assertSameAsFFT(final Img<DoubleType> kernel) {
+		@SuppressWarnings("unchecked")
+		final RandomAccessibleInterval<DoubleType> expected =
+			(RandomAccessibleInterval<DoubleType>) ops.run(FastConvolver.class,
+				img2D, kernel);
+		@SuppressWarnings("unchecked")
+		final RandomAccessibleInterval<DoubleType> actual =
+			(RandomAccessibleInterval<DoubleType>) ops.run(SpatialConvolver.class,
+				img2D, kernel);
+
+		final Cursor<DoubleType> e = Views.flatIterable(expected).cursor();
+		final Cursor<DoubleType> a = Views.flatIterable(actual).cursor();
+		while (e.hasNext()) {
+			assertEquals(e.next().get(), a.next().get(), 1e-5);
+		}
+	}
+
+	private double dot(final RandomAccessibleInterval<DoubleType> a,
+		final RandomAccessibleInterval<DoubleType> b)
+	{
+		final Cursor<DoubleType> ca = Views.flatIterable(a).cursor();
+		final Cursor<DoubleType> cb = Views.flatIterable(b).cursor();
+		double sum = 0;
+		while (ca.hasNext()) {
+			sum += ca.next().get() * cb.next().get();
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,121 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.operator;
+
+import static org.junit.Assert.assertEquals;
+
+import net.imagej.ops.fopd.AbstractOpTest;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+/**
+ * Test of {@link SpectralConvolver} with {@link Boundary#CIRCULAR}.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public class SpectralConvolverTest extends AbstractOpTest {
+
+	private static final int SIZE = 6;
+
+	@Test
+	public void circularConvolutionTest() {
+		final Img<DoubleType> img = createImage();
+
+		@SuppressWarnings("unchecked")
+		final SpectralConvolver<DoubleType> convolver = ops.op(
+			SpectralConvolver.class, img, kernel2D, Boundary.CIRCULAR);
+
+		final RandomAccessibleInterval<DoubleType> result = convolver.calculate(
+			img);
+		final RandomAccess<DoubleType> imgRA = img.randomAccess();
+		final RandomAccess<DoubleType> kernelRA = kernel2D.randomAccess();
+		final Cursor<DoubleType> c = Views.flatIterable(result).localizingCursor();
+		while (c.hasNext()) {
+			c.fwd();
+			double expected = 0;
+			for (int j = 0; j < 3; j++) {
+				for (int i = 0; i < 3; i++) {
+					kernelRA.setPosition(new int[] { i, j });
+					imgRA.setPosition(new int[] { (c.getIntPosition(0) - i + 1 +
+						SIZE) % SIZE, (c.getIntPosition(1) - j + 1 + SIZE) % SIZE });
+					expected += kernelRA.get().get() * imgRA.get().get();
+				}
+			}
+			assertEquals(expected, c.get().get(), 1e-5);
+		}
+	}
+
+	@Test
+	public void circularAdjointTest() {
+		final Img<DoubleType> x = createImage();
+		final Img<DoubleType> y = ops.copy().img(x);
+		for (final DoubleType t : y) {
+			t.set(1 - t.get() * t.get());
+		}
+
+		@SuppressWarnings("unchecked")
+		final SpectralConvolver<DoubleType> convolver = ops.op(
+			SpectralConvolver.class, x, kernel2D, Boundary.CIRCULAR);
+
+		// <Kx, y> = <x, K*y>
+		assertEquals(dot(convolver.calculate(x), y), dot(x, convolver
+			.getAdjoint().calculate(y)), 1e-5);
+	}
+
+	private Img<DoubleType> createImage() {
+		final Img<DoubleType> img = ops.create().img(new int[] { SIZE, SIZE });
+		final Cursor<DoubleType> c = img.localizingCursor();
+		while (c.hasNext()) {
+			c.fwd();
+			c.get().set(((c.getIntPosition(0) * 7 + c.getIntPosition(1) * 3) % 5) /
+				4.0);
+		}
+		return img;
+	}
+
+	private double dot(final RandomAccessibleInterval<DoubleType> a,
+		final RandomAccessibleInterval<DoubleType> b)
+	{
+		final Cursor<DoubleType> ca = Views.flatIterable(a).cursor();
+		final Cursor<DoubleType> cb = Views.flatIterable(b).cursor();
+		double sum = 0;
+		while (ca.hasNext()) {
+			sum += ca.next().get() * cb.next().get();
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,154 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.solver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imagej.ops.fopd.AbstractOpTest;
+import net.imagej.ops.fopd.energy.denoising.TGVL1Denoising2D;
+import net.imagej.ops.fopd.energy.denoising.TVL1Denoising2D;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.real.DoubleType;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Tests that the iterations of a {@link Solver} do not allocate images. All
+ * buffers have to be created during the first iteration.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public class AllocationTest extends AbstractOpTest {
+
+	private static final int SIZE = 256;
+
+	@Test
+	public void TVL1DenoisingAllocationTest() {
+		assertNoImageAllocations(TVL1Denoising2D.class, 0.5);
+	}
+
+	@Test
+	public void TGVL1DenoisingAllocationTest() {
+		assertNoImageAllocations(TGVL1Denoising2D.class, 0.5, 1.0);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void TGV3DFootprintTest() {
+		final TGV3DSolverState<DoubleType> state = new TGV3DSolverState<DoubleType>(
+			ops, new RandomAccessibleInterval[] { img3D }, 1);
+
+		// 3 + 1 dual variables and 2 results, 6 + 0 dual variables and 6 results
+		assertEquals(18, state.getFootprint().getDeclaredImages());
+		assertEquals(18 * 8 * 27, state.getFootprint().getDeclaredBytes());
+		assertEquals(0, state.getFootprint().getAllocatedImages());
+
+		state.getSubSolverState(0).getRegularizerDV().getAllDualVariables();
+		state.getSubSolverState(0).getResultImage(2);
+		state.reset();
+
+		assertEquals(7, state.getFootprint().getAllocatedImages());
+		assertEquals(7 * 8 * 27, state.getFootprint().getAllocatedBytes());
+	}
+
+	/**
+	 * Runs the energy for 6 iterations and asserts that every iteration after
+	 * the first allocates less memory than one image.
+	 * 
+	 * @param energy to run
+	 * @param parameters of the energy
+	 */
+	private void assertNoImageAllocations(final Class<?> energy,
+		final Object... parameters)
+	{
+		final com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		final List<Long> allocated = new ArrayList<Long>();
+		final IterationListener<DoubleType> listener =
+			new IterationListener<DoubleType>() {
+
+				public void iterationFinished(final IterationEvent<DoubleType> event) {
+					allocated.add(allocatedBytes(threads));
+				}
+			};
+
+		final Object[] args = new Object[3 + parameters.length];
+		args[0] = new RandomAccessibleInterval[] { createImage() };
+		args[1] = 6;
+		args[2] = new SolverSettings().addIterationListener(listener, 1);
+		System.arraycopy(parameters, 0, args, 3, parameters.length);
+		ops.run(energy, args);
+
+		final long imageSize = 8L * SIZE * SIZE;
+		for (int i = 0; i < allocated.size() - 1; i++) {
+			final long perIteration = allocated.get(i + 1) - allocated.get(i);
+			assertTrue("Iteration " + (i + 2) + " allocated " + perIteration +
+				" bytes.", perIteration < imageSize);
+		}
+	}
+
+	/**
+	 * @return bytes allocated by all live threads
+	 */
+	private long allocatedBytes(
+		final com.sun.management.ThreadMXBean threads)
+	{
+		long sum = 0;
+		for (final long bytes : threads.getThreadAllocatedBytes(threads
+			.getAllThreadIds()))
+		{
+			sum += Math.max(bytes, 0);
+		}
+		return sum;
+	}
+
+	private Img<DoubleType> createImage() {
+		final Img<DoubleType> img = ops.create().img(new int[] { SIZE, SIZE });
+		final Cursor<DoubleType> c = img.localizingCursor();
+		while (c.hasNext()) {
+			c.fwd();
+			c.get().set(((c.getIntPosition(0) * 7 + c.getIntPosition(1) * 13) %
+				10) / 10.0);
+		}
+		return img;
+	}
+}
@@ -0,0 +1,318 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.solver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imagej.ops.fopd.AbstractOpTest;
+import net.imagej.ops.fopd.costfunction.AbstractAscent;
+import net.imagej.ops.fopd.costfunction.AbstractDescent;
+import net.imagej.ops.fopd.energy.deconvolution.TGVKLDivDeconvolution3D;
+import net.imagej.ops.fopd.energy.deconvolution.TVKLDivDeconvolution2D;
+import net.imagej.ops.fopd.energy.denoising.TGVL1Denoising2D;
+import net.imagej.ops.fopd.energy.denoising.TVL1Denoising2D;
+import net.imagej.ops.fopd.operator.Boundary;
+import net.imagej.ops.fopd.operator.SpectralAdjointSum;
+import net.imagej.ops.fopd.operator.SpectralConvolver;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Tests of {@link PreparedSolver} and {@link BatchSolver}.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public class BatchSolverTest extends AbstractOpTest {
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void preparedDenoisingTest() {
+		final SolverPreparer<DoubleType> preparer =
+			(SolverPreparer<DoubleType>) ops.op(TGVL1Denoising2D.class,
+				new RandomAccessibleInterval[] { img2D }, 10, 0.5, 1.0);
+		final PreparedSolver<DoubleType> solver = preparer.prepare(
+			new RandomAccessibleInterval[] { img2D });
+
+		for (final RandomAccessibleInterval<DoubleType> img : new RandomAccessibleInterval[] {
+			img2D, convolved2D, img2D })
+		{
+			final RandomAccessibleInterval<DoubleType>[] input =
+				new RandomAccessibleInterval[] { img };
+			assertEqualImages((RandomAccessibleInterval<DoubleType>) ops.run(
+				TGVL1Denoising2D.class, input, 10, 0.5, 1.0), solver.solve(input));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void preparedAdjointSumTest() {
+		final RandomAccessibleInterval<DoubleType>[] input =
+			new RandomAccessibleInterval[] { convolved2D, img2D };
+		final RandomAccessibleInterval<DoubleType>[] kernels =
+			new RandomAccessibleInterval[] { kernel2D, kernel2D };
+		final SolverSettings settings = new SolverSettings().setConvolution(
+			Convolution.SPECTRAL);
+		final PreparedSolver<DoubleType> solver =
+			((SolverPreparer<DoubleType>) ops.op(TVKLDivDeconvolution2D.class,
+				input, kernels, 10, settings, 0.1)).prepare(input);
+
+		// the fused TV primal update has to use the summed spectrum
+		final AbstractAscent<DoubleType> ascent =
+			(AbstractAscent<DoubleType>) solver.getCostFunction().getAscent();
+		final AbstractDescent<DoubleType> descent =
+			(AbstractDescent<DoubleType>) solver.getCostFunction().getDescent();
+		assertNotNull(descent.getAdjointSum());
+		final int[] calls = new int[1];
+		descent.setAdjointSum(new SpectralAdjointSum<DoubleType>(ops, context
+			.service(ThreadService.class), new SpectralConvolver[] {
+				(SpectralConvolver<DoubleType>) ascent.getOperator(0),
+				(SpectralConvolver<DoubleType>) ascent.getOperator(1) })
+		{
+
+			@Override
+			public RandomAccessibleInterval<DoubleType> calculate(
+				final RandomAccessibleInterval<DoubleType>[] dualVariables,
+				final int maxViews)
+			{
+				calls[0]++;
+				return super.calculate(dualVariables, maxViews);
+			}
+		});
+
+		assertEqualImages((RandomAccessibleInterval<DoubleType>) ops.run(
+			TVKLDivDeconvolution2D.class, input, kernels, 10, settings, 0.1),
+			solver.solve(input));
+		assertEquals(10, calls[0]);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void preparedDeconvolutionTest() {
+		final RandomAccessibleInterval<DoubleType>[] kernels =
+			new RandomAccessibleInterval[] { kernel2D };
+		final SolverPreparer<DoubleType> preparer =
+			(SolverPreparer<DoubleType>) ops.op(TVKLDivDeconvolution2D.class,
+				new RandomAccessibleInterval[] { convolved2D }, kernels, 10, 0.1);
+		final PreparedSolver<DoubleType> solver = preparer.prepare(
+			new RandomAccessibleInterval[] { convolved2D });
+
+		for (final RandomAccessibleInterval<DoubleType> img : new RandomAccessibleInterval[] {
+			convolved2D, img2D })
+		{
+			final RandomAccessibleInterval<DoubleType>[] input =
+				new RandomAccessibleInterval[] { img };
+			assertEqualImages((RandomAccessibleInterval<DoubleType>) ops.run(
+				TVKLDivDeconvolution2D.class, input, kernels, 10, 0.1), solver
+					.solve(input));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void batchTest() {
+		final SolverPreparer<DoubleType> preparer =
+			(SolverPreparer<DoubleType>) ops.op(TGVL1Denoising2D.class,
+				new RandomAccessibleInterval[] { img2D }, 10, 0.5, 1.0);
+
+		final List<RandomAccessibleInterval<DoubleType>[]> problems =
+			new ArrayList<RandomAccessibleInterval<DoubleType>[]>();
+		final RandomAccessibleInterval<DoubleType> cropped = ops.copy().rai(Views
+			.interval(img2D, new long[] { 0, 0 }, new long[] { 2, 1 }));
+		for (int i = 0; i < 6; i++) {
+			problems.add(new RandomAccessibleInterval[] { i % 3 == 0 ? img2D
+				: i % 3 == 1 ? convolved2D : cropped });
+		}
+
+		final List<RandomAccessibleInterval<DoubleType>> results =
+			new BatchSolver<DoubleType>(context.service(ThreadService.class),
+				preparer, 2).solve(problems);
+
+		assertEquals(problems.size(), results.size());
+		for (int i = 0; i < problems.size(); i++) {
+			assertEqualImages((RandomAccessibleInterval<DoubleType>) ops.run(
+				TGVL1Denoising2D.class, problems.get(i), 10, 0.5, 1.0), results.get(
+					i));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void automaticBatchTest() {
+		final SolverPreparer<DoubleType> preparer =
+			(SolverPreparer<DoubleType>) ops.op(TVL1Denoising2D.class,
+				new RandomAccessibleInterval[] { img2D }, 10, 0.5);
+
+		final List<RandomAccessibleInterval<DoubleType>[]> problems =
+			new ArrayList<RandomAccessibleInterval<DoubleType>[]>();
+		for (int i = 0; i < 16; i++) {
+			problems.add(new RandomAccessibleInterval[] { i % 2 == 0 ? img2D
+				: convolved2D });
+		}
+
+		final List<RandomAccessibleInterval<DoubleType>> results =
+			new BatchSolver<DoubleType>(context.service(ThreadService.class),
+				preparer).solve(problems);
+
+		for (int i = 0; i < problems.size(); i++) {
+			assertEqualImages((RandomAccessibleInterval<DoubleType>) ops.run(
+				TVL1Denoising2D.class, problems.get(i), 10, 0.5), results.get(i));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void fusedTest() {
+		final RandomAccessibleInterval<DoubleType>[] input =
+			new RandomAccessibleInterval[] { img2D };
+		assertTrue(((SolverPreparer<DoubleType>) ops.op(TVL1Denoising2D.class,
+			input, 10, 0.5)).prepare(input).getSolver().isFused());
+		assertFalse(((SolverPreparer<DoubleType>) ops.op(TGVL1Denoising2D.class,
+			input, 10, 0.5, 1.0)).prepare(input).getSolver().isFused());
+		assertFalse(((SolverPreparer<DoubleType>) ops.op(
+			TVKLDivDeconvolution2D.class, input, new RandomAccessibleInterval[] {
+				kernel2D }, 10, 0.5)).prepare(input).getSolver().isFused());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void budgetBatchTest() {
+		final SolverPreparer<DoubleType> preparer =
+			(SolverPreparer<DoubleType>) ops.op(TGVL1Denoising2D.class,
+				new RandomAccessibleInterval[] { img2D }, 10, 0.5, 1.0);
+
+		final List<RandomAccessibleInterval<DoubleType>[]> problems =
+			new ArrayList<RandomAccessibleInterval<DoubleType>[]>();
+		for (int i = 0; i < 8; i++) {
+			problems.add(new RandomAccessibleInterval[] { i % 2 == 0 ? img2D
+				: convolved2D });
+		}
+
+		// only one problem fits into the budget at a time
+		final long budget = preparer.estimatePeakBytes(problems.get(0));
+		final List<RandomAccessibleInterval<DoubleType>> results =
+			new BatchSolver<DoubleType>(context.service(ThreadService.class),
+				preparer, 4, budget).solve(problems);
+
+		for (int i = 0; i < problems.size(); i++) {
+			assertEqualImages((RandomAccessibleInterval<DoubleType>) ops.run(
+				TGVL1Denoising2D.class, problems.get(i), 10, 0.5, 1.0), results.get(
+					i));
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void memoryEstimatorTest() {
+		final RandomAccessibleInterval<DoubleType>[] input =
+			new RandomAccessibleInterval[] { img2D };
+		final long bytes = MemoryEstimator.getImageBytes(img2D);
+
+		// 5 state images, 2 scratch images, the observed image and the result
+		final long tv = ((SolverPreparer<DoubleType>) ops.op(
+			TVL1Denoising2D.class, input, 10, 0.5)).estimatePeakBytes(input);
+		assertEquals(9 * bytes, tv);
+
+		// 7 more state images of the TGV sub-state
+		final long tgv = ((SolverPreparer<DoubleType>) ops.op(
+			TGVL1Denoising2D.class, input, 10, 0.5, 1.0)).estimatePeakBytes(input);
+		assertEquals(16 * bytes, tgv);
+
+		// the solver in float and the result converted back
+		final long floats = ((SolverPreparer<DoubleType>) ops.op(
+			TVL1Denoising2D.class, input, 10, new SolverSettings().setPrecision(
+				Precision.FLOAT), 0.5)).estimatePeakBytes(input);
+		assertEquals(9 * bytes / 2 + bytes, floats);
+
+		// the solver of one pixel and the result
+		final long chunked = ((SolverPreparer<DoubleType>) ops.op(
+			TVL1Denoising2D.class, input, 10, new SolverSettings().setChunking(1,
+				0), 0.5)).estimatePeakBytes(input);
+		assertEquals(9 * bytes / 9 + bytes, chunked);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void memoryEstimatorDeconvolutionTest() {
+		final RandomAccessibleInterval<DoubleType>[] input =
+			new RandomAccessibleInterval[] { ArrayImgs.doubles(64, 64, 64),
+				ArrayImgs.doubles(64, 64, 64) };
+		final RandomAccessibleInterval<DoubleType>[] kernel =
+			new RandomAccessibleInterval[] { ArrayImgs.doubles(9, 9, 9), ArrayImgs
+				.doubles(9, 9, 9) };
+		final long bytes = MemoryEstimator.getImageBytes(input[0]);
+		final long[] fft = Boundary.BORDER.fftElements(input[0], kernel[0]);
+
+		final SolverSettings settings = new SolverSettings().setConvolution(
+			Convolution.SPECTRAL);
+		final long spectral = ((SolverPreparer<DoubleType>) ops.op(
+			TGVKLDivDeconvolution3D.class, input, kernel, 10, settings, 0.5, 1.0))
+				.estimatePeakBytes(input);
+		// 3 + 2 dual variables, 2 results, 6 TGV dual variables and 6 results
+		final long state = 19 * bytes;
+		// 2 scratch images, 2 observed images, the result and 4 * f of 2 views
+		final long other = 7 * bytes;
+		// padded image, spectrum, kernel spectrum and 2 results per view and
+		// the summed spectrum and the sum of the SpectralAdjointSum
+		final long convolvers = 2 * (fft[0] * 4 + fft[1] * 16 + 2 * bytes) +
+			fft[1] * 16 + bytes;
+		assertEquals(state + other + convolvers, spectral);
+
+		final long mapped = ((SolverPreparer<DoubleType>) ops.op(
+			TGVKLDivDeconvolution3D.class, input, kernel, 10, settings
+				.setScratchDirectory(new File(System.getProperty("java.io.tmpdir"))),
+			0.5, 1.0)).estimatePeakBytes(input);
+		assertEquals(spectral - state - 2 * bytes, mapped);
+	}
+
+	private void assertEqualImages(
+		final RandomAccessibleInterval<DoubleType> expected,
+		final RandomAccessibleInterval<DoubleType> actual)
+	{
+		final Cursor<DoubleType> e = Views.flatIterable(expected).cursor();
+		final Cursor<DoubleType> a = Views.flatIterable(actual).cursor();
+		while (e.hasNext()) {
+			assertEquals(e.next().get(), a.next().get(), 0);
+		}
+	}
+}
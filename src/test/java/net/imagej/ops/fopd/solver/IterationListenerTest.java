@@ -0,0 +1,102 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.solver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imagej.ops.fopd.AbstractOpTest;
+import net.imagej.ops.fopd.energy.denoising.TGVL1Denoising2D;
+import net.imagej.ops.fopd.energy.denoising.TVL1Denoising2D;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.real.DoubleType;
+
+import org.junit.Test;
+
+/**
+ * Tests of the {@link IterationListener}.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public class IterationListenerTest extends AbstractOpTest {
+
+	@Test
+	public void samplingRateTest() {
+		final List<Integer> iterations = new ArrayList<Integer>();
+		final IterationListener<DoubleType> listener =
+			new IterationListener<DoubleType>() {
+
+				public void iterationFinished(final IterationEvent<DoubleType> event) {
+					iterations.add(event.getIteration());
+					assertEquals(10, event.getNumIterations());
+
+					final double[] change = event.getChange();
+					assertTrue(change[0] <= change[1]);
+					assertTrue(change[1] <= change[2]);
+					assertTrue(event.getEnergy() >= 0);
+					assertTrue(event.getIterationTime() <= event.getElapsedTime());
+				}
+			};
+
+		ops.run(TVL1Denoising2D.class, new RandomAccessibleInterval[] { img2D },
+			10, new SolverSettings().addIterationListener(listener, 3), 0.5);
+
+		assertArrayEquals(new Object[] { 3, 6, 9 }, iterations.toArray());
+	}
+
+	@Test
+	public void regularizerSamplingRateTest() {
+		final List<Integer> iterations = new ArrayList<Integer>();
+		final IterationListener<DoubleType> listener =
+			new IterationListener<DoubleType>() {
+
+				public void iterationFinished(final IterationEvent<DoubleType> event) {
+					iterations.add(event.getIteration());
+					assertEquals(event.getIteration(), event.getNumIterations());
+
+					final double[] change = event.getChange();
+					assertTrue(change[0] <= change[1]);
+					assertTrue(change[1] <= change[2]);
+					assertTrue(event.getIterationTime() <= event.getElapsedTime());
+				}
+			};
+
+		ops.run(TGVL1Denoising2D.class, new RandomAccessibleInterval[] { img2D },
+			10, new SolverSettings().addRegularizerIterationListener(listener, 4),
+			0.5, 1.0);
+
+		assertArrayEquals(new Object[] { 4, 8 }, iterations.toArray());
+	}
+}
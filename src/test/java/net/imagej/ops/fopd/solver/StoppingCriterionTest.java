@@ -0,0 +1,122 @@
+/*-
+ * #%L
+ * An implementation of the first-order primal-dual solver proposed by Antonin Chamoblle and Thomas Pock.
+ * Ref.: Chambolle, Antonin, and Thomas Pock. "A first-order primal-dual algorithm for convex problems with applications to imaging." Journal of Mathematical Imaging and Vision 40.1 (2011): 120-145.
+ * %%
+ * Copyright (C) 2017 Tim-Oliver Buchholz, University of Konstanz
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.ops.fopd.solver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import net.imagej.ops.fopd.AbstractOpTest;
+import net.imagej.ops.fopd.costfunction.l1norm.L1Norm;
+import net.imagej.ops.fopd.costfunction.squaredl2norm.SquaredL2Norm;
+import net.imagej.ops.fopd.energy.denoising.TVL1Denoising2D;
+import net.imagej.ops.fopd.operator.Identity;
+import net.imagej.ops.fopd.operator.LinearOperator;
+import net.imagej.ops.fopd.regularizer.tv.TotalVariation2D;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.real.DoubleType;
+
+import org.junit.Test;
+
+/**
+ * Tests of the {@link StoppingCriterion}s.
+ * 
+ * @author Tim-Oliver Buchholz, University of Konstanz
+ */
+public class StoppingCriterionTest extends AbstractOpTest {
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void relativeChangeTest() {
+		// the first iteration always has a relative change of 1
+		final Img<DoubleType> stopped = (Img<DoubleType>) ops.run(
+			TVL1Denoising2D.class, new RandomAccessibleInterval[] { img2D }, 10,
+			new SolverSettings().setTolerance(10), 0.5);
+		final Img<DoubleType> oneIteration = (Img<DoubleType>) ops.run(
+			TVL1Denoising2D.class, new RandomAccessibleInterval[] { img2D }, 1,
+			0.5);
+
+		final Cursor<DoubleType> c = stopped.cursor();
+		final Cursor<DoubleType> e = oneIteration.cursor();
+		while (c.hasNext()) {
+			assertEquals("Relative change did not stop.", e.next().get(), c.next()
+				.get(), 0);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void primalDualGapTest() {
+		final SolverState<DoubleType> state = new DefaultSolverState<DoubleType>(
+			ops, new RandomAccessibleInterval[] { img2D }, 1);
+		final TotalVariation2D<DoubleType> tv = new TotalVariation2D<DoubleType>(
+			ops, 0.5, 1 / 5.0);
+		final L1Norm<DoubleType> l1 = new L1Norm<DoubleType>(ops,
+			new RandomAccessibleInterval[] { img2D }, new LinearOperator[] { ops.op(
+				Identity.class, img2D) }, new LinearOperator[] { ops.op(
+					Identity.class, img2D) }, 1 / 5.0);
+		final PrimalDualGap<DoubleType> gap = new PrimalDualGap<DoubleType>(tv,
+			l1, 0, 1);
+
+		ops.op(DefaultSolver.class, state, tv, l1, 20, gap).calculate(state);
+
+		// weak duality
+		assertTrue("Negative primal-dual gap: " + gap.getGap(), gap
+			.getGap() > -1e-10);
+		assertTrue("Gap was not evaluated.", gap.getGap() < Double.POSITIVE_INFINITY);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void convergedPrimalDualGapTest() {
+		final SolverState<DoubleType> state = new DefaultSolverState<DoubleType>(
+			ops, new RandomAccessibleInterval[] { img2D }, 1);
+		final TotalVariation2D<DoubleType> tv = new TotalVariation2D<DoubleType>(
+			ops, 0.5, 1 / 5.0);
+		final SquaredL2Norm<DoubleType> l2 = new SquaredL2Norm<DoubleType>(ops,
+			new RandomAccessibleInterval[] { img2D }, new LinearOperator[] { ops.op(
+				Identity.class, img2D) }, new LinearOperator[] { ops.op(
+					Identity.class, img2D) }, 1 / 5.0);
+		final PrimalDualGap<DoubleType> gap = new PrimalDualGap<DoubleType>(tv,
+			l2, 0, 1);
+
+		ops.op(DefaultSolver.class, state, tv, l2, 2000).calculate(state);
+		gap.hasConverged(state, 1, 0);
+
+		// the energies are evaluated on the primal iterate, so the gap of a
+		// converged solve vanishes
+		final double primal = tv.getPrimalEnergy(state) + l2.getPrimalEnergy(
+			state);
+		assertTrue("Primal-dual gap did not vanish: " + gap.getGap(), Math.abs(gap
+			.getGap()) <= 1e-2 * primal);
+	}
+}